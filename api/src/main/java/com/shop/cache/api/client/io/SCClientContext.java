@@ -42,6 +42,15 @@ public interface SCClientContext
 	 */
 	public SCClientContext 			notificationHandler(SCNotifications n);
 
+	/**
+	 * If true, objects are fetched using the raw protocol mode (see {@link com.shop.cache.api.commands.SCCommandGetObjectRaw}) - large
+	 * objects are sent without escaping and, by the server, without being read into memory. The servers must support the mode. The default is false.
+	 *
+	 * @param b new value
+	 * @return this
+	 */
+	public SCClientContext 			rawObjects(boolean b);
+
 	/**
 	 * Returns the currently set address
 	 *
@@ -55,4 +64,11 @@ public interface SCClientContext
 	 * @return handler or null
 	 */
 	public SCNotifications 			getNotificationHandler();
+
+	/**
+	 * Returns true if the raw protocol mode is used for gets
+	 *
+	 * @return true/false
+	 */
+	public boolean 					getRawObjects();
 }
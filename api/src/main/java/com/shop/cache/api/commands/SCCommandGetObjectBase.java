@@ -18,6 +18,8 @@ package com.shop.cache.api.commands;
 import com.shop.util.chunked.ChunkedByteArray;
 import com.shop.cache.api.server.SCConnection;
 import com.shop.cache.api.server.SCServer;
+import com.shop.cache.api.storage.SCObjectRegion;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -28,8 +30,14 @@ import java.util.List;
 abstract class SCCommandGetObjectBase implements SCCommand
 {
 	protected SCCommandGetObjectBase(boolean ignoreTTL)
+	{
+		this(ignoreTTL, false);
+	}
+
+	protected SCCommandGetObjectBase(boolean ignoreTTL, boolean raw)
 	{
 		fIgnoreTTL = ignoreTTL;
+		fRaw = raw;
 	}
 
 	@Override
@@ -57,8 +65,43 @@ abstract class SCCommandGetObjectBase implements SCCommand
 			@Override
 			public void executeCommand(SCServer server, SCConnection connection) throws Exception
 			{
-				ChunkedByteArray 		data = server.get(fKey, fIgnoreTTL);
-				connection.sendObject((data != null) ? data : null);
+				if ( fRaw )
+				{
+					SCObjectRegion 		region = server.getObjectRegion(fKey, fIgnoreTTL);
+					if ( region != null )
+					{
+						try
+						{
+							connection.sendRawObject(region);
+						}
+						finally
+						{
+							region.release();
+						}
+						return;
+					}
+				}
+
+				// the read is done by the storage's I/O threads - the connection doesn't hold a thread while it waits
+				connection.sendWhenComplete
+				(
+					server.getAsync(fKey, fIgnoreTTL),
+					new SCConnection.ResponseSender<ChunkedByteArray>()
+					{
+						@Override
+						public void send(SCConnection connection, ChunkedByteArray data) throws IOException
+						{
+							if ( fRaw )
+							{
+								connection.sendRawObject(data);
+							}
+							else
+							{
+								connection.sendObject(data);
+							}
+						}
+					}
+				);
 			}
 
 			private String			fKey = "";
@@ -80,4 +123,5 @@ abstract class SCCommandGetObjectBase implements SCCommand
 	);
 
 	private final boolean fIgnoreTTL;
+	private final boolean fRaw;
 }
\ No newline at end of file
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2008-2009 SHOP.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shop.cache.api.commands;
+
+/**
+ * @author Jordan Zimmerman
+ */
+@SCDoc
+(
+	description = "Get an object from the cache. The response is the object size followed by the object bytes, unescaped, and then a line that is 1 if the bytes are valid or 0 if the object changed while being sent (the bytes must be discarded). A size of 0 means not found and nothing follows.",
+	parameters =
+	{
+		"key",		"The key of the object to get"
+	}
+)
+public class SCCommandGetObjectRaw extends SCCommandGetObjectBase
+{
+	/**
+	 * Sent after the object bytes if the bytes are valid
+	 */
+	public static final String 		OBJECT_IS_VALID = "1";
+
+	/**
+	 * Sent after the object bytes if the object changed while being sent
+	 */
+	public static final String 		OBJECT_IS_INVALID = "0";
+
+	SCCommandGetObjectRaw()
+	{
+		super(false, true);
+	}
+}
@@ -13,20 +13,23 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-package com.shop.util.ccdb2;
+package com.shop.cache.api.commands;
 
 /**
- * <br>
- *
  * @author Jordan Zimmerman
  */
-interface CCDB2UpdateIndexInterface
+@SCDoc
+(
+	description = "Get an object from the cache ignoring the object's TTL. The response is the same as for rget",
+	parameters =
+	{
+		"key",		"The key of the object to get"
+	}
+)
+public class SCCommandGetObjectRawIgnoreTTL extends SCCommandGetObjectBase
 {
-	/**
-	 * Used internally to update the index size
-	 *
-	 * @param key key
-	 * @param add true if being added, false otherwise
-	 */
-	public void updateIndexSize(String key, boolean add);
-}
\ No newline at end of file
+	SCCommandGetObjectRawIgnoreTTL()
+	{
+		super(true, true);
+	}
+}
@@ -88,6 +88,8 @@ public class SCSetOfCommands
 		work.put("put", new SCCommandPutObject());
 		work.put("get", new SCCommandGetObject());
 		work.put("iget", new SCCommandGetObjectIgnoreTTL());
+		work.put("rget", new SCCommandGetObjectRaw());
+		work.put("irget", new SCCommandGetObjectRawIgnoreTTL());
 		work.put("shutdownserver", new SCCommandShutdown());
 		work.put("get / http/1.1", new SCCommandHTTPPing());
 		work.put("stack", new SCCommandStack());
@@ -15,8 +15,10 @@
  */
 package com.shop.cache.api.server;
 
+import com.shop.cache.api.storage.SCObjectRegion;
 import com.shop.util.chunked.ChunkedByteArray;
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Abstraction for a client connected to the server
@@ -25,6 +27,21 @@ import java.io.IOException;
  */
 public interface SCConnection
 {
+	/**
+	 * Sends a response for {@link SCConnection#sendWhenComplete(CompletableFuture, ResponseSender)}
+	 */
+	public interface ResponseSender<T>
+	{
+		/**
+		 * Send the response
+		 *
+		 * @param connection the connection
+		 * @param value the future's value
+		 * @throws IOException errors
+		 */
+		public void 	send(SCConnection connection, T value) throws IOException;
+	}
+
 	/**
 	 * Return true if this is a connection to the monitor server
 	 *
@@ -54,4 +71,33 @@ public interface SCConnection
 	 * @throws IOException errors
 	 */
 	public void 		sendObject(ChunkedByteArray obj) throws IOException;
+
+	/**
+	 * Send an object to the client as a length-prefixed, unescaped block followed by a validity line
+	 * (see {@link com.shop.cache.api.commands.SCCommandGetObjectRaw})
+	 *
+	 * @param obj the object or null
+	 * @throws IOException errors
+	 */
+	public void 		sendRawObject(ChunkedByteArray obj) throws IOException;
+
+	/**
+	 * Send an object from the storage to the client as a length-prefixed, unescaped block followed by a validity line
+	 * (see {@link com.shop.cache.api.commands.SCCommandGetObjectRaw}). The data is sent directly from the storage, not through the heap.
+	 *
+	 * @param region the object's region
+	 * @throws IOException errors
+	 */
+	public void 		sendRawObject(SCObjectRegion region) throws IOException;
+
+	/**
+	 * Send a response once the given future completes. If the future has already completed, the response is sent now.
+	 * Otherwise, the connection stops reading commands and doesn't hold a thread until the response has been sent. This must
+	 * be the last thing a command does.
+	 *
+	 * @param future the future of the response's value
+	 * @param sender sends the response
+	 * @throws IOException errors
+	 */
+	public <T> void 	sendWhenComplete(CompletableFuture<T> future, ResponseSender<T> sender) throws IOException;
 }
@@ -16,6 +16,9 @@
 package com.shop.cache.api.server;
 
 import com.shop.cache.api.common.SCClientServerCommon;
+import com.shop.cache.api.storage.SCObjectRegion;
+import com.shop.util.chunked.ChunkedByteArray;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * The server API
@@ -48,4 +51,24 @@ public interface SCServer extends SCLoggable, SCClientServerCommon
 	 * Used internally to keep track of the transaction count stat
 	 */
 	public void					incrementTransactionCount();
+
+	/**
+	 * Returns the storage region of a large object so that it can be sent without being read into memory. If null
+	 * is returned, use {@link #get(String, boolean)}.
+	 *
+	 * @param key object key
+	 * @param ignoreTTL if true ignore the TTL
+	 * @return the region (which must be released) or null
+	 */
+	public SCObjectRegion 		getObjectRegion(String key, boolean ignoreTTL);
+
+	/**
+	 * Asynchronous version of {@link #get(String, boolean)} - disk reads are done by the storage's I/O threads.
+	 * Errors are handled internally and complete the future with null.
+	 *
+	 * @param key object key
+	 * @param ignoreTTL if true ignore the TTL
+	 * @return future that completes with the object or null
+	 */
+	public CompletableFuture<ChunkedByteArray> 	getAsync(String key, boolean ignoreTTL);
 }
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2008-2009 SHOP.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shop.cache.api.storage;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * An object's data as stored by the storage instance - e.g. a region of a file. Lets the server send
+ * the object without reading it into the heap.
+ *
+ * @author Jordan Zimmerman
+ */
+public interface SCObjectRegion
+{
+	/**
+	 * Return the size of the object
+	 *
+	 * @return size in bytes
+	 */
+	public int 			getLength();
+
+	/**
+	 * Return the object's TTL
+	 *
+	 * @return TTL
+	 */
+	public long 		getTTL();
+
+	/**
+	 * Write the object's data to the given channel
+	 *
+	 * @param channel the channel
+	 * @throws IOException errors
+	 */
+	public void 		transferTo(WritableByteChannel channel) throws IOException;
+
+	/**
+	 * Objects aren't locked while being sent. Call this after sending - if it returns false the object changed and the bytes sent must be discarded.
+	 *
+	 * @return true if the object hasn't changed
+	 */
+	public boolean 		isValid();
+
+	/**
+	 * Must be called when done with the region
+	 */
+	public void 		release();
+}
@@ -22,6 +22,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * interface for storage instances
@@ -54,6 +55,17 @@ public interface SCStorage
 	 */
 	public SCDataSpec get(String key) throws IOException;
 
+	/**
+	 * Return the stored data of the given key's object so that it can be sent without being read into memory. Storage
+	 * instances that can't do this, or choose not to for the object (e.g. because it's stored compressed), return null and the object must be read via {@link #get(String)}.
+	 *
+	 * @param key the key
+	 * @param minimumSize only objects of at least this size (in bytes) need be returned
+	 * @return the region (which must be released) or null
+	 * @throws IOException errors
+	 */
+	public SCObjectRegion getObjectRegion(String key, int minimumSize) throws IOException;
+
 	/**
 	 * Add an object to the storage
 	 *
@@ -63,6 +75,27 @@ public interface SCStorage
 	 */
 	public void put(String key, SCDataSpec data, SCGroupSpec groups);
 
+	/**
+	 * Asynchronous version of {@link #get(String)}. Objects that can be returned without disk I/O complete
+	 * immediately. Otherwise, the read is queued for the storage's I/O threads and the calling thread isn't blocked.
+	 * If the queue is full, the read isn't done and the future completes with null (a miss).
+	 *
+	 * @param key the key
+	 * @return future that completes with the object or null if not found. Errors complete it exceptionally.
+	 */
+	public CompletableFuture<SCDataSpec> getAsync(String key);
+
+	/**
+	 * Asynchronous version of {@link #put(String, SCDataSpec, SCGroupSpec)}. The write is queued for the storage's
+	 * I/O threads. If the queue is full, the write isn't done and the future completes exceptionally.
+	 *
+	 * @param key key
+	 * @param data object
+	 * @param groups associated groups or null
+	 * @return future that completes when the object has been added
+	 */
+	public CompletableFuture<Void> putAsync(String key, SCDataSpec data, SCGroupSpec groups);
+
 	/**
 	 * Close the storage. The storage instance will be unusable afterwards.
 	 *
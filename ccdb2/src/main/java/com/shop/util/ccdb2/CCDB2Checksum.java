@@ -0,0 +1,155 @@
+/*
+ * Copyright 2008-2009 SHOP.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shop.util.ccdb2;
+
+import com.shop.util.chunked.ChunkedByteArray;
+import java.io.IOException;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+/**
+ * The kinds of record checksums. The kind used by a DB file is recorded in its header so that
+ * files written with an older kind still verify.<br>
+ *
+ * @author Jordan Zimmerman
+ */
+enum CCDB2Checksum
+{
+	/**
+	 * Checksums are off
+	 */
+	NONE((byte)0)
+	{
+		@Override
+		int compute(ChunkedByteArray bytes)
+		{
+			return 0;
+		}
+	},
+
+	/**
+	 * The original checksum - a 31*h+b hash of the object. Files written before checksum kinds were recorded have
+	 * a 0 in the header, so this must remain 0.
+	 */
+	LEGACY((byte)0)
+	{
+		@Override
+		int compute(ChunkedByteArray bytes)
+		{
+			LegacyHash 		hash = new LegacyHash();
+			bytes.update(hash);
+			return (int)hash.getValue();
+		}
+	},
+
+	/**
+	 * CRC32C (hardware accelerated on modern CPUs)
+	 */
+	CRC32C((byte)1)
+	{
+		@Override
+		int compute(ChunkedByteArray bytes)
+		{
+			CRC32C 		crc = new CRC32C();
+			bytes.update(crc);
+			return (int)crc.getValue();
+		}
+	};
+
+	/**
+	 * Return the checksum kind for the given header values
+	 *
+	 * @param useCRCs the header's CRC flag
+	 * @param headerCode the header's checksum code
+	 * @return kind
+	 * @throws IOException unknown code
+	 */
+	static CCDB2Checksum 	fromHeader(boolean useCRCs, byte headerCode) throws IOException
+	{
+		if ( !useCRCs )
+		{
+			return NONE;
+		}
+
+		for ( CCDB2Checksum checksum : values() )
+		{
+			if ( (checksum != NONE) && (checksum.fHeaderCode == headerCode) )
+			{
+				return checksum;
+			}
+		}
+		throw new IOException("Unknown checksum kind: " + headerCode);
+	}
+
+	/**
+	 * Returns the code to store in the header
+	 *
+	 * @return code
+	 */
+	byte 					getHeaderCode()
+	{
+		return fHeaderCode;
+	}
+
+	/**
+	 * Compute the checksum for the given object
+	 *
+	 * @param bytes object
+	 * @return checksum
+	 */
+	abstract int 			compute(ChunkedByteArray bytes);
+
+	private CCDB2Checksum(byte headerCode)
+	{
+		fHeaderCode = headerCode;
+	}
+
+	private static class LegacyHash implements Checksum
+	{
+		@Override
+		public void update(int b)
+		{
+			fHash = (31 * fHash) + (byte)b;
+		}
+
+		@Override
+		public void update(byte[] b, int off, int len)
+		{
+			int 	hash = fHash;
+			for ( int i = off; i < (off + len); ++i )
+			{
+				hash = (31 * hash) + b[i];
+			}
+			fHash = hash;
+		}
+
+		@Override
+		public long getValue()
+		{
+			return fHash;
+		}
+
+		@Override
+		public void reset()
+		{
+			fHash = 0;
+		}
+
+		private int 	fHash = 0;
+	}
+
+	private final byte 		fHeaderCode;
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2008-2009 SHOP.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shop.util.ccdb2;
+
+import com.shop.util.chunked.ChunkedByteArray;
+import com.shop.util.chunked.ChunkedByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The codecs used to compress record objects. A compressed record's object starts with the codec's code
+ * and the uncompressed size (see {@link #HEADER_SIZE}) so that each record can use a different codec.<br>
+ *
+ * @author Jordan Zimmerman
+ */
+enum CCDB2Codec
+{
+	/**
+	 * Deflate at its fastest level
+	 */
+	DEFLATE((byte)1)
+	{
+		@Override
+		boolean 		compress(ChunkedByteArray bytes, final ByteBuffer out) throws IOException
+		{
+			final Deflater 		deflater = new Deflater(Deflater.BEST_SPEED, true);
+			try
+			{
+				bytes.writeTo
+				(
+					new OutputStream()
+					{
+						@Override
+						public void write(int b) throws IOException
+						{
+							write(new byte[]{(byte)b}, 0, 1);
+						}
+
+						@Override
+						public void write(byte[] b, int off, int len) throws IOException
+						{
+							deflater.setInput(b, off, len);
+							while ( !deflater.needsInput() )
+							{
+								deflate(deflater, out);
+							}
+						}
+					}
+				);
+
+				deflater.finish();
+				while ( !deflater.finished() )
+				{
+					deflate(deflater, out);
+				}
+				return true;
+			}
+			catch ( OutputFullException dummy )
+			{
+				return false;
+			}
+			finally
+			{
+				deflater.end();
+			}
+		}
+
+		@Override
+		void 			decompress(InputStream in, ChunkedByteArray bytes, int size) throws IOException
+		{
+			Inflater 		inflater = new Inflater(true);
+			try
+			{
+				InflaterInputStream 	inflaterIn = new InflaterInputStream(in, inflater, BUFFER_SIZE);
+				bytes.append(inflaterIn, size);
+				if ( inflaterIn.read() >= 0 )
+				{
+					throw new IOException("Compressed object is larger than its recorded size");
+				}
+			}
+			finally
+			{
+				inflater.end();
+			}
+		}
+	};
+
+	/**
+	 * Size of the codec code and uncompressed size at the start of a compressed object
+	 */
+	static final int 		HEADER_SIZE = 1 + 4;
+
+	/**
+	 * Compress the given object. If the result isn't at least 1/8th smaller than
+	 * the object, null is returned and the object should be stored as is.
+	 *
+	 * @param bytes the object
+	 * @return the compressed object including the codec header or null
+	 * @throws IOException errors
+	 */
+	ChunkedByteArray 		compressObject(ChunkedByteArray bytes) throws IOException
+	{
+		int 			size = bytes.size();
+		ByteBuffer 		out = ByteBuffer.allocate(size - (size / MINIMUM_SAVINGS_DIVISOR));	// compression stops as soon as this is full
+		if ( out.remaining() < HEADER_SIZE )
+		{
+			return null;
+		}
+		out.put(fCode);
+		out.putInt(size);
+		if ( !compress(bytes, out) )
+		{
+			return null;
+		}
+
+		ChunkedByteArray 	compressed = new ChunkedByteArray(out.position());
+		compressed.append(out.array(), 0, out.position());
+		return compressed;
+	}
+
+	/**
+	 * Decompress an object returned by {@link #compressObject(ChunkedByteArray)}. The codec is read from the object.
+	 *
+	 * @param compressed the compressed object including the codec header
+	 * @param doChunking if false, the result is a single byte array
+	 * @return the object
+	 * @throws IOException errors or corrupted data
+	 */
+	static ChunkedByteArray decompressObject(ChunkedByteArray compressed, boolean doChunking) throws IOException
+	{
+		if ( compressed.size() < HEADER_SIZE )
+		{
+			throw new IOException("Compressed object is too small: " + compressed.size());
+		}
+
+		byte 			code = compressed.get(0);
+		int 			size = ((compressed.get(1) & 0xff) << 24) | ((compressed.get(2) & 0xff) << 16) | ((compressed.get(3) & 0xff) << 8) | (compressed.get(4) & 0xff);
+		if ( size <= 0 )
+		{
+			throw new IOException("Bad uncompressed size: " + size);
+		}
+
+		ChunkedByteArray 	bytes = (doChunking && (size >= ChunkedByteArray.DEFAULT_CHUNK_SIZE)) ? new ChunkedByteArray() : new ChunkedByteArray(size);
+		fromCode(code).decompress(new ChunkedByteArrayInputStream(compressed, HEADER_SIZE, compressed.size() - HEADER_SIZE), bytes, size);
+		return bytes;
+	}
+
+	/**
+	 * Compress the object into the buffer
+	 *
+	 * @param bytes the object
+	 * @param out the buffer
+	 * @return false if the buffer filled up before the object was compressed
+	 * @throws IOException errors
+	 */
+	abstract boolean 		compress(ChunkedByteArray bytes, ByteBuffer out) throws IOException;
+
+	/**
+	 * Decompress exactly size bytes from the stream into the array
+	 *
+	 * @param in the compressed data
+	 * @param bytes the array to append to
+	 * @param size the uncompressed size
+	 * @throws IOException errors or corrupted data
+	 */
+	abstract void 			decompress(InputStream in, ChunkedByteArray bytes, int size) throws IOException;
+
+	private static CCDB2Codec 	fromCode(byte code) throws IOException
+	{
+		for ( CCDB2Codec codec : values() )
+		{
+			if ( codec.fCode == code )
+			{
+				return codec;
+			}
+		}
+		throw new IOException("Unknown codec: " + code);
+	}
+
+	private CCDB2Codec(byte code)
+	{
+		fCode = code;
+	}
+
+	private static void 	deflate(Deflater deflater, ByteBuffer out) throws OutputFullException
+	{
+		if ( !out.hasRemaining() )
+		{
+			throw new OutputFullException();
+		}
+		int 		length = deflater.deflate(out.array(), out.position(), out.remaining());
+		out.position(out.position() + length);
+	}
+
+	private static class OutputFullException extends IOException
+	{
+		private static final long 		serialVersionUID = 1L;
+	}
+
+	private static final int 		MINIMUM_SAVINGS_DIVISOR = 8;
+	private static final int 		BUFFER_SIZE = 0x4000;
+
+	private final byte 				fCode;
+}
@@ -74,4 +74,72 @@ public interface CCDB2Driver
 	 * @return allocation size or 0
 	 */
 	public long			getAllocationChunkSize();
+
+	/**
+	 * Return true if CCDB2 should read records via memory mapped segments of the DB file instead of
+	 * seek/read calls on pooled file handles. Writes are unaffected.
+	 *
+	 * @return true/false
+	 */
+	public boolean		useMappedReads();
+
+	/**
+	 * Return true if CCDB2 should use the compact index that keeps key hashes, addresses and TTLs in
+	 * primitive arrays instead of an object per key.
+	 *
+	 * @return true/false
+	 */
+	public boolean		usePrimitiveIndex();
+
+	/**
+	 * Return the maximum number of bytes of object data a new instance caches in memory. 0 means no caching. A driver
+	 * with several instances should return each instance's share of its total and can change the share of existing
+	 * instances with {@link CCDB2Instance#setObjectCacheSize(long)}.
+	 *
+	 * @return size in bytes
+	 */
+	public long			getObjectCacheSize();
+
+	/**
+	 * Return true if records in new DB files should be written with checksums (CRC32C). Existing
+	 * files continue to use the kind of checksum recorded in their header.
+	 *
+	 * @return true/false
+	 */
+	public boolean		useChecksums();
+
+	/**
+	 * Return true if CCDB2 should keep a sorted set of keys so that regular expressions with a literal prefix
+	 * only need to examine the keys with that prefix.
+	 *
+	 * @return true/false
+	 */
+	public boolean		useSortedKeyIndex();
+
+	/**
+	 * Return the number of keys to size each instance's key filter for. Lookups of keys that aren't in an instance
+	 * are answered from the filter without touching the index. Instances loaded with more keys size their filter to
+	 * the keys loaded. 0 disables the filter. A driver with several instances should return each instance's share of
+	 * its total.
+	 *
+	 * @return qty
+	 */
+	public int			getKeyFilterCapacity();
+
+	/**
+	 * Return the object size at which CCDB2 compresses objects in the records it writes. Objects are only stored
+	 * compressed if that saves space. 0 means objects are never compressed.
+	 *
+	 * @return size in bytes or 0
+	 */
+	public int			getCompressionThreshold();
+
+	/**
+	 * Return the maximum number of hot keys (the keys of the objects in the object cache) each instance saves at
+	 * shutdown and periodically. When the instance is next opened, the saved keys' objects can be read back into
+	 * the cache via {@link CCDB2Instance#warmUp(AtomicInteger)}. 0 means hot keys aren't saved.
+	 *
+	 * @return qty or 0
+	 */
+	public int			getHotKeyQty();
 }
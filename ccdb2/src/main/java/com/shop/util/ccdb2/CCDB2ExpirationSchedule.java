@@ -0,0 +1,147 @@
+/*
+ * Copyright 2008-2009 SHOP.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shop.util.ccdb2;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * TTL buckets used by the indexes to expire entries incrementally. Entries are placed in a bucket by the
+ * tick (second) in which their TTL delta passes. Only buckets that are due are ever examined, so expiring
+ * doesn't require a scan of the index.<br><br>
+ *
+ * The schedule doesn't track changes - an entry whose TTL changes is simply scheduled again, and the index must
+ * re-check the TTL of each entry it takes from a due bucket.<br><br>
+ *
+ * Adding to a bucket races with the removal of an emptied bucket. Therefore, adders must call {@link #isScheduled(int, Object)}
+ * after adding and try again if the bucket is no longer scheduled. Removers must re-check a bucket after
+ * {@link #remove(int, Object)} succeeds.<br>
+ *
+ * @author Jordan Zimmerman
+ */
+class CCDB2ExpirationSchedule<B>
+{
+	/**
+	 * Creates the buckets
+	 */
+	interface BucketFactory<B>
+	{
+		/**
+		 * Return a new empty bucket
+		 *
+		 * @return bucket
+		 */
+		public B 	newBucket();
+	}
+
+	/**
+	 * @param factory bucket factory
+	 */
+	CCDB2ExpirationSchedule(BucketFactory<B> factory)
+	{
+		fFactory = factory;
+		fBuckets = new ConcurrentSkipListMap<Integer, B>();
+	}
+
+	/**
+	 * Returns the tick for the given TTL delta. The tick is rounded up so that a bucket never becomes due
+	 * before its entries have expired.
+	 *
+	 * @param TTLDelta TTL delta
+	 * @return tick
+	 */
+	static int 		getTick(long TTLDelta)
+	{
+		return (int)((TTLDelta + EXPIRATION_TICKS - 1) / EXPIRATION_TICKS);
+	}
+
+	/**
+	 * Returns the bucket for the given tick, creating it if needed
+	 *
+	 * @param tick tick
+	 * @return bucket
+	 */
+	B 				getBucket(int tick)
+	{
+		B 		bucket = fBuckets.get(tick);
+		if ( bucket == null )
+		{
+			B 		newBucket = fFactory.newBucket();
+			bucket = fBuckets.putIfAbsent(tick, newBucket);
+			if ( bucket == null )
+			{
+				bucket = newBucket;
+			}
+		}
+		return bucket;
+	}
+
+	/**
+	 * Returns true if the given bucket is still the bucket for the tick
+	 *
+	 * @param tick tick
+	 * @param bucket bucket
+	 * @return true/false
+	 */
+	boolean 		isScheduled(int tick, B bucket)
+	{
+		return fBuckets.get(tick) == bucket;
+	}
+
+	/**
+	 * Returns the oldest bucket if it is due - i.e. every entry scheduled in it has expired
+	 *
+	 * @param creationDate the creation date of the instance (TTLs are relative to it)
+	 * @param now current time
+	 * @return the tick/bucket or null
+	 */
+	Map.Entry<Integer, B> 	getFirstDue(long creationDate, long now)
+	{
+		Map.Entry<Integer, B> 	first = fBuckets.firstEntry();
+		if ( (first != null) && (((long)first.getKey() * EXPIRATION_TICKS) <= (now - creationDate)) )
+		{
+			return first;
+		}
+		return null;
+	}
+
+	/**
+	 * Remove an emptied bucket
+	 *
+	 * @param tick tick
+	 * @param bucket bucket
+	 * @return true if the bucket was removed
+	 */
+	boolean 		remove(int tick, B bucket)
+	{
+		return fBuckets.remove(tick, bucket);
+	}
+
+	/**
+	 * Returns the number of scheduled buckets
+	 *
+	 * @return qty
+	 */
+	int 			getBucketQty()
+	{
+		return fBuckets.size();
+	}
+
+	static final int 		EXPIRATION_TICKS = 1000;
+
+	private final BucketFactory<B> 						fFactory;
+	private final ConcurrentSkipListMap<Integer, B> 	fBuckets;
+}
@@ -15,13 +15,34 @@
  */
 package com.shop.util.ccdb2;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.io.FileNotFoundException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Manages the DB file. This class is, essentially, a very quick disk space allocator.<br>
+ * All I/O goes through a single shared {@link FileChannel} using positional reads/writes. Thus, there is no
+ * per-thread file handle and no shared file pointer to seek.<br>
+ * The file is grown a chunk at a time. When the null byte is 0, growth is a sparse extension (nothing is written to
+ * the new space - it reads as 0s). A background task extends the file before the allocated space runs out so that,
+ * normally, allocations don't have to wait for the file to grow. Each volume has its own pre-extender thread so that a
+ * slow volume doesn't hold up the files on other volumes. Allocations within the current size of the file are
+ * lock-free - a compare-and-set of the logical size.<br>
  *
  * @author Jordan Zimmerman
  */
@@ -32,34 +53,43 @@ class CCDB2File
 	 * @param driver the driver
 	 * @param filePath full path to the file to manage
 	 * @param nullByte value to store in newly allocated file space.
+	 * @param useMappedReads if true, {@link #getReadFile()} serves reads from memory mapped segments of the file
 	 * @throws IOException errors
 	 */
-	CCDB2File(CCDB2Driver driver, String filePath, byte nullByte) throws IOException
+	CCDB2File(CCDB2Driver driver, String filePath, byte nullByte, boolean useMappedReads) throws IOException
 	{
 		long		allocationChunkSize = driver.getAllocationChunkSize();
 
-		File 		localFle = new File(filePath);
-		fFilePool = new CCDB2FilePool(driver, localFle);
-		fActualSize = localFle.length();
-		fLogicalSize = fActualSize;
-		fAllocationLock = new Object();
+		fDriver = driver;
+		fPath = new File(filePath);
+		fIsOpen = true;
+		fRandomAccessFile = new RandomAccessFile(fPath, "rw");
+		fChannel = fRandomAccessFile.getChannel();
+		fActualSize = fChannel.size();
+		fLogicalSize = new AtomicLong(fActualSize);
+		fExtensionLock = new Object();
+		fPreExtensionPending = new AtomicBoolean(false);
+		fPreExtender = getPreExtender(fPath);
 		fAllocationChunkSize = (allocationChunkSize > 0) ? allocationChunkSize : DEFAULT_ALLOCATION_CHUNK_SIZE;
 
-		fNullBuffer = new byte[NULL_BUFFER_SIZE];
-		for ( int i = 0; i < NULL_BUFFER_SIZE; ++i )
+		fNullByte = nullByte;
+		fNullBuffer = (nullByte != 0) ? new byte[NULL_BUFFER_SIZE] : new byte[1];
+		for ( int i = 0; i < fNullBuffer.length; ++i )
 		{
 			fNullBuffer[i] = nullByte;
 		}
+
+		fMappedFile = useMappedReads ? new CCDB2MappedFile(this) : null;
 	}
 
 	/**
-	 * Return the current number of users of this file
+	 * Returns the number of bytes currently memory mapped or -1 if mapped reads aren't being used
 	 *
-	 * @return user count
+	 * @return mapped size or -1
 	 */
-	int getFilePoolSize()
+	long getMappedSize()
 	{
-		return fFilePool.getTotalQty();
+		return (fMappedFile != null) ? fMappedFile.getMappedSize() : -1;
 	}
 
 	/**
@@ -72,12 +102,41 @@ class CCDB2File
 		return fAllocationChunkSize;
 	}
 
+	/**
+	 * Unmap the file's memory mapped segments now instead of when the VM collects them so that a deleted file's disk
+	 * space is released. MUST only be called when no reads are in progress or can start - reading an unmapped segment
+	 * crashes the VM.
+	 */
+	void unmap()
+	{
+		if ( fMappedFile != null )
+		{
+			fMappedFile.close(true);
+		}
+	}
+
 	/**
 	 * close the file
 	 */
 	void close()
 	{
-		fFilePool.close();
+		if ( fMappedFile != null )
+		{
+			fMappedFile.close(false);
+		}
+
+		synchronized(this)
+		{
+			fIsOpen = false;
+			try
+			{
+				fRandomAccessFile.close();
+			}
+			catch ( IOException ignore )
+			{
+				// nothing to do
+			}
+		}
 	}
 
 	/**
@@ -88,7 +147,7 @@ class CCDB2File
 	 */
 	long getLogicalSize()
 	{
-		return fLogicalSize;
+		return fLogicalSize.get();
 	}
 
 	/**
@@ -102,105 +161,110 @@ class CCDB2File
 	}
 
 	/**
-	 * Return an IO object to use for the file. This call MUST be balanced by a call to {@link #releaseFile(CCDB2io)}. If you do not
-	 * call release() you will have a resource leak. 
+	 * Return a new IO object to use for the file. IO objects are cheap - each one is merely a file offset
+	 * over the shared channel. They are not thread safe and should not be shared.
 	 *
 	 * @return the I/O
-	 * @throws IOException errors
 	 */
-	CCDB2io getFile() throws IOException
+	CCDB2io getFile()
 	{
-		final RandomAccessFile 		f = fFilePool.get();
-		return new CCDB2io()
-		{
-			@Override
-			public void seek(long i) throws IOException
-			{
-				f.seek(i);
-			}
-
-			@Override
-			public void writeByte(byte b) throws IOException
-			{
-				f.writeByte(b);
-			}
-
-			@Override
-			public void writeInt(int i) throws IOException
-			{
-				f.writeInt(i);
-			}
-
-			@Override
-			public void writeBoolean(boolean b) throws IOException
-			{
-				f.writeBoolean(b);
-			}
-
-			@Override
-			public void writeLong(long l) throws IOException
-			{
-				f.writeLong(l);
-			}
-
-			@Override
-			public byte readByte() throws IOException
-			{
-				return f.readByte();
-			}
-
-			@Override
-			public int readInt() throws IOException
-			{
-				return f.readInt();
-			}
+		return new ChannelIO();
+	}
 
-			@Override
-			public boolean readBoolean() throws IOException
-			{
-				return f.readBoolean();
-			}
+	/**
+	 * Return an IO object to use for reading only. If mapped reads are enabled, the IO object reads directly from the
+	 * mapped file. Otherwise, this is the same as {@link #getFile()}.
+	 *
+	 * @return the I/O
+	 */
+	CCDB2Reader getReadFile()
+	{
+		return (fMappedFile != null) ? fMappedFile.getReader() : getFile();
+	}
 
-			@Override
-			public long readLong() throws IOException
-			{
-				return f.readLong();
-			}
+	/**
+	 * Returns the current channel for the file. NOTE: the channel can change if it gets closed due to a thread interrupt.
+	 *
+	 * @return channel
+	 */
+	FileChannel getChannel()
+	{
+		return fChannel;
+	}
 
-			@Override
-			public void write(byte[] bytes, int length) throws IOException
+	/**
+	 * Fill the buffer from the given file position
+	 *
+	 * @param buffer buffer to fill (from its position to its limit)
+	 * @param position file position
+	 * @throws IOException errors or EOF before the buffer could be filled
+	 */
+	void readFully(ByteBuffer buffer, long position) throws IOException
+	{
+		while ( buffer.hasRemaining() )
+		{
+			int 	thisRead = read(buffer, position);
+			if ( thisRead < 0 )
 			{
-				f.write(bytes, 0, length);
+				throw new EOFException();
 			}
+			position += thisRead;
+		}
+	}
 
-			@Override
-			public void write(byte[] b) throws IOException
+	/**
+	 * Send bytes of the file directly to the given channel via {@link FileChannel#transferTo(long, long, WritableByteChannel)}
+	 *
+	 * @param position file position
+	 * @param length number of bytes to send
+	 * @param target channel to send to
+	 * @throws IOException errors or EOF before all the bytes could be sent
+	 */
+	void transferTo(long position, long length, WritableByteChannel target) throws IOException
+	{
+		while ( length > 0 )
+		{
+			FileChannel 	channel = fChannel;
+			long 			thisLength;
+			try
 			{
-				f.write(b);
+				thisLength = channel.transferTo(position, length, target);
 			}
-
-			@Override
-			public void readFully(byte[] b) throws IOException
+			catch ( ClosedChannelException e )
 			{
-				f.readFully(b);
+				if ( channel.isOpen() )
+				{
+					throw e;	// it's the target that's closed
+				}
+				if ( !reopen(channel) || (e instanceof ClosedByInterruptException) )
+				{
+					throw e;
+				}
+				continue;
 			}
 
-			@Override
-			public RandomAccessFile getUnderlyingFile()
+			if ( thisLength <= 0 )
 			{
-				return f;
+				throw new EOFException();
 			}
-		};
+			position += thisLength;
+			length -= thisLength;
+		}
 	}
 
 	/**
-	 * Release an IO object returned from {@link #getFile()}
+	 * Write the buffer at the given file position
 	 *
-	 * @param file the file
+	 * @param buffer buffer to write (from its position to its limit)
+	 * @param position file position
+	 * @throws IOException errors
 	 */
-	void releaseFile(CCDB2io file)
+	void writeFully(ByteBuffer buffer, long position) throws IOException
 	{
-		fFilePool.release(file.getUnderlyingFile());
+		while ( buffer.hasRemaining() )
+		{
+			position += write(buffer, position);
+		}
 	}
 
 	/**
@@ -210,63 +274,206 @@ class CCDB2File
 	 */
 	void setLogicalSize(long size)
 	{
-		synchronized(fAllocationLock)
+		fLogicalSize.set(size);
+	}
+
+	/**
+	 * Cut the file off at the given size - used to drop a torn tail when recovering a file. Must not be called while
+	 * the file is in use.
+	 *
+	 * @param size new size
+	 * @throws IOException errors
+	 */
+	void truncate(long size) throws IOException
+	{
+		synchronized(fExtensionLock)
 		{
-			fLogicalSize = size;
+			if ( fMappedFile != null )
+			{
+				fMappedFile.close(true);	// segments past the new end mustn't be read
+			}
+			fChannel.truncate(size);
+			fActualSize = size;
+			fLogicalSize.set(size);
 		}
 	}
 
+	/**
+	 * Force the file's changes to disk
+	 *
+	 * @throws IOException errors
+	 */
+	void force() throws IOException
+	{
+		fChannel.force(false);
+	}
+
 	/**
 	 * Allocates space in the file and returns an address to that space.
 	 *
 	 * @param amount the amount to allocate
 	 * @return the address
-	 * @throws FileNotFoundException no such file
 	 * @throws CCDB2SetFileLengthException ran out of disk space or a similar error
 	 */
-	long			allocate(int amount) throws CCDB2SetFileLengthException, FileNotFoundException
+	long			allocate(int amount) throws CCDB2SetFileLengthException
 	{
-		long				offset;
-		RandomAccessFile	file = null;
-		try
+		for(;;)
 		{
-			synchronized(fAllocationLock)
+			long 		offset = fLogicalSize.get();
+			long 		newLogicalSize = offset + amount;
+			if ( newLogicalSize > fActualSize )
+			{
+				// the pre-extension didn't keep up
+				extendTo(newLogicalSize);
+			}
+			else if ( fLogicalSize.compareAndSet(offset, newLogicalSize) )	// the actual size never shrinks so the space is still there
 			{
-				offset = fLogicalSize;
+				checkPreExtension();
+				return offset;
+			}
+		}
+	}
 
-				long newLogicalSize = offset + amount;
-				if ( newLogicalSize > fActualSize )
-				{
-					long 				needed = newLogicalSize - fActualSize;
-					long 				addAmount = quantize(needed, fAllocationChunkSize);
+	/**
+	 * Grow the file so that its actual size is at least the given size
+	 *
+	 * @param minimumSize minimum actual size
+	 * @throws CCDB2SetFileLengthException ran out of disk space or a similar error
+	 */
+	private void 	extendTo(long minimumSize) throws CCDB2SetFileLengthException
+	{
+		synchronized(fExtensionLock)
+		{
+			if ( minimumSize <= fActualSize )
+			{
+				return;
+			}
 
-					file = fFilePool.get();
-					long 				fileLength;
-					try
-					{
-						nullNewFile(file, fActualSize, addAmount);
-						fileLength = file.length();
-					}
-					catch ( IOException e )
+			long 				addAmount = quantize(minimumSize - fActualSize, fAllocationChunkSize);
+			long 				fileLength;
+			try
+			{
+				extendFile(fActualSize, addAmount);
+				fileLength = fChannel.size();
+			}
+			catch ( IOException e )
+			{
+				throw new CCDB2SetFileLengthException(e.getMessage());
+			}
+
+			fActualSize += addAmount;
+			assert fActualSize == fileLength;
+		}
+	}
+
+	/**
+	 * If the unallocated space is getting low, have the pre-extender grow the file in the background
+	 */
+	private void 	checkPreExtension()
+	{
+		if ( ((fActualSize - fLogicalSize.get()) < (fAllocationChunkSize / 2)) && fIsOpen && fPreExtensionPending.compareAndSet(false, true) )
+		{
+			fPreExtender.execute
+			(
+				new Runnable()
+				{
+					@Override
+					public void run()
 					{
-						throw new CCDB2SetFileLengthException(e.getMessage());
+						try
+						{
+							if ( fIsOpen )
+							{
+								extendTo(fLogicalSize.get() + fAllocationChunkSize);
+							}
+						}
+						catch ( CCDB2SetFileLengthException e )
+						{
+							if ( fIsOpen )
+							{
+								// allocate() will try again (and report the error) if the space is actually needed
+								fDriver.log("Could not pre-extend " + fPath.getPath(), e, true);
+							}
+						}
+						finally
+						{
+							fPreExtensionPending.set(false);
+						}
 					}
+				}
+			);
+		}
+	}
 
-					fActualSize += addAmount;
-					assert fActualSize == fileLength;
+	private int read(ByteBuffer buffer, long position) throws IOException
+	{
+		for(;;)
+		{
+			FileChannel 	channel = fChannel;
+			try
+			{
+				return channel.read(buffer, position);
+			}
+			catch ( ClosedByInterruptException e )
+			{
+				reopen(channel);
+				throw e;
+			}
+			catch ( ClosedChannelException e )
+			{
+				if ( !reopen(channel) )
+				{
+					throw e;
 				}
-				fLogicalSize = newLogicalSize;
 			}
 		}
-		finally
+	}
+
+	private int write(ByteBuffer buffer, long position) throws IOException
+	{
+		for(;;)
 		{
-			if ( file != null )
+			FileChannel 	channel = fChannel;
+			try
+			{
+				return channel.write(buffer, position);
+			}
+			catch ( ClosedByInterruptException e )
 			{
-				fFilePool.release(file);
+				reopen(channel);
+				throw e;
+			}
+			catch ( ClosedChannelException e )
+			{
+				if ( !reopen(channel) )
+				{
+					throw e;
+				}
 			}
 		}
+	}
+
+	/**
+	 * A FileChannel is closed for ALL users if any thread is interrupted during an I/O. Thus, the
+	 * channel must be re-opened so that one interrupted thread doesn't ruin the file for everyone.
+	 *
+	 * @param closedChannel the channel that was found to be closed
+	 * @return true if the file is still open and a new channel is available
+	 * @throws IOException errors
+	 */
+	private synchronized boolean reopen(FileChannel closedChannel) throws IOException
+	{
+		if ( !fIsOpen )
+		{
+			return false;
+		}
 
-		return offset;
+		if ( fChannel == closedChannel )
+		{
+			fRandomAccessFile = new RandomAccessFile(fPath, "rw");
+			fChannel = fRandomAccessFile.getChannel();
+		}
+		return true;
 	}
 
 	private static long quantize(long value, long quantizeSize)
@@ -274,39 +481,205 @@ class CCDB2File
 		return ((value / quantizeSize) + 1) * quantizeSize;
 	}
 
-	private void nullNewFile(RandomAccessFile file, long offset, long size) throws IOException
+	private void extendFile(long offset, long size) throws IOException
 	{
-		file.seek(offset);
+		if ( fNullByte == 0 )
+		{
+			// writing the last byte extends the file sparsely - the file system supplies the 0s
+			writeFully(ByteBuffer.wrap(fNullBuffer, 0, 1), offset + size - 1);
+			return;
+		}
+
 		while ( size > 0 )
 		{
-			if ( size < fNullBuffer.length )
-			{
-				int intSize = (int)size;
-				file.write(fNullBuffer, 0, intSize);
-				size -= intSize;
-			}
-			else
+			int 	thisSize = (int)Math.min(size, fNullBuffer.length);
+			writeFully(ByteBuffer.wrap(fNullBuffer, 0, thisSize), offset);
+			offset += thisSize;
+			size -= thisSize;
+		}
+
+		if ( size < 0 )
+		{
+			throw new IOException("size went negative in extendFile(): " + size);
+		}
+	}
+
+	private class ChannelIO implements CCDB2io
+	{
+		@Override
+		public void seek(long i)
+		{
+			fPosition = i;
+		}
+
+		@Override
+		public void writeByte(byte b) throws IOException
+		{
+			fScratch.clear();
+			fScratch.put(b);
+			writeScratch();
+		}
+
+		@Override
+		public void writeInt(int i) throws IOException
+		{
+			fScratch.clear();
+			fScratch.putInt(i);
+			writeScratch();
+		}
+
+		@Override
+		public void writeBoolean(boolean b) throws IOException
+		{
+			writeByte((byte)(b ? 1 : 0));
+		}
+
+		@Override
+		public void writeLong(long l) throws IOException
+		{
+			fScratch.clear();
+			fScratch.putLong(l);
+			writeScratch();
+		}
+
+		@Override
+		public byte readByte() throws IOException
+		{
+			readScratch(1);
+			return fScratch.get();
+		}
+
+		@Override
+		public int readInt() throws IOException
+		{
+			readScratch(4);
+			return fScratch.getInt();
+		}
+
+		@Override
+		public boolean readBoolean() throws IOException
+		{
+			return readByte() != 0;
+		}
+
+		@Override
+		public long readLong() throws IOException
+		{
+			readScratch(8);
+			return fScratch.getLong();
+		}
+
+		@Override
+		public void write(byte[] bytes) throws IOException
+		{
+			write(bytes, 0, bytes.length);
+		}
+
+		@Override
+		public void write(byte[] bytes, int length) throws IOException
+		{
+			write(bytes, 0, length);
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int length) throws IOException
+		{
+			writeFully(ByteBuffer.wrap(bytes, offset, length), fPosition);
+			fPosition += length;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) throws IOException
+		{
+			int 	thisRead = CCDB2File.this.read(ByteBuffer.wrap(bytes, offset, length), fPosition);
+			if ( thisRead > 0 )
 			{
-				file.write(fNullBuffer);
-				size -= fNullBuffer.length;
+				fPosition += thisRead;
 			}
+			return thisRead;
 		}
 
-		if ( size < 0 )
+		@Override
+		public void readFully(byte[] buffer) throws IOException
 		{
-			throw new IOException("size went negative in nullNewFile(): " + size);
+			CCDB2File.this.readFully(ByteBuffer.wrap(buffer), fPosition);
+			fPosition += buffer.length;
 		}
+
+		private void writeScratch() throws IOException
+		{
+			fScratch.flip();
+			int 	length = fScratch.remaining();
+			writeFully(fScratch, fPosition);
+			fPosition += length;
+		}
+
+		private void readScratch(int length) throws IOException
+		{
+			fScratch.clear();
+			fScratch.limit(length);
+			CCDB2File.this.readFully(fScratch, fPosition);
+			fScratch.flip();
+			fPosition += length;
+		}
+
+		private final ByteBuffer 	fScratch = ByteBuffer.allocate(8);
+		private long 				fPosition = 0;
 	}
 
 	private static final long 	DEFAULT_ALLOCATION_CHUNK_SIZE = 0x1000000;	// 16 MB
 
 	private static final int	NULL_BUFFER_SIZE = 0x100000;
 
-	private final Object		fAllocationLock;
-	private final byte[]		fNullBuffer;
-	private final long 			fAllocationChunkSize;
+	private static synchronized ExecutorService getPreExtender(File path)
+	{
+		FileStore 		volume;
+		try
+		{
+			volume = Files.getFileStore(path.toPath());
+		}
+		catch ( IOException dummy )
+		{
+			volume = null;	// files on unknown volumes share a pre-extender
+		}
+
+		ExecutorService 	preExtender = PRE_EXTENDERS.get(volume);
+		if ( preExtender == null )
+		{
+			final String 	name = "CCDB2File Pre-Extender" + ((volume != null) ? (" " + volume.name()) : "");
+			preExtender = Executors.newSingleThreadExecutor
+			(
+				new ThreadFactory()
+				{
+					@Override
+					public Thread newThread(Runnable r)
+					{
+						Thread 		thread = new Thread(r, name);
+						thread.setDaemon(true);
+						return thread;
+					}
+				}
+			);
+			PRE_EXTENDERS.put(volume, preExtender);
+		}
+		return preExtender;
+	}
 
-	private	CCDB2FilePool		fFilePool;
-	private volatile long		fLogicalSize;
-	private volatile long		fActualSize;
+	private static final Map<FileStore, ExecutorService> 	PRE_EXTENDERS = new HashMap<FileStore, ExecutorService>();	// one thread per volume
+
+	private final CCDB2Driver		fDriver;
+	private final File				fPath;
+	private final Object			fExtensionLock;
+	private final AtomicBoolean		fPreExtensionPending;
+	private final ExecutorService	fPreExtender;
+	private final byte				fNullByte;
+	private final byte[]			fNullBuffer;
+	private final long 				fAllocationChunkSize;
+	private final CCDB2MappedFile	fMappedFile;
+	private final AtomicLong		fLogicalSize;
+
+	private RandomAccessFile		fRandomAccessFile;
+	private volatile FileChannel	fChannel;
+	private volatile boolean		fIsOpen;
+	private volatile long			fActualSize;
 }
\ No newline at end of file
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2008-2009 SHOP.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shop.util.ccdb2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the space of deleted records so that it can be reused by new records. Free records are kept
+ * in size-class lists - one list per power of 2. A request is satisfied from its own size class (first fit
+ * from the head of the list) or from the next larger class. Thus, at most 4x the requested space is used.<br>
+ *
+ * @author Jordan Zimmerman
+ */
+class CCDB2FreeSpaceMap
+{
+	/**
+	 * A free record
+	 */
+	static class FreeRecord
+	{
+		final long 		address;
+		final int 		size;
+
+		private FreeRecord(long address, int size)
+		{
+			this.address = address;
+			this.size = size;
+		}
+	}
+
+	CCDB2FreeSpaceMap()
+	{
+		fSizeClasses = new ArrayList<ConcurrentLinkedQueue<FreeRecord>>(SIZE_CLASS_QTY);
+		for ( int i = 0; i < SIZE_CLASS_QTY; ++i )
+		{
+			fSizeClasses.add(new ConcurrentLinkedQueue<FreeRecord>());
+		}
+		fFreeQty = new AtomicLong(0);
+		fFreeBytes = new AtomicLong(0);
+		fReusedQty = new AtomicLong(0);
+		fReusedBytes = new AtomicLong(0);
+	}
+
+	/**
+	 * Add the space of a deleted record
+	 *
+	 * @param address address of the record
+	 * @param size the record's size
+	 */
+	void 		add(long address, int size)
+	{
+		fSizeClasses.get(getSizeClass(size)).offer(new FreeRecord(address, size));
+		fFreeQty.incrementAndGet();
+		fFreeBytes.addAndGet(size);
+	}
+
+	/**
+	 * Find and remove a free record that's at least the given size
+	 *
+	 * @param size needed size
+	 * @return a free record or null
+	 */
+	FreeRecord 	take(int size)
+	{
+		int 			sizeClass = getSizeClass(size);
+		FreeRecord 		record = null;
+
+		ConcurrentLinkedQueue<FreeRecord> 	list = fSizeClasses.get(sizeClass);
+		for ( int i = 0; (i < MAX_FIRST_FIT_CHECKS) && (record == null); ++i )
+		{
+			FreeRecord 		candidate = list.poll();
+			if ( candidate == null )
+			{
+				break;
+			}
+
+			if ( candidate.size >= size )
+			{
+				record = candidate;
+			}
+			else
+			{
+				list.offer(candidate);	// too small - cycle it to the end of the list
+			}
+		}
+
+		if ( (record == null) && ((sizeClass + 1) < SIZE_CLASS_QTY) )
+		{
+			record = fSizeClasses.get(sizeClass + 1).poll();	// every record in the next class is big enough
+		}
+
+		if ( record != null )
+		{
+			fFreeQty.decrementAndGet();
+			fFreeBytes.addAndGet(-record.size);
+			fReusedQty.incrementAndGet();
+			fReusedBytes.addAndGet(record.size);
+		}
+		return record;
+	}
+
+	/**
+	 * Returns the number of free records
+	 *
+	 * @return qty
+	 */
+	long getFreeQty()
+	{
+		return fFreeQty.get();
+	}
+
+	/**
+	 * Returns the total size of free records
+	 *
+	 * @return bytes
+	 */
+	long getFreeBytes()
+	{
+		return fFreeBytes.get();
+	}
+
+	/**
+	 * Returns the number of free records that have been reused
+	 *
+	 * @return qty
+	 */
+	long getReusedQty()
+	{
+		return fReusedQty.get();
+	}
+
+	/**
+	 * Returns the total size of free records that have been reused
+	 *
+	 * @return bytes
+	 */
+	long getReusedBytes()
+	{
+		return fReusedBytes.get();
+	}
+
+	private static int getSizeClass(int size)
+	{
+		return 31 - Integer.numberOfLeadingZeros(Math.max(size, 1));
+	}
+
+	private static final int 		SIZE_CLASS_QTY = 32;
+	private static final int 		MAX_FIRST_FIT_CHECKS = 4;
+
+	private final List<ConcurrentLinkedQueue<FreeRecord>> 	fSizeClasses;
+	private final AtomicLong 								fFreeQty;
+	private final AtomicLong 								fFreeBytes;
+	private final AtomicLong 								fReusedQty;
+	private final AtomicLong 								fReusedBytes;
+}
@@ -0,0 +1,890 @@
+/*
+ * Copyright 2008-2009 SHOP.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shop.util.ccdb2;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The groups of an instance - maps group specs to the keys in the group. Each key that is in a group is
+ * given a compact int id and the groups store ids in open addressed int sets. Set members are added/removed with
+ * compare-and-set so concurrent membership updates don't serialize on the group. Keys are removed from their groups
+ * when they're removed from the instance and empty groups are dropped.<br><br>
+ *
+ * A whole group is invalidated with a tombstone instead of removing each member. Every put of a grouped key
+ * and every tombstone is stamped with an increasing generation. A key is dead if one of its groups has a tombstone
+ * newer than the key's last put. Dead keys are actually removed later by {@link #sweepTombstones(DeadKeyHandler)}.<br>
+ *
+ * @author Jordan Zimmerman
+ */
+class CCDB2GroupIndex
+{
+	/**
+	 * Callback for {@link CCDB2GroupIndex#sweepTombstones(DeadKeyHandler)}
+	 */
+	interface DeadKeyHandler
+	{
+		/**
+		 * Called for each key that is dead due to a tombstone. The handler should remove the key if it's still
+		 * dead (i.e. check {@link CCDB2GroupIndex#isDead(String)} while the key can't change).
+		 *
+		 * @param key the key
+		 * @throws IOException errors
+		 */
+		public void 	removeDeadKey(String key) throws IOException;
+	}
+
+	CCDB2GroupIndex()
+	{
+		fKeys = new ConcurrentHashMap<String, KeyRecord>();
+		fGroups = new ConcurrentHashMap<Long, IdSet>();
+		fTombstones = new ConcurrentHashMap<Long, Long>();
+		fGeneration = new AtomicLong(0);
+		fPages = new KeyRecordPage[0];
+		fPagesLock = new Object();
+		fNextId = new AtomicInteger(0);
+		fFreeIds = new ConcurrentLinkedQueue<Integer>();
+		fSize = new AtomicLong(0);
+	}
+
+	/**
+	 * Record a put of the given key - the key is added to the given groups and is no longer dead
+	 *
+	 * @param key key
+	 * @param groupSpecs the put's groups (can be empty)
+	 */
+	void 		update(String key, long[] groupSpecs)
+	{
+		if ( (groupSpecs.length > 0) || fKeys.containsKey(key) )
+		{
+			update(key, groupSpecs, fGeneration.incrementAndGet());
+		}
+	}
+
+	/**
+	 * Record an index file entry for the given key. Used when the index is being loaded - the generation is
+	 * the entry's position in the index file.
+	 *
+	 * @param key key
+	 * @param groupSpecs the entry's groups (can be empty)
+	 * @param generation the entry's generation
+	 */
+	void 		load(String key, long[] groupSpecs, long generation)
+	{
+		updateGeneration(generation);
+		if ( (groupSpecs.length > 0) || fKeys.containsKey(key) )
+		{
+			update(key, groupSpecs, generation);
+		}
+	}
+
+	/**
+	 * Record an index file group tombstone. Used when the index is being loaded.
+	 *
+	 * @param groupSpec group
+	 * @param generation the tombstone's generation
+	 */
+	void 		loadTombstone(long groupSpec, long generation)
+	{
+		updateGeneration(generation);
+		for(;;)
+		{
+			Long 		current = fTombstones.putIfAbsent(groupSpec, generation);
+			if ( (current == null) || (current >= generation) || fTombstones.replace(groupSpec, current, generation) )
+			{
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Invalidate all of the keys currently in the given group
+	 *
+	 * @param groupSpec group
+	 * @return the keys that were invalidated
+	 */
+	List<String> 	addTombstone(long groupSpec)
+	{
+		List<String> 	keys = getKeys(groupSpec);
+		if ( keys.size() > 0 )
+		{
+			fTombstones.put(groupSpec, fGeneration.incrementAndGet());
+		}
+		return keys;
+	}
+
+	/**
+	 * Returns true if the given key has been invalidated by a group tombstone
+	 *
+	 * @param key key
+	 * @return true/false
+	 */
+	boolean 	isDead(String key)
+	{
+		if ( fTombstones.isEmpty() )
+		{
+			return false;
+		}
+
+		KeyRecord 		record = fKeys.get(key);
+		return (record != null) && isDead(record);
+	}
+
+	/**
+	 * Remove the keys killed by the current tombstones (via the handler) and then drop the tombstones
+	 *
+	 * @param handler removes the dead keys
+	 * @throws IOException errors
+	 */
+	void 		sweepTombstones(DeadKeyHandler handler) throws IOException
+	{
+		if ( fTombstones.isEmpty() )
+		{
+			return;
+		}
+
+		Map<Long, Long> 	tombstones = new HashMap<Long, Long>(fTombstones);
+		for ( KeyRecord record : fKeys.values() )
+		{
+			if ( isDead(record) )
+			{
+				handler.removeDeadKey(record.key);
+			}
+			else
+			{
+				synchronized(record)
+				{
+					if ( !record.isRemoved )
+					{
+						dropDeadGroups(record);
+						if ( record.groups.length == 0 )
+						{
+							removeRecord(record);
+						}
+					}
+				}
+			}
+		}
+
+		for ( Map.Entry<Long, Long> entry : tombstones.entrySet() )
+		{
+			fTombstones.remove(entry.getKey(), entry.getValue());	// unless the group has been invalidated again
+		}
+	}
+
+	/**
+	 * Returns the number of current group tombstones
+	 *
+	 * @return qty
+	 */
+	int 		getTombstoneQty()
+	{
+		return fTombstones.size();
+	}
+
+	/**
+	 * Remove the given key from all of its groups
+	 *
+	 * @param key key
+	 */
+	void 		removeKey(String key)
+	{
+		KeyRecord 		record = fKeys.get(key);
+		if ( record != null )
+		{
+			synchronized(record)
+			{
+				if ( !record.isRemoved )
+				{
+					removeRecord(record);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Remove the given key if it's no longer in the given index (e.g. it expired). A put that adds the key back
+	 * concurrently isn't affected.
+	 *
+	 * @param index the instance's index
+	 * @param key key
+	 */
+	void 		removeMissingKey(CCDB2Index index, String key)
+	{
+		KeyRecord 		record = fKeys.get(key);
+		if ( record != null )
+		{
+			synchronized(record)
+			{
+				if ( !record.isRemoved && !isInIndex(index, record.key) )
+				{
+					removeRecord(record);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Remove keys that are no longer in the given index (e.g. after recovery)
+	 *
+	 * @param index the instance's index
+	 * @return qty of keys removed
+	 */
+	int 		removeMissingKeys(CCDB2Index index)
+	{
+		int 		qty = 0;
+		for ( KeyRecord record : fKeys.values() )
+		{
+			synchronized(record)
+			{
+				if ( !record.isRemoved && !isInIndex(index, record.key) )
+				{
+					removeRecord(record);
+					++qty;
+				}
+			}
+		}
+		return qty;
+	}
+
+	/**
+	 * Return the keys in the given group
+	 *
+	 * @param groupSpec group
+	 * @return keys (may be empty but never null)
+	 */
+	List<String> 	getKeys(long groupSpec)
+	{
+		List<String> 	keys = new ArrayList<String>();
+		IdSet 			set = fGroups.get(groupSpec);
+		if ( set != null )
+		{
+			Long 		tombstone = fTombstones.get(groupSpec);
+			long 		minimumGeneration = (tombstone != null) ? tombstone : 0;
+			for ( int id : set.getIds() )
+			{
+				// the id may have been reused by another key since the set was read - check that it's really in the group
+				KeyRecord 		record = getRecord(id);
+				if ( record != null )
+				{
+					long 		generation = getGroupGeneration(record.groups, groupSpec);
+					if ( generation > minimumGeneration )
+					{
+						keys.add(record.key);
+					}
+				}
+			}
+		}
+		return keys;
+	}
+
+	/**
+	 * Return the groups the given key is in
+	 *
+	 * @param key key
+	 * @return groups or null
+	 */
+	long[] 		getGroupSpecs(String key)
+	{
+		KeyRecord 		record = fKeys.get(key);
+		if ( record == null )
+		{
+			return null;
+		}
+
+		long[] 		groups = record.groups;
+		long[] 		groupSpecs = new long[groups.length / 2];
+		int 		qty = 0;
+		for ( int i = 0; i < groups.length; i += 2 )
+		{
+			if ( !isDeadGroup(groups[i], groups[i + 1]) )
+			{
+				groupSpecs[qty++] = groups[i];
+			}
+		}
+
+		if ( qty == 0 )
+		{
+			return null;
+		}
+		if ( qty < groupSpecs.length )
+		{
+			long[] 		liveGroupSpecs = new long[qty];
+			System.arraycopy(groupSpecs, 0, liveGroupSpecs, 0, qty);
+			groupSpecs = liveGroupSpecs;
+		}
+		return groupSpecs;
+	}
+
+	/**
+	 * Returns the approximate size in bytes of the index
+	 *
+	 * @return size
+	 */
+	long 		getSize()
+	{
+		return fSize.get();
+	}
+
+	private void 	update(String key, long[] groupSpecs, long generation)
+	{
+		for(;;)
+		{
+			KeyRecord 		record = fKeys.get(key);
+			if ( record == null )
+			{
+				if ( groupSpecs.length == 0 )
+				{
+					return;
+				}
+
+				KeyRecord 		newRecord = new KeyRecord(key, allocateId());
+				setRecord(newRecord.id, newRecord);
+				record = fKeys.putIfAbsent(key, newRecord);
+				if ( record == null )
+				{
+					record = newRecord;
+					fSize.addAndGet((key.length() * 2) + KEY_RECORD_OVERHEAD);
+				}
+				else
+				{
+					setRecord(newRecord.id, null);
+					freeId(newRecord.id);
+				}
+			}
+
+			synchronized(record)
+			{
+				if ( record.isRemoved )
+				{
+					continue;	// removed while we weren't looking - start over with a new record
+				}
+
+				record.generation = Math.max(record.generation, generation);
+				dropDeadGroups(record);
+
+				long[] 		groups = record.groups;
+				for ( long groupSpec : groupSpecs )
+				{
+					int 		index = indexOfGroup(groups, groupSpec);
+					if ( index < 0 )
+					{
+						while ( !getSet(groupSpec).add(record.id) )
+						{
+							// the set was dropped while empty - try again with its replacement
+						}
+
+						long[] 		newGroups = new long[groups.length + 2];
+						System.arraycopy(groups, 0, newGroups, 0, groups.length);
+						newGroups[groups.length] = groupSpec;
+						newGroups[groups.length + 1] = generation;
+						groups = newGroups;
+						fSize.addAndGet(GROUP_MEMBERSHIP_SIZE);
+					}
+					else if ( groups[index + 1] < generation )
+					{
+						groups = groups.clone();
+						groups[index + 1] = generation;
+					}
+				}
+				record.groups = groups;
+
+				if ( groups.length == 0 )
+				{
+					removeRecord(record);	// no longer in any group
+				}
+				return;
+			}
+		}
+	}
+
+	/**
+	 * MUST be called while synchronized on the record
+	 *
+	 * @param record record
+	 */
+	private void 	dropDeadGroups(KeyRecord record)
+	{
+		long[] 		groups = record.groups;
+		long[] 		liveGroups = null;
+		int 		liveQty = 0;
+		for ( int i = 0; i < groups.length; i += 2 )
+		{
+			if ( isDeadGroup(groups[i], groups[i + 1]) )
+			{
+				if ( liveGroups == null )
+				{
+					liveGroups = new long[groups.length];
+					System.arraycopy(groups, 0, liveGroups, 0, i);
+					liveQty = i;
+				}
+				removeFromSet(groups[i], record.id);
+				fSize.addAndGet(-GROUP_MEMBERSHIP_SIZE);
+			}
+			else if ( liveGroups != null )
+			{
+				liveGroups[liveQty++] = groups[i];
+				liveGroups[liveQty++] = groups[i + 1];
+			}
+		}
+
+		if ( liveGroups != null )
+		{
+			long[] 		newGroups = new long[liveQty];
+			System.arraycopy(liveGroups, 0, newGroups, 0, liveQty);
+			record.groups = newGroups;
+		}
+	}
+
+	private boolean 	isDead(KeyRecord record)
+	{
+		long[] 		groups = record.groups;
+		for ( int i = 0; i < groups.length; i += 2 )
+		{
+			Long 		tombstone = fTombstones.get(groups[i]);
+			if ( (tombstone != null) && (record.generation < tombstone) )
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean 	isDeadGroup(long groupSpec, long groupGeneration)
+	{
+		Long 		tombstone = fTombstones.get(groupSpec);
+		return (tombstone != null) && (groupGeneration < tombstone);
+	}
+
+	private void 	updateGeneration(long generation)
+	{
+		long 		current;
+		while ( (current = fGeneration.get()) < generation )
+		{
+			if ( fGeneration.compareAndSet(current, generation) )
+			{
+				break;
+			}
+		}
+	}
+
+	/**
+	 * MUST be called while synchronized on the record
+	 *
+	 * @param record record to remove
+	 */
+	private void 	removeRecord(KeyRecord record)
+	{
+		record.isRemoved = true;
+		fKeys.remove(record.key, record);
+
+		long[] 		groups = record.groups;
+		for ( int i = 0; i < groups.length; i += 2 )
+		{
+			removeFromSet(groups[i], record.id);
+		}
+
+		fSize.addAndGet(-((record.key.length() * 2) + KEY_RECORD_OVERHEAD + ((groups.length / 2) * GROUP_MEMBERSHIP_SIZE)));
+		record.groups = NULL_GROUPS;
+
+		setRecord(record.id, null);
+		freeId(record.id);
+	}
+
+	private void 	removeFromSet(long groupSpec, int id)
+	{
+		IdSet 		set = fGroups.get(groupSpec);
+		if ( (set != null) && set.remove(id) && set.dropIfEmpty() )
+		{
+			fGroups.remove(groupSpec, set);
+			fSize.addAndGet(-(GROUP_OVERHEAD + (set.getCapacity() * 4L)));
+		}
+	}
+
+	private IdSet 	getSet(long groupSpec)
+	{
+		IdSet 		set = fGroups.get(groupSpec);
+		if ( set == null )
+		{
+			IdSet 		newSet = new IdSet();
+			set = fGroups.putIfAbsent(groupSpec, newSet);
+			if ( set == null )
+			{
+				set = newSet;
+				fSize.addAndGet(GROUP_OVERHEAD + (set.getCapacity() * 4L));
+			}
+		}
+		return set;
+	}
+
+	private int 	allocateId()
+	{
+		Integer 	id = fFreeIds.poll();
+		return (id != null) ? id : fNextId.getAndIncrement();
+	}
+
+	private void 	freeId(int id)
+	{
+		fFreeIds.add(id);
+	}
+
+	private KeyRecord 	getRecord(int id)
+	{
+		KeyRecordPage[] 	pages = fPages;
+		int 				pageIndex = id >>> PAGE_SHIFT;
+		return (pageIndex < pages.length) ? pages[pageIndex].records.get(id & PAGE_MASK) : null;
+	}
+
+	private void 	setRecord(int id, KeyRecord record)
+	{
+		int 		pageIndex = id >>> PAGE_SHIFT;
+		if ( pageIndex >= fPages.length )
+		{
+			synchronized(fPagesLock)
+			{
+				if ( pageIndex >= fPages.length )
+				{
+					// the page array is replaced (never modified) so readers always see fully built pages
+					KeyRecordPage[] 	newPages = new KeyRecordPage[pageIndex + 1];
+					System.arraycopy(fPages, 0, newPages, 0, fPages.length);
+					for ( int i = fPages.length; i < newPages.length; ++i )
+					{
+						newPages[i] = new KeyRecordPage();
+					}
+					fSize.addAndGet((newPages.length - fPages.length) * PAGE_SIZE * 4L);
+					fPages = newPages;
+				}
+			}
+		}
+		fPages[pageIndex].records.set(id & PAGE_MASK, record);
+	}
+
+	private static boolean 	isInIndex(CCDB2Index index, String key)
+	{
+		CCDB2IndexEntry 	entry = index.acquire(key);
+		if ( entry == null )
+		{
+			return false;
+		}
+
+		try
+		{
+			return entry.address != CCDB2IndexEntry.NOT_EXISTS_ADDRESS;
+		}
+		finally
+		{
+			index.release(key, entry);
+		}
+	}
+
+	/**
+	 * @param groups group spec/generation pairs
+	 * @param groupSpec group to find
+	 * @return index of the pair or -1
+	 */
+	private static int 	indexOfGroup(long[] groups, long groupSpec)
+	{
+		for ( int i = 0; i < groups.length; i += 2 )
+		{
+			if ( groups[i] == groupSpec )
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static long 	getGroupGeneration(long[] groups, long groupSpec)
+	{
+		int 		index = indexOfGroup(groups, groupSpec);
+		return (index >= 0) ? groups[index + 1] : -1;
+	}
+
+	private static class KeyRecord
+	{
+		final String 		key;
+		final int 			id;
+		volatile long[] 	groups = NULL_GROUPS;	// group spec/generation pairs - replaced (never modified) while synchronized on the record
+		volatile long 		generation = 0;			// generation of the key's last put
+		boolean 			isRemoved = false;		// guarded by the record's monitor
+
+		KeyRecord(String key, int id)
+		{
+			this.key = key;
+			this.id = id;
+		}
+	}
+
+	private static class KeyRecordPage
+	{
+		final AtomicReferenceArray<KeyRecord> 	records = new AtomicReferenceArray<KeyRecord>(PAGE_SIZE);
+	}
+
+	/**
+	 * Open addressed set of ids. Ids are stored as id + 1 so that 0 can mean empty. Adds and removes are
+	 * compare-and-sets done under the shared lock - the exclusive lock is only needed to rehash or to drop the set.
+	 * Removed ids leave tombstones which are cleared by the next rehash.
+	 */
+	private class IdSet
+	{
+		IdSet()
+		{
+			fLock = new ReentrantReadWriteLock();
+			fSlots = new AtomicIntegerArray(INITIAL_SET_CAPACITY);
+			fUsedQty = new AtomicInteger(0);
+			fQty = new AtomicInteger(0);
+			fIsDropped = false;
+		}
+
+		/**
+		 * Add an id
+		 *
+		 * @param id the id
+		 * @return false if the set has been dropped (the id was not added)
+		 */
+		boolean 	add(int id)
+		{
+			int 		value = id + 1;
+			for(;;)
+			{
+				fLock.readLock().lock();
+				try
+				{
+					if ( fIsDropped )
+					{
+						return false;
+					}
+
+					AtomicIntegerArray 	slots = fSlots;
+					if ( fUsedQty.get() < ((slots.length() * 3) / 4) )
+					{
+						int 		mask = slots.length() - 1;
+						int 		index = hashId(id) & mask;
+						int 		probeQty = 0;
+						while ( probeQty < slots.length() )
+						{
+							int 		slotValue = slots.get(index);
+							if ( slotValue == value )
+							{
+								return true;
+							}
+
+							if ( slotValue == EMPTY_SLOT )
+							{
+								if ( slots.compareAndSet(index, EMPTY_SLOT, value) )
+								{
+									fUsedQty.incrementAndGet();
+									fQty.incrementAndGet();
+									return true;
+								}
+								continue;	// lost the race for the slot - look at it again
+							}
+
+							index = (index + 1) & mask;
+							++probeQty;
+						}
+					}
+				}
+				finally
+				{
+					fLock.readLock().unlock();
+				}
+
+				rehash();
+			}
+		}
+
+		boolean 	remove(int id)
+		{
+			int 		value = id + 1;
+			fLock.readLock().lock();
+			try
+			{
+				AtomicIntegerArray 	slots = fSlots;
+				int 				mask = slots.length() - 1;
+				int 				index = hashId(id) & mask;
+				for ( int probeQty = 0; probeQty < slots.length(); ++probeQty )
+				{
+					int 		slotValue = slots.get(index);
+					if ( slotValue == EMPTY_SLOT )
+					{
+						break;
+					}
+
+					if ( (slotValue == value) && slots.compareAndSet(index, value, TOMBSTONE_SLOT) )
+					{
+						fQty.decrementAndGet();
+						return true;
+					}
+
+					index = (index + 1) & mask;
+				}
+			}
+			finally
+			{
+				fLock.readLock().unlock();
+			}
+			return false;
+		}
+
+		int[] 		getIds()
+		{
+			fLock.readLock().lock();
+			try
+			{
+				AtomicIntegerArray 	slots = fSlots;
+				int[] 				ids = new int[slots.length()];
+				int 				qty = 0;
+				for ( int i = 0; i < slots.length(); ++i )
+				{
+					int 		slotValue = slots.get(i);
+					if ( slotValue > 0 )
+					{
+						ids[qty++] = slotValue - 1;
+					}
+				}
+
+				int[] 		result = new int[qty];
+				System.arraycopy(ids, 0, result, 0, qty);
+				return result;
+			}
+			finally
+			{
+				fLock.readLock().unlock();
+			}
+		}
+
+		/**
+		 * If the set is empty, mark it as dropped so that no more ids can be added
+		 *
+		 * @return true if the set was dropped
+		 */
+		boolean 	dropIfEmpty()
+		{
+			fLock.writeLock().lock();
+			try
+			{
+				if ( !fIsDropped && (fQty.get() == 0) )
+				{
+					fIsDropped = true;
+					return true;
+				}
+				return false;
+			}
+			finally
+			{
+				fLock.writeLock().unlock();
+			}
+		}
+
+		int 		getCapacity()
+		{
+			return fSlots.length();
+		}
+
+		private void 	rehash()
+		{
+			fLock.writeLock().lock();
+			try
+			{
+				AtomicIntegerArray 	oldSlots = fSlots;
+				if ( fIsDropped || (fUsedQty.get() < ((oldSlots.length() * 3) / 4)) )
+				{
+					return;	// another thread did it
+				}
+
+				int 		newCapacity = INITIAL_SET_CAPACITY;
+				while ( newCapacity < (fQty.get() * 2) + 1 )
+				{
+					newCapacity <<= 1;
+				}
+
+				AtomicIntegerArray 	newSlots = new AtomicIntegerArray(newCapacity);
+				int 				mask = newCapacity - 1;
+				int 				qty = 0;
+				for ( int i = 0; i < oldSlots.length(); ++i )
+				{
+					int 		slotValue = oldSlots.get(i);
+					if ( slotValue > 0 )
+					{
+						int 		index = hashId(slotValue - 1) & mask;
+						while ( newSlots.get(index) != EMPTY_SLOT )
+						{
+							index = (index + 1) & mask;
+						}
+						newSlots.set(index, slotValue);
+						++qty;
+					}
+				}
+
+				fSize.addAndGet((newCapacity - oldSlots.length()) * 4L);
+				fSlots = newSlots;
+				fUsedQty.set(qty);
+				fQty.set(qty);
+			}
+			finally
+			{
+				fLock.writeLock().unlock();
+			}
+		}
+
+		private final ReentrantReadWriteLock 	fLock;
+		private volatile AtomicIntegerArray 	fSlots;
+		private final AtomicInteger 			fUsedQty;	// includes tombstones
+		private final AtomicInteger 			fQty;
+		private boolean 						fIsDropped;		// guarded by fLock
+	}
+
+	private static int 		hashId(int id)
+	{
+		int 		hash = id * 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+
+	private static final long[] 	NULL_GROUPS = new long[0];
+
+	private static final int 		EMPTY_SLOT = 0;
+	private static final int 		TOMBSTONE_SLOT = -1;
+	private static final int 		INITIAL_SET_CAPACITY = 8;	// must be a power of 2
+
+	private static final int 		PAGE_SHIFT = 12;
+	private static final int 		PAGE_SIZE = 1 << PAGE_SHIFT;
+	private static final int 		PAGE_MASK = PAGE_SIZE - 1;
+
+	private static final int 		KEY_RECORD_OVERHEAD = 80;		// approx: map node, record, empty group array
+	private static final int 		GROUP_MEMBERSHIP_SIZE = 8 + 8 + 8;	// approx: group spec and generation in the record, id slot in the set
+	private static final int 		GROUP_OVERHEAD = 160;			// approx: map node, set, lock
+
+	private final ConcurrentHashMap<String, KeyRecord> 		fKeys;
+	private final ConcurrentHashMap<Long, IdSet> 			fGroups;
+	private final ConcurrentHashMap<Long, Long> 			fTombstones;
+	private final AtomicLong 								fGeneration;
+	private volatile KeyRecordPage[] 						fPages;
+	private final Object 									fPagesLock;
+	private final AtomicInteger 							fNextId;
+	private final ConcurrentLinkedQueue<Integer> 			fFreeIds;
+	private final AtomicLong 								fSize;
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2008-2009 SHOP.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shop.util.ccdb2;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The list of an instance's hot keys (the keys in its object cache, most used first). It's saved at shutdown and periodically
+ * so that the objects can be read back into the cache when the instance is next opened. The file is only a hint - a missing,
+ * stale or damaged file just means fewer objects are warmed up.<br>
+ *
+ * @author Jordan Zimmerman
+ */
+class CCDB2HotKeyFile
+{
+	/**
+	 * @param filePath the file
+	 */
+	CCDB2HotKeyFile(File filePath)
+	{
+		fFilePath = filePath;
+		fTempFilePath = new File(filePath.getPath() + TEMP_EXTENSION);
+	}
+
+	/**
+	 * Return the path passed to the constructor
+	 *
+	 * @return the path
+	 */
+	File 			getFilePath()
+	{
+		return fFilePath;
+	}
+
+	/**
+	 * Replace the file with the given keys. The keys are written to a temp file that is then renamed so that
+	 * there's always a complete file on disk.
+	 *
+	 * @param keys the keys
+	 * @throws IOException errors
+	 */
+	synchronized void 	write(List<String> keys) throws IOException
+	{
+		FileOutputStream 	fileOut = new FileOutputStream(fTempFilePath);
+		boolean 			success = false;
+		try
+		{
+			DataOutputStream 	out = new DataOutputStream(new BufferedOutputStream(fileOut, 0x10000));
+			out.writeInt(MAGIC_INT);
+			out.writeInt(VERSION);
+			out.writeInt(keys.size());
+			for ( String key : keys )
+			{
+				byte[] 		keyBytes = CCDB2Record.getKeyBytes(key);
+				out.writeInt(keyBytes.length);
+				out.write(keyBytes);
+			}
+			out.flush();
+			fileOut.getFD().sync();
+			out.close();
+
+			if ( !fTempFilePath.renameTo(fFilePath) )
+			{
+				throw new IOException("Could not rename " + fTempFilePath.getPath() + " to " + fFilePath.getPath());
+			}
+			success = true;
+		}
+		finally
+		{
+			if ( !success )
+			{
+				fileOut.close();
+				fTempFilePath.delete();
+			}
+		}
+	}
+
+	/**
+	 * Read the keys. If the file doesn't exist or isn't a hot key file, an empty list is returned. If the file
+	 * is truncated, the keys before the damage are returned.
+	 *
+	 * @return the keys, most used first
+	 * @throws IOException errors
+	 */
+	synchronized List<String> 	read() throws IOException
+	{
+		List<String> 		keys = new ArrayList<String>();
+
+		DataInputStream 	in;
+		try
+		{
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(fFilePath), 0x10000));
+		}
+		catch ( FileNotFoundException dummy )
+		{
+			return keys;
+		}
+
+		try
+		{
+			if ( (in.readInt() != MAGIC_INT) || (in.readInt() != VERSION) )
+			{
+				return keys;
+			}
+
+			int 		qty = in.readInt();
+			for ( int i = 0; i < qty; ++i )
+			{
+				int 		length = in.readInt();
+				if ( (length < 0) || (length > MAX_KEY_BYTES) )
+				{
+					break;
+				}
+				byte[] 		keyBytes = new byte[length];
+				in.readFully(keyBytes);
+				keys.add(CCDB2Record.getKeyFromBytes(keyBytes));
+			}
+		}
+		catch ( EOFException dummy )
+		{
+			// truncated - use what was read
+		}
+		finally
+		{
+			in.close();
+		}
+
+		return keys;
+	}
+
+	/**
+	 * Delete the file
+	 *
+	 * @throws IOException errors
+	 */
+	synchronized void 	delete() throws IOException
+	{
+		fTempFilePath.delete();
+		if ( fFilePath.exists() && !fFilePath.delete() )
+		{
+			throw new IOException("Could not delete: " + fFilePath.getPath());
+		}
+	}
+
+	private static final int 		MAGIC_INT = 0x484F544B;	// "HOTK"
+	private static final int 		VERSION = 2;
+	private static final int 		MAX_KEY_BYTES = 0x100000;
+	private static final String 	TEMP_EXTENSION = ".tmp";
+
+	private final File 				fFilePath;
+	private final File 				fTempFilePath;
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2008-2009 SHOP.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shop.util.ccdb2;
+
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The in memory index of an instance - maps keys to addresses/TTLs. Entries are
+ * acquired for use and must be released when no longer needed. While acquired, the same
+ * {@link CCDB2IndexEntry} instance is returned for a key and changes made to it (while synchronized on it)
+ * become part of the index no later than the final release.<br>
+ *
+ * @author Jordan Zimmerman
+ */
+interface CCDB2Index
+{
+	/**
+	 * Used to read the key of a record for indexes that don't keep keys in memory
+	 */
+	interface KeyReader
+	{
+		/**
+		 * Return the key of the record at the given address
+		 *
+		 * @param address record address
+		 * @return the key or null if the record has been deleted
+		 * @throws IOException errors
+		 */
+		public String 	readKey(long address) throws IOException;
+	}
+
+	/**
+	 * Callback for {@link CCDB2Index#removeExpired(long, long, int, ExpiredKeyHandler)}
+	 */
+	interface ExpiredKeyHandler
+	{
+		/**
+		 * Called after an expired key has been removed from the index
+		 *
+		 * @param key the key
+		 */
+		public void 	keyExpired(String key);
+	}
+
+	/**
+	 * Callback for {@link CCDB2Index#visitEntries(EntryVisitor)}
+	 */
+	interface EntryVisitor
+	{
+		/**
+		 * Called for each entry
+		 *
+		 * @param key the key
+		 * @param address the entry's address
+		 * @param TTLDelta the entry's TTL delta
+		 */
+		public void 	visit(String key, long address, int TTLDelta);
+	}
+
+	/**
+	 * Acquire the entry for the given key
+	 *
+	 * @param key key
+	 * @return the entry or null if the key isn't in the index. If non-null, {@link #release(String, CCDB2IndexEntry)} must be called
+	 */
+	public CCDB2IndexEntry 	acquire(String key);
+
+	/**
+	 * Acquire the entry for the given key, adding the given entry if the key isn't in the index. In either case,
+	 * {@link #release(String, CCDB2IndexEntry)} must be called for the entry in use.
+	 *
+	 * @param key key
+	 * @param newEntry entry to add
+	 * @return the existing entry or null if newEntry was added
+	 */
+	public CCDB2IndexEntry 	acquireOrAdd(String key, CCDB2IndexEntry newEntry);
+
+	/**
+	 * Add another use to an entry that's currently acquired
+	 *
+	 * @param key key
+	 * @param entry the acquired entry
+	 */
+	public void 			retain(String key, CCDB2IndexEntry entry);
+
+	/**
+	 * Release a use of an entry
+	 *
+	 * @param key key
+	 * @param entry the acquired entry
+	 */
+	public void 			release(String key, CCDB2IndexEntry entry);
+
+	/**
+	 * Remove the given key from the index. Entries currently acquired for the key are detached from the index.
+	 *
+	 * @param key key
+	 * @return true if the key was in the index
+	 */
+	public boolean 			remove(String key);
+
+	/**
+	 * Set the address/TTL for a key. Used when the index is being loaded. Loaded entries aren't
+	 * scheduled for expiration until {@link #scheduleLoadedExpirations()} is called.
+	 *
+	 * @param key key
+	 * @param address address
+	 * @param TTLDelta TTL delta
+	 */
+	public void 			load(String key, long address, int TTLDelta);
+
+	/**
+	 * Schedule the expiration of every entry in the index. Called once when loading is complete.
+	 */
+	public void 			scheduleLoadedExpirations();
+
+	/**
+	 * Schedule the expiration of a key whose TTL delta has been set or changed. The previous schedule (if any)
+	 * doesn't need to be cancelled.
+	 *
+	 * @param key key
+	 * @param TTLDelta the new TTL delta
+	 */
+	public void 			scheduleExpiration(String key, int TTLDelta);
+
+	/**
+	 * Remove entries whose TTL has passed. Only entries scheduled to expire by now are examined. The handler is
+	 * called with the key of each removed entry. Indexes that don't keep keys in memory read the key from the
+	 * DB - if it can't be read, the handler isn't called for that entry.
+	 *
+	 * @param creationDate the creation date of the instance (TTLs are relative to it)
+	 * @param now current time
+	 * @param maxQty the maximum number of scheduled entries to examine
+	 * @param handler called for each removed key
+	 * @return qty removed
+	 */
+	public int 				removeExpired(long creationDate, long now, int maxQty, ExpiredKeyHandler handler);
+
+	/**
+	 * Returns the number of scheduled expiration buckets
+	 *
+	 * @return qty
+	 */
+	public int 				getExpirationBucketQty();
+
+	/**
+	 * Visit every entry in the index. The visit is not a snapshot - concurrent changes may or may not be seen.
+	 *
+	 * @param visitor the visitor
+	 */
+	public void 			visitEntries(EntryVisitor visitor);
+
+	/**
+	 * Visit every entry in the index using the given pool. The index is split into shards that are visited
+	 * concurrently so the visitor must be thread safe. Returns when every shard has been visited.
+	 *
+	 * @param pool the pool to use
+	 * @param visitor the visitor
+	 */
+	public void 			visitEntriesInParallel(ForkJoinPool pool, EntryVisitor visitor);
+
+	/**
+	 * Remove the entries whose record doesn't hold the entry's key - used to recover a DB file that wasn't closed cleanly.
+	 * Records are read concurrently using the given pool. Entries that are currently acquired aren't examined.
+	 *
+	 * @param pool the pool to use
+	 * @param reader returns the key of the intact record at an address or null if there isn't one. An exception also means there isn't one.
+	 * @return qty removed
+	 */
+	public int 				removeInvalidEntries(ForkJoinPool pool, KeyReader reader);
+
+	/**
+	 * Returns the number of entries in the index
+	 *
+	 * @return qty
+	 */
+	public int 				size();
+
+	/**
+	 * Returns the approximate size in bytes of the index
+	 *
+	 * @return size
+	 */
+	public long 			getIndexSize();
+}
@@ -16,10 +16,11 @@
 package com.shop.util.ccdb2;
 
 import com.shop.util.chunked.ChunkedByteArray;
-import java.lang.ref.SoftReference;
 
 /**
- * An index entry in memory<br>
+ * An index entry in memory. Changes are made while synchronized on the entry. Readers can take an
+ * unsynchronized snapshot of the fields: every change to address or pendingData increments version, so a reader
+ * that sees the same version before and after using its snapshot knows the snapshot was consistent.<br>
  *
  * @author Jordan Zimmerman
 */
@@ -37,15 +38,20 @@ class CCDB2IndexEntry
 	/**
 	 * Address in the DB of the object
 	 */
-	long								address	= NOT_EXISTS_ADDRESS;
+	volatile long						address	= NOT_EXISTS_ADDRESS;
 
 	/**
-	 * Purgeable reference to the data
+	 * Data of a put that hasn't been written yet (held until it is)
 	 */
-	SoftReference<ChunkedByteArray>		bytesRef = null;
+	volatile ChunkedByteArray			pendingData = null;
 
 	/**
 	 * Object's TTL
 	 */
-	int									TTLDelta = 0;
+	volatile int						TTLDelta = 0;
+
+	/**
+	 * Incremented (while synchronized) whenever address or pendingData change
+	 */
+	volatile int						version = 0;
 }
\ No newline at end of file
@@ -15,17 +15,21 @@
  */
 package com.shop.util.ccdb2;
 
-import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.HashSet;
-import java.util.concurrent.ConcurrentHashMap;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Manages a DB's companion index file<br>
@@ -43,8 +47,13 @@ class CCDB2IndexFile
 	 */
 	CCDB2IndexFile(CCDB2Driver driver, File filePath) throws IOException
 	{
+		fDriver = driver;
 		fFilePath = filePath;
-		fFile = new CCDB2File(driver, fFilePath.getPath(), NULL_BYTE);
+		fCompactionFilePath = new File(filePath.getPath() + COMPACTION_EXTENSION);
+		fCompactionFilePath.delete();	// left over from an interrupted compaction
+		fFile = new CCDB2File(driver, fFilePath.getPath(), NULL_BYTE, false);
+		fAppendLock = new ReentrantReadWriteLock();
+		fEntryQty = new AtomicLong(0);
 	}
 
 	/**
@@ -57,6 +66,114 @@ class CCDB2IndexFile
 		return fFilePath;
 	}
 
+	/**
+	 * Returns true if the index file has enough redundant entries (rewrites of the same key, TTL changes, etc.) that
+	 * it should be compacted
+	 *
+	 * @param liveQty number of keys currently in the index
+	 * @return true/false
+	 */
+	boolean needsCompaction(int liveQty)
+	{
+		long 		entryQty = fEntryQty.get();
+		return (entryQty >= MIN_COMPACTION_ENTRY_QTY) && (entryQty >= (liveQty * COMPACTION_RATIO));
+	}
+
+	/**
+	 * Rewrite the index file so that it starts with a compacted snapshot of the index - one entry for each active key
+	 * along with its live groups. Keys that are dead due to a group tombstone are left out. Entries appended to the log while the snapshot is being written are copied after the
+	 * snapshot. The new file replaces the old one via a rename so there is always a complete index file on disk. Loading
+	 * the new file reads the snapshot and then the log tail - i.e. load time is proportional to the live key count
+	 * instead of the number of writes.
+	 *
+	 * @param index the index
+	 * @param groupIndex the group index
+	 * @throws IOException errors
+	 */
+	synchronized void 		compact(CCDB2Index index, final CCDB2GroupIndex groupIndex) throws IOException
+	{
+		long 						snapshotOffset = fFile.getLogicalSize();
+		long 						snapshotEntryQty = fEntryQty.get();
+
+		FileOutputStream 			fileOut = new FileOutputStream(fCompactionFilePath);
+		boolean 					success = false;
+		try
+		{
+			final DataOutputStream 		out = new DataOutputStream(new BufferedOutputStream(fileOut, 0x10000));
+			final AtomicLong 			writtenQty = new AtomicLong(0);
+			final AtomicReference<IOException> 	exception = new AtomicReference<IOException>(null);
+			index.visitEntries
+			(
+				new CCDB2Index.EntryVisitor()
+				{
+					@Override
+					public void visit(String key, long address, int TTLDelta)
+					{
+						if ( (address < CCDB2IndexEntry.MINIMUM_ACTIVE_ADDRESS) || (exception.get() != null) || groupIndex.isDead(key) )
+						{
+							return;
+						}
+
+						try
+						{
+							writeEntry(out, key, address, TTLDelta, groupIndex.getGroupSpecs(key));
+							writtenQty.incrementAndGet();
+						}
+						catch ( IOException e )
+						{
+							exception.set(e);
+						}
+					}
+				}
+			);
+			if ( exception.get() != null )
+			{
+				throw exception.get();
+			}
+
+			fAppendLock.writeLock().lock();
+			try
+			{
+				// copy the entries appended since the snapshot started
+				long 		tailOffset = snapshotOffset;
+				long 		tailEnd = fFile.getLogicalSize();
+				byte[] 		buffer = new byte[COPY_BUFFER_SIZE];
+				while ( tailOffset < tailEnd )
+				{
+					int 	thisSize = (int)Math.min(buffer.length, tailEnd - tailOffset);
+					fFile.readFully(ByteBuffer.wrap(buffer, 0, thisSize), tailOffset);
+					out.write(buffer, 0, thisSize);
+					tailOffset += thisSize;
+				}
+				out.flush();
+				fileOut.getFD().sync();
+				out.close();
+
+				fFile.close();
+				if ( !fCompactionFilePath.renameTo(fFilePath) )
+				{
+					fFile = new CCDB2File(fDriver, fFilePath.getPath(), NULL_BYTE, false);
+					throw new IOException("Could not rename " + fCompactionFilePath.getPath() + " to " + fFilePath.getPath());
+				}
+				fFile = new CCDB2File(fDriver, fFilePath.getPath(), NULL_BYTE, false);
+				fEntryQty.set(writtenQty.get() + (fEntryQty.get() - snapshotEntryQty));
+				success = true;
+			}
+			finally
+			{
+				fAppendLock.writeLock().unlock();
+			}
+		}
+		finally
+		{
+			if ( !success )
+			{
+				fileOut.close();
+				fCompactionFilePath.delete();
+			}
+		}
+	}
+
 	/**
 	 * Close the index
 	 */
@@ -65,6 +182,16 @@ class CCDB2IndexFile
 		fFile.close();
 	}
 
+	/**
+	 * Force the index's changes to disk
+	 *
+	 * @throws IOException errors
+	 */
+	void 					force() throws IOException
+	{
+		fFile.force();
+	}
+
 	/**
 	 * Add a new index entry
 	 *
@@ -78,7 +205,186 @@ class CCDB2IndexFile
 	{
 		ByteArrayOutputStream		bytes = new ByteArrayOutputStream();
 		DataOutputStream			out = new DataOutputStream(bytes);
+		writeEntry(out, key, address, TTLDelta, groupSpecs);
+		out.close();
+
+		writeEntries(bytes.toByteArray(), 1);
+	}
+
+	/**
+	 * Add a group tombstone - when the index is loaded, the keys in the group that were written before the tombstone
+	 * are dead.
+	 *
+	 * @param groupSpec the group
+	 * @throws IOException errors
+	 */
+	void addGroupTombstone(long groupSpec) throws IOException
+	{
+		addNewEntry("", GROUP_TOMBSTONE_ADDRESS, 0, new long[]{groupSpec});
+	}
+
+	/**
+	 * Add a batch of new index entries. Space for all the entries is allocated at once and they are
+	 * written with a single write.
+	 *
+	 * @param entries the entries to add
+	 * @throws IOException errors
+	 */
+	void addNewEntries(List<NewEntry> entries) throws IOException
+	{
+		if ( entries.size() == 0 )
+		{
+			return;
+		}
+
+		ByteArrayOutputStream		bytes = new ByteArrayOutputStream();
+		DataOutputStream			out = new DataOutputStream(bytes);
+		for ( NewEntry entry : entries )
+		{
+			writeEntry(out, entry.key, entry.address, entry.TTLDelta, entry.groupSpecs);
+		}
+		out.close();
+
+		writeEntries(bytes.toByteArray(), entries.size());
+	}
+
+	/**
+	 * Values for an entry to be written via {@link CCDB2IndexFile#addNewEntries(List)}
+	 */
+	static class NewEntry
+	{
+		final String		key;
+		final long 			address;
+		final int 			TTLDelta;
+		final long[] 		groupSpecs;
+
+		NewEntry(String key, long address, int TTLDelta, long[] groupSpecs)
+		{
+			this.key = key;
+			this.address = address;
+			this.TTLDelta = TTLDelta;
+			this.groupSpecs = groupSpecs;
+		}
+	}
+
+	/**
+	 * Load the index into memory. IMPORTANT, CCDB2 indexes are always completely in memory.<br><br>
+	 *
+	 * The file is memory mapped and loaded in two parallel phases. First, the file is split into ranges. Each range finds
+	 * its first entry via the MAGIC_BYTE/MAGIC_INT framing and records the positions of its entries, bucketed by a hash of
+	 * the key. Then, each bucket is applied to the index by its own thread. Buckets are applied in file order so later
+	 * entries for a key still replace earlier ones.<br><br>
+	 *
+	 * A torn or corrupt entry (e.g. from a crash in the middle of a write) ends the load as if it were the end of the entries. The
+	 * entries after it are ignored and the file is only appended to from that point, so call {@link #compact(CCDB2Index, CCDB2GroupIndex)}
+	 * to get rid of the damaged tail.
+	 *
+	 * @param index the index to store entries in
+	 * @param groupIndex the group index to store groups in
+	 * @param percentDone value to update with load percentage. As the index is loaded, this object will get increment as the load-percentage changes
+	 * @return true if the file was intact, false if a torn or corrupt entry was found
+	 * @throws IOException errors
+	 */
+	synchronized boolean 	load(final CCDB2Index index, final CCDB2GroupIndex groupIndex, final AtomicInteger percentDone) throws IOException
+	{
+		final long 		fileLength = fFile.getActualSize();
+		if ( !fFilePath.exists() || (fileLength == 0) )
+		{
+			percentDone.set(100);
+			return true;
+		}
+
+		int 			threadQty = Math.min(Runtime.getRuntime().availableProcessors(), MAX_LOAD_THREAD_QTY);
+		int 			rangeQty = (int)Math.max(Math.min(threadQty, fileLength / MIN_LOAD_RANGE_SIZE), 1);
+		rangeQty = (int)Math.max(rangeQty, (fileLength + MAX_LOAD_RANGE_SIZE - 1) / MAX_LOAD_RANGE_SIZE);
+		final int 		partitionQty = (rangeQty > 1) ? threadQty : 1;
+
+		final AtomicLong 		progress = new AtomicLong(0);
+		final LoadRange[] 		ranges = new LoadRange[rangeQty];
+		long 					rangeSize = (fileLength + rangeQty - 1) / rangeQty;
+		for ( int i = 0; i < rangeQty; ++i )
+		{
+			long 		nominalStart = i * rangeSize;
+			long 		mapSize = Math.min(fileLength - nominalStart, Integer.MAX_VALUE);	// entries can extend past the range end
+			ranges[i] = new LoadRange(fFile.getChannel().map(FileChannel.MapMode.READ_ONLY, nominalStart, mapSize), nominalStart, Math.min(nominalStart + rangeSize, fileLength), partitionQty);
+		}
 
+		List<LoaderThread> 		scanners = new ArrayList<LoaderThread>();
+		for ( int i = 0; i < rangeQty; ++i )
+		{
+			final LoadRange 	range = ranges[i];
+			scanners.add
+			(
+				new LoaderThread()
+				{
+					@Override
+					void load() throws IOException
+					{
+						int 	start = (range.nominalStart == 0) ? 0 : findEntry(range.buffer, 0);
+						range.scan(start, progress, fileLength, percentDone);
+					}
+				}
+			);
+		}
+		runThreads(scanners);
+
+		if ( !rangesAreContiguous(ranges) )
+		{
+			// an entry boundary was misidentified - rescan with each range starting where the previous one ended
+			progress.set(0);
+			long 	nextStart = 0;
+			for ( LoadRange range : ranges )
+			{
+				range.reset();
+				if ( nextStart >= 0 )
+				{
+					range.scan((int)(nextStart - range.nominalStart), progress, fileLength, percentDone);
+					nextStart = range.foundNull ? -1 : range.end;
+				}
+			}
+		}
+
+		final long 				entryQty = countEntries(ranges);
+		fEntryQty.set(entryQty);
+		final AtomicLong 		appliedQty = new AtomicLong(0);
+		List<LoaderThread> 		appliers = new ArrayList<LoaderThread>();
+		for ( int i = 0; i < partitionQty; ++i )
+		{
+			final int 		partition = i;
+			appliers.add
+			(
+				new LoaderThread()
+				{
+					@Override
+					void load() throws IOException
+					{
+						for ( LoadRange range : ranges )
+						{
+							range.apply(partition, index, groupIndex, appliedQty, entryQty, percentDone);
+						}
+					}
+				}
+			);
+		}
+		runThreads(appliers);
+
+		boolean 		isIntact = true;
+		for ( LoadRange range : ranges )
+		{
+			if ( range.foundNull )
+			{
+				fFile.setLogicalSize(range.end);
+				isIntact = !range.foundTorn;
+				break;
+			}
+		}
+
+		percentDone.set(100);
+		return isIntact;
+	}
+
+	private void writeEntry(DataOutputStream out, String key, long address, int TTLDelta, long[] groupSpecs) throws IOException
+	{
 		out.writeByte(MAGIC_BYTE);
 		out.writeInt(MAGIC_INT);
 		out.writeInt(key.length());
@@ -97,140 +403,398 @@ class CCDB2IndexFile
 		{
 			out.writeInt(0);
 		}
-		out.close();
+	}
 
-		byte[]						entry = bytes.toByteArray();
-		long 						entryAddress = fFile.allocate(entry.length);
-		CCDB2io 					io = fFile.getFile();
+	private void writeEntries(byte[] entries, int entryQty) throws IOException
+	{
+		fAppendLock.readLock().lock();	// the file can't be swapped by compact() during the write
 		try
 		{
-			io.seek(entryAddress);
-			io.write(entry);
+			long 		entriesAddress = fFile.allocate(entries.length);
+			CCDB2io 	io = fFile.getFile();
+			io.seek(entriesAddress);
+			io.write(entries);
+			fEntryQty.addAndGet(entryQty);
 		}
 		finally
 		{
-			fFile.releaseFile(io);
+			fAppendLock.readLock().unlock();
 		}
 	}
 
-	/**
-	 * Load the index into memory. IMPORTANT, CCDB2 indexes are always completely in memory
-	 *
-	 * @param index the HashMap to store index entries in
-	 * @param groupsIndex the HashMap to store groups in
-	 * @param percentDone value to update with load percentage. As the index is loaded, this object will get increment as the load-percentage changes
-	 * @param updateIndex callback so that clients can keep track of the size of the index in memory
-	 * @throws IOException errors
-	 */
-	synchronized void 		load(ConcurrentHashMap<String, CCDB2IndexEntry> index, ConcurrentHashMap<Long, HashSet<String>> groupsIndex, final AtomicInteger percentDone, final CCDB2UpdateIndexInterface updateIndex) throws IOException
+	private static boolean rangesAreContiguous(LoadRange[] ranges)
 	{
-		if ( !fFilePath.exists() )
+		boolean 		foundNull = false;
+		long 			expectedStart = 0;
+		for ( LoadRange range : ranges )
 		{
-			percentDone.set(100);
-			return;
+			if ( foundNull )
+			{
+				if ( range.entryQty > 0 )
+				{
+					return false;
+				}
+			}
+			else if ( (range.entryQty > 0) || range.foundNull )
+			{
+				if ( range.start != expectedStart )
+				{
+					return false;
+				}
+				expectedStart = range.end;
+				foundNull = range.foundNull;
+			}
 		}
+		return true;
+	}
 
-		final DataInputStream 	in = new DataInputStream(new BufferedInputStream(new FileInputStream(fFilePath), 0x10000));	// 1MB buffer
-		//noinspection CaughtExceptionImmediatelyRethrown
-		CCDB2ReadFully 			readFully = new CCDB2ReadFully()
+	private static long countEntries(LoadRange[] ranges)
+	{
+		long 		qty = 0;
+		for ( LoadRange range : ranges )
+		{
+			qty += range.entryQty;
+		}
+		return Math.max(qty, 1);
+	}
+
+	/**
+	 * Find the first position at or after the given position that is the start of an entry that's followed by another entry (or the end of the entries)
+	 *
+	 * @param buffer mapped range
+	 * @param position starting position
+	 * @return entry position or the buffer's limit if none was found
+	 */
+	private static int findEntry(ByteBuffer buffer, int position)
+	{
+		for ( ; position < buffer.limit(); ++position )
 		{
-			@Override
-			public void readFully(byte[] buffer) throws IOException
+			if ( buffer.get(position) == MAGIC_BYTE )
 			{
-				int 			bufferLength = buffer.length;
-				int				offset = 0;
-				while ( bufferLength > 0 )
+				try
 				{
-					int 	thisSize = Math.min(bufferLength, buffer.length);
-					int 	thisRead = in.read(buffer, offset, thisSize);
-					if ( thisRead < 0 )
+					int 	nextPosition = position + getEntryLength(buffer, position);
+					if ( nextPosition >= buffer.limit() )
 					{
-						throw new EOFException();
+						return position;
 					}
-					bufferLength -= thisRead;
-					offset += thisRead;
+
+					byte 	nextByte = buffer.get(nextPosition);
+					if ( nextByte == NULL_BYTE )
+					{
+						return position;
+					}
+					if ( nextByte == MAGIC_BYTE )
+					{
+						getEntryLength(buffer, nextPosition);	// throws if the next entry isn't valid
+						return position;
+					}
+				}
+				catch ( IOException ignore )
+				{
+					// not an entry
+				}
+				catch ( IndexOutOfBoundsException ignore )
+				{
+					// not an entry
 				}
 			}
-		};
-		try
+		}
+		return buffer.limit();
+	}
+
+	/**
+	 * Return the length of the entry at the given position
+	 *
+	 * @param buffer mapped range
+	 * @param position the entry's position
+	 * @return length
+	 * @throws IOException if the entry is corrupt or extends past the buffer
+	 */
+	private static int getEntryLength(ByteBuffer buffer, int position) throws IOException
+	{
+		if ( buffer.getInt(position + 1) != MAGIC_INT )
+		{
+			throw new IOException("! Index is corrupt - bad magic int");
+		}
+
+		int 		keyLength = buffer.getInt(position + KEY_LENGTH_OFFSET);
+		if ( (keyLength < 0) || (keyLength > (buffer.limit() - position)) )
+		{
+			throw new IOException("! Index is corrupt - bad key length");
+		}
+
+		int 		groupSpecsQty = buffer.getInt(position + KEY_OFFSET + keyLength + 8 + 4);
+		long 		length = ENTRY_BASE_SIZE + keyLength + (groupSpecsQty * 8L);
+		if ( groupSpecsQty < 0 )
+		{
+			throw new IOException("! Index is corrupt - bad group spec qty");
+		}
+		if ( (position + length) > buffer.limit() )
 		{
-			long 				fileLength = Math.max(fFilePath.length(), 1);	// avoid divide by zero
-			long 				currentOffset = 0;
+			throw new EOFException();
+		}
+		return (int)length;
+	}
 
-			outer: for(;;)
+	private static void runThreads(List<LoaderThread> threads) throws IOException
+	{
+		for ( LoaderThread thread : threads )
+		{
+			thread.start();
+		}
+
+		for ( LoaderThread thread : threads )
+		{
+			try
 			{
-				boolean		checking = true;
-				while ( checking )
-				{
-					int 			i = in.read();
-					if ( i < 0 )
-					{
-						break outer;
-					}
+				thread.join();
+			}
+			catch ( InterruptedException e )
+			{
+				Thread.currentThread().interrupt();
+				throw new IOException(e);
+			}
+		}
 
-					byte			b = (byte)(i & 0xff);
-					switch ( b )
-					{
-						case NULL_BYTE:
-						{
-							fFile.setLogicalSize(currentOffset);
-							break outer;
-						}
+		for ( LoaderThread thread : threads )
+		{
+			if ( thread.exception != null )
+			{
+				throw thread.exception;
+			}
+		}
+	}
 
-						case MAGIC_BYTE:
-						{
-							checking = false;
-							break;
-						}
+	private static abstract class LoaderThread extends Thread
+	{
+		@Override
+		public void run()
+		{
+			try
+			{
+				load();
+			}
+			catch ( IOException e )
+			{
+				exception = e;
+			}
+			catch ( IndexOutOfBoundsException e )
+			{
+				exception = new EOFException();
+			}
+		}
 
-						default:
-						{
-							throw new IOException("! Index is corrupt - bad magic byte");
-						}
+		abstract void load() throws IOException;
+
+		volatile IOException		exception = null;
+	}
+
+	/**
+	 * A growable list of ints
+	 */
+	private static class PositionList
+	{
+		void 	add(int position)
+		{
+			if ( qty >= positions.length )
+			{
+				int[] 	newPositions = new int[positions.length * 2];
+				System.arraycopy(positions, 0, newPositions, 0, qty);
+				positions = newPositions;
+			}
+			positions[qty++] = position;
+		}
+
+		int[] 		positions = new int[1024];
+		int 		qty = 0;
+	}
+
+	/**
+	 * A range of the index file being loaded
+	 */
+	private static class LoadRange
+	{
+		final ByteBuffer 			buffer;
+		final long 					nominalStart;
+		final long 					nominalEnd;
+		final PositionList[] 		partitions;
+		long 						start;
+		long 						end;
+		boolean 					foundNull;
+		boolean 					foundTorn;
+		long 						entryQty;
+
+		LoadRange(ByteBuffer buffer, long nominalStart, long nominalEnd, int partitionQty)
+		{
+			this.buffer = buffer;
+			this.nominalStart = nominalStart;
+			this.nominalEnd = nominalEnd;
+			partitions = new PositionList[partitionQty];
+			reset();
+		}
+
+		void 		reset()
+		{
+			for ( int i = 0; i < partitions.length; ++i )
+			{
+				partitions[i] = new PositionList();
+			}
+			start = nominalStart;
+			end = nominalStart;
+			foundNull = false;
+			foundTorn = false;
+			entryQty = 0;
+		}
+
+		/**
+		 * Record the positions of the entries that start within the range. A torn or corrupt entry
+		 * ends the range as if a null byte had been found.
+		 *
+		 * @param startPosition position (relative to the range) of the first entry
+		 * @param progress bytes scanned for all ranges
+		 * @param fileLength length of the file
+		 * @param percentDone percentage to update
+		 * @throws IOException corruption
+		 */
+		void 		scan(int startPosition, AtomicLong progress, long fileLength, AtomicInteger percentDone) throws IOException
+		{
+			int 		rangeLength = (int)(nominalEnd - nominalStart);
+			int 		position = startPosition;
+			int 		reportedPosition = position;
+			while ( (position < rangeLength) && (position < buffer.limit()) )
+			{
+				byte 	b = buffer.get(position);
+				if ( b == NULL_BYTE )
+				{
+					foundNull = true;
+					break;
+				}
+
+				int 	keyLength;
+				int 	length;
+				try
+				{
+					if ( b != MAGIC_BYTE )
+					{
+						throw new IOException("! Index is corrupt - bad magic byte");
 					}
-					++currentOffset;
+					keyLength = buffer.getInt(position + KEY_LENGTH_OFFSET);
+					length = getEntryLength(buffer, position);
+				}
+				catch ( IOException dummy )
+				{
+					foundNull = true;
+					foundTorn = true;
+					break;
 				}
+				catch ( IndexOutOfBoundsException dummy )
+				{
+					foundNull = true;
+					foundTorn = true;
+					break;
+				}
+				int 	hash = 0;
+				for ( int i = 0; i < keyLength; ++i )
+				{
+					hash = (31 * hash) + buffer.get(position + KEY_OFFSET + i);
+				}
+				partitions[(hash & Integer.MAX_VALUE) % partitions.length].add(position);
+				++entryQty;
+				position += length;
 
-				if ( in.readInt() != MAGIC_INT )
+				if ( (position - reportedPosition) >= PROGRESS_UPDATE_SIZE )
 				{
-					throw new IOException("! Index is corrupt - bad magic int");
+					long 	totalProgress = progress.addAndGet(position - reportedPosition);
+					percentDone.set((int)((totalProgress * 50) / fileLength));
+					reportedPosition = position;
 				}
-				currentOffset += 4;
+			}
+			progress.addAndGet(position - reportedPosition);
 
-				int 					keyLength = in.readInt();
-				String					key = CCDB2Record.readKey(readFully, keyLength);
-				long					address = in.readLong();
-				int 					TTLDelta = in.readInt();
-				int 					groupSpecsQty = in.readInt();
-				currentOffset += 4 + key.length() + 8 + 4 + 4;
+			start = nominalStart + startPosition;
+			end = nominalStart + position;
+		}
+
+		/**
+		 * Add the entries of the given partition to the index
+		 *
+		 * @param partition partition
+		 * @param index the index
+		 * @param groupIndex the group index
+		 * @param appliedQty entries applied for all partitions
+		 * @param entryQty total number of entries
+		 * @param percentDone percentage to update
+		 */
+		void 		apply(int partition, CCDB2Index index, CCDB2GroupIndex groupIndex, AtomicLong appliedQty, long entryQty, AtomicInteger percentDone)
+		{
+			ByteBuffer 		localBuffer = buffer.duplicate();
+			PositionList 	list = partitions[partition];
+			for ( int i = 0; i < list.qty; ++i )
+			{
+				int 		position = list.positions[i];
+				int 		keyLength = localBuffer.getInt(position + KEY_LENGTH_OFFSET);
+				byte[] 		keyBytes = new byte[keyLength];
+				localBuffer.position(position + KEY_OFFSET);
+				localBuffer.get(keyBytes);
 
-				while ( groupSpecsQty-- > 0 )
+				String 		key = CCDB2Record.getKeyFromBytes(keyBytes);
+				long 		address = localBuffer.getLong();
+				int 		TTLDelta = localBuffer.getInt();
+				long[] 		groupSpecs = new long[localBuffer.getInt()];
+				for ( int j = 0; j < groupSpecs.length; ++j )
 				{
-					CCDB2Instance.addToGroup(groupsIndex, key, in.readLong());
-					currentOffset += 8;
+					groupSpecs[j] = localBuffer.getLong();
 				}
 
-				CCDB2IndexEntry		entry = new CCDB2IndexEntry();
-				entry.address = address;
-				entry.TTLDelta = TTLDelta;
-				index.put(key, entry);
-				updateIndex.updateIndexSize(key, true);
+				long 		generation = nominalStart + position + 1;	// entries are ordered by their position in the file
+				if ( (keyLength == 0) && (address == GROUP_TOMBSTONE_ADDRESS) )
+				{
+					for ( long groupSpec : groupSpecs )
+					{
+						groupIndex.loadTombstone(groupSpec, generation);
+					}
+				}
+				else
+				{
+					groupIndex.load(key, groupSpecs, generation);
+					index.load(key, address, TTLDelta);
+				}
 
-				percentDone.set((int)((currentOffset * 100) / fileLength));
+				if ( (i % PROGRESS_UPDATE_QTY) == (PROGRESS_UPDATE_QTY - 1) )
+				{
+					percentDone.set(50 + (int)((appliedQty.addAndGet(PROGRESS_UPDATE_QTY) * 50) / entryQty));
+				}
 			}
+			partitions[partition] = null;	// no longer needed
 		}
-		finally
-		{
-			in.close();
-		}
-
-		percentDone.set(100);
 	}
 
 	private static final int 		MAGIC_INT = 0xCAFEBABE;
 	private static final byte		MAGIC_BYTE = (byte)0xBF;
 	private static final byte		NULL_BYTE = (byte)0;
 
-	private final File			fFilePath;
-	private final CCDB2File		fFile;
+	private static final long 		GROUP_TOMBSTONE_ADDRESS = -3;	// address of a group tombstone entry (which has an empty key)
+
+	private static final int 		KEY_LENGTH_OFFSET = 1 + 4;						// magic byte, magic int
+	private static final int 		KEY_OFFSET = KEY_LENGTH_OFFSET + 4;				// key length
+	private static final int 		ENTRY_BASE_SIZE = KEY_OFFSET + 8 + 4 + 4;		// address, TTL, group specs qty
+
+	private static final int 		MAX_LOAD_THREAD_QTY = 8;
+	private static final long 		MIN_LOAD_RANGE_SIZE = 0x400000;		// 4 MB
+	private static final long 		MAX_LOAD_RANGE_SIZE = 0x40000000;	// 1 GB - leaves room in a 2 GB mapping for entries that extend past the range
+	private static final int 		PROGRESS_UPDATE_SIZE = 0x100000;
+	private static final int 		PROGRESS_UPDATE_QTY = 0x10000;
+
+	private static final String 	COMPACTION_EXTENSION = ".compact";
+	private static final long 		MIN_COMPACTION_ENTRY_QTY = 100000;
+	private static final int 		COMPACTION_RATIO = 2;	// compact when there are at least this many entries per live key
+	private static final int 		COPY_BUFFER_SIZE = 0x100000;
+
+	private final CCDB2Driver 				fDriver;
+	private final File						fFilePath;
+	private final File 						fCompactionFilePath;
+	private final ReentrantReadWriteLock 	fAppendLock;
+	private final AtomicLong 				fEntryQty;
+	private volatile CCDB2File				fFile;
 }
\ No newline at end of file
@@ -19,20 +19,23 @@ import com.shop.util.chunked.ChunkedByteArray;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
-import java.lang.ref.SoftReference;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.regex.Pattern;
 
 /**
@@ -42,7 +45,7 @@ import java.util.regex.Pattern;
  * @since 1.1 JLZ 12/30/2008 - delete() wasn't closing the instance. This caused a resource leak (the background put thread).
  */
 @SuppressWarnings({"ResultOfMethodCallIgnored", "SynchronizationOnLocalVariableOrMethodParameter"})
-public class CCDB2Instance implements CCDB2UpdateIndexInterface
+public class CCDB2Instance
 {
 	/**
 	 * Thrown when an incompatible file is encountered
@@ -89,21 +92,29 @@ public class CCDB2Instance implements CCDB2UpdateIndexInterface
 		fDriver = driver;
 		fFilePath = new File(directory, baseFilename + fDriver.getDBExtension()).getPath();
 		fIsOpen = new AtomicBoolean(true);
-		fUseCount = 0;
+		fUseCounter = new CCDB2UseCounter();
 
-		fFile = new CCDB2File(driver, fFilePath, (byte)DEAD_BYTE);
+		fFile = new CCDB2File(driver, fFilePath, (byte)DEAD_BYTE, driver.useMappedReads());
 		readHeader();
 
-		fIndex = new ConcurrentHashMap<String, CCDB2IndexEntry>();
-		fGroupsIndex = new ConcurrentHashMap<Long, HashSet<String>>();
-		fIndexSize = new AtomicLong(0);
-		fGroupsIndexSize = new AtomicLong(0);
+		fIndex = driver.usePrimitiveIndex() ? new CCDB2PrimitiveIndex(new IndexKeyReader()) : new CCDB2MapIndex();
+		fGroupIndex = new CCDB2GroupIndex();
+		fTombstoneLock = new ReentrantReadWriteLock();
+		fSortedKeys = driver.useSortedKeyIndex() ? new ConcurrentSkipListSet<String>() : null;
 
 		fInMemoryGetQty = new AtomicLong(0);
 		fFromDiskGetQty = new AtomicLong(0);
+		fKeyFilterSkipQty = new AtomicLong(0);
+		fRegionGetQty = new AtomicLong(0);
+		fCompressedPutQty = new AtomicLong(0);
+		fCompressionSavedBytes = new AtomicLong(0);
 		fPendingPutQueueOverflowQty = new AtomicLong(0);
+		fWarmedQty = new AtomicLong(0);
 
+		fObjectCache = new CCDB2ObjectCache(driver.getObjectCacheSize());
 		fIndexFile = new CCDB2IndexFile(fDriver, new File(directory, baseFilename + fDriver.getIndexExtension()));
+		fHotKeyFile = new CCDB2HotKeyFile(new File(directory, baseFilename + HOT_KEY_EXTENSION));
+		fFreeSpace = new CCDB2FreeSpaceMap();
 
 		fActivePendingPut = new AtomicReference<ActivePendingPut>(null);
 		fPendingPutException = new AtomicReference<IOException>(null);
@@ -116,14 +127,122 @@ public class CCDB2Instance implements CCDB2UpdateIndexInterface
 	}
 
 	/**
-	 * Load the file. This should always be called - i.e. even if it's a new file.
+	 * Load the file. This should always be called - i.e. even if it's a new file.<br><br>
+	 *
+	 * If the file wasn't closed cleanly (e.g. the process died) or the index file has a torn tail, the index entries are
+	 * validated against the records they point to - see {@link #recover(AtomicInteger, boolean)}.
 	 *
 	 * @param percentDone reporting mechanism. Will get updated with the percentage of the file that's loaded.
 	 * @throws IOException errors
 	 */
 	public void loadFile(AtomicInteger percentDone) throws IOException
 	{
-		fIndexFile.load(fIndex, fGroupsIndex, percentDone, this);
+		boolean 	indexIsIntact = fIndexFile.load(fIndex, fGroupIndex, percentDone);
+		if ( !fWasClosedCleanly || !indexIsIntact )
+		{
+			recover(percentDone, indexIsIntact);
+		}
+		fIndex.scheduleLoadedExpirations();
+
+		final CCDB2KeyFilter 	keyFilter = (fDriver.getKeyFilterCapacity() > 0) ? new CCDB2KeyFilter(Math.max(fDriver.getKeyFilterCapacity(), fIndex.size())) : null;
+		if ( (fSortedKeys != null) || (keyFilter != null) )
+		{
+			fIndex.visitEntries(new CCDB2Index.EntryVisitor()
+			{
+				@Override
+				public void visit(String key, long address, int TTLDelta)
+				{
+					if ( fSortedKeys != null )
+					{
+						fSortedKeys.add(key);
+					}
+					if ( keyFilter != null )
+					{
+						keyFilter.add(key);
+					}
+				}
+			});
+		}
+		fKeyFilter = keyFilter;
+	}
+
+	/**
+	 * Read the objects of the keys saved by {@link #saveHotKeys()} back into the object cache. The records are read
+	 * in file order so that the reads are sequential. Objects are only added to the cache if that doesn't evict anything, so
+	 * objects read by clients while the warm up is running stay cached. The instance can be used (and closed) while this runs.
+	 *
+	 * @param percentDone reporting mechanism. Will get updated with the percentage of the keys that have been read.
+	 * @throws IOException errors
+	 */
+	public void warmUp(AtomicInteger percentDone) throws IOException
+	{
+		List<HotRecord> 		records = new ArrayList<HotRecord>();
+		if ( (fDriver.getHotKeyQty() > 0) && (fDriver.getObjectCacheSize() > 0) )
+		{
+			for ( String key : fHotKeyFile.read() )
+			{
+				CCDB2IndexEntry 	entry = fIndex.acquire(key);
+				if ( entry != null )
+				{
+					try
+					{
+						if ( entry.address >= CCDB2IndexEntry.MINIMUM_ACTIVE_ADDRESS )
+						{
+							records.add(new HotRecord(key, entry.address));
+						}
+					}
+					finally
+					{
+						fIndex.release(key, entry);
+					}
+				}
+			}
+		}
+
+		Collections.sort
+		(
+			records,
+			new Comparator<HotRecord>()
+			{
+				@Override
+				public int compare(HotRecord o1, HotRecord o2)
+				{
+					return (o1.address < o2.address) ? -1 : ((o1.address > o2.address) ? 1 : 0);
+				}
+			}
+		);
+
+		for ( int i = 0; i < records.size(); ++i )
+		{
+			if ( !warmUpRecord(records.get(i)) )
+			{
+				break;
+			}
+			percentDone.set((i * 100) / records.size());
+		}
+		percentDone.set(100);
+	}
+
+	/**
+	 * Save the keys of the objects in the object cache (most used first) so that they can be warmed up via
+	 * {@link #warmUp(AtomicInteger)} when the instance is next opened. This is also done when the instance is closed.
+	 *
+	 * @throws IOException errors
+	 */
+	public void saveHotKeys() throws IOException
+	{
+		updateUseCount(true);
+		try
+		{
+			if ( fIsOpen.get() )
+			{
+				writeHotKeys();
+			}
+		}
+		finally
+		{
+			updateUseCount(false);
+		}
 	}
 
 	/**
@@ -162,14 +281,7 @@ public class CCDB2Instance implements CCDB2UpdateIndexInterface
 		{
 			if ( fIsOpen.get() )
 			{
-				Set<String> 	list = fGroupsIndex.get(groupSpec);
-				if ( list != null )
-				{
-					synchronized(list)
-					{
-						keysList.addAll(list);
-					}
-				}
+				keysList.addAll(fGroupIndex.getKeys(groupSpec));
 			}
 		}
 		finally
@@ -181,7 +293,9 @@ public class CCDB2Instance implements CCDB2UpdateIndexInterface
 	}
 
 	/**
-	 * Remove the objects associated with the given group
+	 * Remove the objects associated with the given group. The group is invalidated with a single tombstone - the
+	 * objects are dead immediately but their records aren't deleted until the next {@link #compactIndexFile()}. Puts
+	 * of the group's objects that haven't been written yet are dropped by the background writer.
 	 *
 	 * @param groupSpec ID of the group
 	 * @return list of keys removed
@@ -196,21 +310,20 @@ public class CCDB2Instance implements CCDB2UpdateIndexInterface
 		{
 			if ( fIsOpen.get() )
 			{
-				Set<String> 	list = fGroupsIndex.get(groupSpec);
-				if ( list != null )
+				// the tombstone must follow the index entries of every put it kills - see addIndexEntries()
+				fTombstoneLock.writeLock().lock();
+				try
 				{
-					Set<String> 	copyList;
-					synchronized(list)
-					{
-						copyList = new HashSet<String>(list);
-					}
-
-					for ( String key : copyList )
+					keysList.addAll(fGroupIndex.addTombstone(groupSpec));
+					if ( keysList.size() > 0 )
 					{
-						fDriver.callRemoveObject(key);
-						keysList.add(key);
+						fIndexFile.addGroupTombstone(groupSpec);
 					}
 				}
+				finally
+				{
+					fTombstoneLock.writeLock().unlock();
+				}
 			}
 		}
 		finally
@@ -227,7 +340,7 @@ public class CCDB2Instance implements CCDB2UpdateIndexInterface
 	 *
 	 * @param out stream to write to
 	 */
-	public void writeKeyData(PrintStream out)
+	public void writeKeyData(final PrintStream out)
 	{
 		updateUseCount(true);
 		try
@@ -237,15 +350,20 @@ public class CCDB2Instance implements CCDB2UpdateIndexInterface
 				return;
 			}
 
-			for ( String key : fIndex.keySet() )
+			fIndex.visitEntries(new CCDB2Index.EntryVisitor()
 			{
-				CCDB2IndexEntry 		entry = fIndex.get(key);
-				if ( entry != null )
+				@Override
+				public void visit(String key, long address, int TTLDelta)
 				{
+					if ( fGroupIndex.isDead(key) )
+					{
+						return;
+					}
+
 					String 	fixedKey = key.replace("\t", " ");
-					out.println(fFilePath + "\t" + fixedKey + "\t" + entry.address + "\t" + (fCreationDate + entry.TTLDelta));
+					out.println(fFilePath + "\t" + fixedKey + "\t" + address + "\t" + (fCreationDate + TTLDelta));
 				}
-			}
+			});
 		}
 		finally
 		{
@@ -254,36 +372,22 @@ public class CCDB2Instance implements CCDB2UpdateIndexInterface
 	}
 
 	/**
-	 * Utility - purges the in memory index of stale keys
+	 * Utility - removes a batch of keys whose TTL has passed from the in memory index, the object cache and the
+	 * group/sorted key indexes. Only keys scheduled to expire by now are examined so this is cheap enough to call every few seconds.
 	 *
-	 * @return qty purged
+	 * @param maxQty the maximum number of scheduled keys to examine
+	 * @return qty removed
 	 */
-	public int 	removeOldKeysFromIndex()
+	public int 	expireOldKeys(int maxQty)
 	{
 		int		qty = 0;
-		long	now = System.currentTimeMillis();
 
 		updateUseCount(true);
 		try
 		{
 			if ( fIsOpen.get() )
 			{
-				Iterator<String> 	iterator = fIndex.keySet().iterator();
-				while ( iterator.hasNext() )
-				{
-					String					key = iterator.next();
-					CCDB2IndexEntry 		entry = fIndex.get(key);
-					if ( (entry != null) && (entry.TTLDelta > 0) )
-					{
-						long 		actualTTL = fCreationDate + entry.TTLDelta;
-						if ( now >= actualTTL )
-						{
-							++qty;
-							iterator.remove();
-							updateIndexSize(key, false);
-						}
-					}
-				}
+				qty = fIndex.removeExpired(fCreationDate, System.currentTimeMillis(), maxQty, new ExpiredKeyRemover());
 			}
 		}
 		finally
@@ -294,6 +398,50 @@ public class CCDB2Instance implements CCDB2UpdateIndexInterface
 		return qty;
 	}
 
+	/**
+	 * Utility - removes all keys whose TTL has passed. Same as {@link #expireOldKeys(int)} without a limit.
+	 *
+	 * @return qty purged
+	 */
+	public int 	removeOldKeysFromIndex()
+	{
+		return expireOldKeys(Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Utility - deletes the objects invalidated by group tombstones. Then, if the index file has accumulated
+	 * enough redundant entries, rewrite it as a compacted snapshot of the index followed by the log tail. This keeps
+	 * restart time and index disk usage proportional to the number of keys instead of the number of writes.
+	 *
+	 * @return true if the index file was compacted
+	 * @throws IOException errors
+	 */
+	public boolean compactIndexFile() throws IOException
+	{
+		updateUseCount(true);
+		try
+		{
+			if ( !fIsOpen.get() )
+			{
+				return false;
+			}
+
+			fGroupIndex.sweepTombstones(new DeadKeyRemover());
+
+			if ( fIndexFile.needsCompaction(fIndex.size()) )
+			{
+				fIndexFile.compact(fIndex, fGroupIndex);
+				return true;
+			}
+		}
+		finally
+		{
+			updateUseCount(false);
+		}
+
+		return false;
+	}
+
 	/**
 	 * Utility - removes the given key from the index only - the DB file isn't changed
 	 *
@@ -304,15 +452,15 @@ public class CCDB2Instance implements CCDB2UpdateIndexInterface
 		updateUseCount(true);
 		try
 		{
-			if ( !fIsOpen.get() )
+			if ( !fIsOpen.get() || !mightContain(key) )
 			{
 				return;
 			}
 
-			if ( fIndex.remove(key) != null )
-			{
-				updateIndexSize(key, false);
-			}
+			fIndex.remove(key);
+			fObjectCache.remove(key);
+			fGroupIndex.removeKey(key);
+			pruneSortedKey(key);
 		}
 		finally
 		{
@@ -331,25 +479,27 @@ public class CCDB2Instance implements CCDB2UpdateIndexInterface
 		updateUseCount(true);
 		try
 		{
-			if ( !fIsOpen.get() )
+			if ( !fIsOpen.get() || !mightContain(key) )
 			{
 				return;
 			}
 
-			CCDB2IndexEntry entry = fIndex.get(key);
+			CCDB2IndexEntry entry = fIndex.acquire(key);
 			if ( entry != null )
 			{
-				synchronized(entry)
+				try
 				{
-					if ( entry.address >= CCDB2IndexEntry.MINIMUM_ACTIVE_ADDRESS )
+					synchronized(entry)
 					{
-						deleteObject(entry.address);
+						deleteEntry(key, entry);
 					}
-					entry.address = CCDB2IndexEntry.NOT_EXISTS_ADDRESS;
-					entry.bytesRef = null;
-					entry.TTLDelta = 0;
+				}
+				finally
+				{
+					fIndex.release(key, entry);
 				}
 			}
+			fGroupIndex.removeKey(key);
 		}
 		finally
 		{
@@ -390,23 +540,50 @@ public class CCDB2Instance implements CCDB2UpdateIndexInterface
 			boolean 			addToIndexFile = false;
 			CCDB2IndexEntry 	newEntry = new CCDB2IndexEntry();
 			newEntry.address = CCDB2IndexEntry.NOT_EXISTS_ADDRESS;
-			newEntry.bytesRef = null;
 			newEntry.TTLDelta = (int)(spec.ttl - fCreationDate);
-			CCDB2IndexEntry 	entry = fIndex.putIfAbsent(key, newEntry);
+
+			// add to the filter first so that the key is never in the index without being in the filter
+			CCDB2KeyFilter 		keyFilter = fKeyFilter;
+			if ( keyFilter != null )
+			{
+				keyFilter.add(key);
+			}
+
+			CCDB2IndexEntry 	entry = fIndex.acquireOrAdd(key, newEntry);
 			if ( entry == null )
 			{
-				updateIndexSize(key, true);
 				entry = newEntry;
 				addToIndexFile = true;
+				fIndex.scheduleExpiration(key, newEntry.TTLDelta);
+				if ( fSortedKeys != null )
+				{
+					fSortedKeys.add(key);
+				}
 			}
-			synchronized(entry)
+			try
 			{
-				if ( entry.TTLDelta != newEntry.TTLDelta )
+				synchronized(entry)
 				{
-					entry.TTLDelta = newEntry.TTLDelta;
-					addToIndexFile = true;
+					if ( entry.TTLDelta != newEntry.TTLDelta )
+					{
+						entry.TTLDelta = newEntry.TTLDelta;
+						addToIndexFile = true;
+						fIndex.scheduleExpiration(key, newEntry.TTLDelta);
+					}
+
+					// a key invalidated by a group tombstone must get a new index entry even if the object hasn't changed
+					boolean 	isDead = fGroupIndex.isDead(key);
+
+					// while synchronized so that sweepTombstones() can't see the new object as dead. Before the put is
+					// queued so that the writer sees the put's generation and doesn't drop it as dead.
+					fGroupIndex.update(key, groupSpecs);
+
+					processPut(entry, key, spec, groupSpecs, addToIndexFile || isDead, isDead);
 				}
-				processPut(entry, key, spec, groupSpecs, addToIndexFile);
+			}
+			finally
+			{
+				fIndex.release(key, entry);
 			}
 		}
 		finally
@@ -414,8 +591,6 @@ public class CCDB2Instance implements CCDB2UpdateIndexInterface
 			updateUseCount(false);
 		}
 
-		updateGroupIndex(key, groupSpecs);
-
 		IOException 	exception = fPendingPutException.getAndSet(null);
 		if ( exception != null )
 		{
@@ -430,7 +605,7 @@ public class CCDB2Instance implements CCDB2UpdateIndexInterface
 	 */
 	public long getIndexSize()
 	{
-		return fIndexSize.get();
+		return fIndex.getIndexSize();
 	}
 
 	/**
@@ -440,7 +615,39 @@ public class CCDB2Instance implements CCDB2UpdateIndexInterface
 	 */
 	public long getGroupsIndexSize()
 	{
-		return fGroupsIndexSize.get();
+		return fGroupIndex.getSize();
+	}
+
+	/**
+	 * Returns the number of bytes in use in the DB file
+	 *
+	 * @return size
+	 */
+	public long getDatabaseSize()
+	{
+		CCDB2File 	file = fFile;
+		return (file != null) ? file.getLogicalSize() : 0;
+	}
+
+	/**
+	 * Returns the number of gets that had to read from the DB file
+	 *
+	 * @return qty
+	 */
+	public long getDiskGetQty()
+	{
+		return fFromDiskGetQty.get();
+	}
+
+	/**
+	 * Change the maximum number of bytes of object data this instance caches. The instance starts with
+	 * {@link CCDB2Driver#getObjectCacheSize()}. If the cache is now over budget, the least recently used objects are evicted.
+	 *
+	 * @param bytes new size. 0 means no caching
+	 */
+	public void setObjectCacheSize(long bytes)
+	{
+		fObjectCache.setMaxBytes(bytes);
 	}
 
 	/**
@@ -464,14 +671,18 @@ public class CCDB2Instance implements CCDB2UpdateIndexInterface
 		updateUseCount(true);
 		try
 		{
-			if ( fIsOpen.get() )
+			if ( fIsOpen.get() && mightContain(key) )
 			{
-				CCDB2IndexEntry 		entry = fIndex.get(key);
+				CCDB2IndexEntry 		entry = fIndex.acquire(key);
 				if ( entry != null )
 				{
-					synchronized(entry)
+					try
+					{
+						return (entry.address != CCDB2IndexEntry.NOT_EXISTS_ADDRESS) && !fGroupIndex.isDead(key);
+					}
+					finally
 					{
-						return entry.address != CCDB2IndexEntry.NOT_EXISTS_ADDRESS;
+						fIndex.release(key, entry);
 					}
 				}
 			}
@@ -484,6 +695,55 @@ public class CCDB2Instance implements CCDB2UpdateIndexInterface
 		return false;
 	}
 
+	/**
+	 * Returns true if the index has any entry for the given key - including an object that is still being written
+	 * or one that was removed from this instance
+	 *
+	 * @param key key to check
+	 * @return true/false
+	 */
+	public boolean	containsKey(String key)
+	{
+		updateUseCount(true);
+		try
+		{
+			if ( fIsOpen.get() && mightContain(key) )
+			{
+				CCDB2IndexEntry 		entry = fIndex.acquire(key);
+				if ( entry != null )
+				{
+					fIndex.release(key, entry);
+					return true;
+				}
+			}
+		}
+		finally
+		{
+			updateUseCount(false);
+		}
+
+		return false;
+	}
+
+	/**
+	 * Returns the groups the given key is in
+	 *
+	 * @param key key
+	 * @return groups or null
+	 */
+	public long[]	getGroupSpecs(String key)
+	{
+		updateUseCount(true);
+		try
+		{
+			return fIsOpen.get() ? fGroupIndex.getGroupSpecs(key) : null;
+		}
+		finally
+		{
+			updateUseCount(false);
+		}
+	}
+
 	/**
 	 * Returns the object associated with the given key.
 	 *
@@ -510,55 +770,30 @@ public class CCDB2Instance implements CCDB2UpdateIndexInterface
 				return activePendingPut.spec;
 			}
 
-			ChunkedByteArray		data = null;
+			if ( fGroupIndex.isDead(key) )
+			{
+				if ( wasDeleted != null )
+				{
+					wasDeleted.set(true);
+				}
+				return null;
+			}
+
+			if ( !mightContain(key) )
+			{
+				return null;
+			}
 
-			CCDB2IndexEntry 		entry = fIndex.get(key);
+			CCDB2IndexEntry 		entry = fIndex.acquire(key);
 			if ( entry != null )
 			{
-				synchronized(entry)
+				try
 				{
-					if ( entry.address == CCDB2IndexEntry.NOT_EXISTS_ADDRESS )
-					{
-						if ( wasDeleted != null )
-						{
-							wasDeleted.set(true);
-						}
-					}
-					else
-					{
-						data = (entry.bytesRef != null) ? entry.bytesRef.get() : null;
-						if ( data == null )
-						{
-							if ( entry.address >= CCDB2IndexEntry.MINIMUM_ACTIVE_ADDRESS )
-							{
-								data = readObject(entry.address);
-								if ( data == null )
-								{
-									if ( wasDeleted != null )
-									{
-										wasDeleted.set(true);
-									}
-									entry.address = CCDB2IndexEntry.NOT_EXISTS_ADDRESS;
-								}
-								else
-								{
-									data.lock();
-									entry.bytesRef = new SoftReference<ChunkedByteArray>(data);
-
-									fFromDiskGetQty.incrementAndGet();
-								}
-							}
-						}
-						else
-						{
-							fInMemoryGetQty.incrementAndGet();
-						}
-					}
+					spec = getEntryData(key, entry, wasDeleted);
 				}
-
-				if ( data != null )
+				finally
 				{
-					spec = new CCDB2DataSpec(data, entry.TTLDelta + fCreationDate);
+					fIndex.release(key, entry);
 				}
 			}
 		}
@@ -571,27 +806,178 @@ public class CCDB2Instance implements CCDB2UpdateIndexInterface
 	}
 
 	/**
-	 * Close and delete the instance
+	 * Returns the object associated with the given key if that doesn't require reading the DB file - i.e. the object
+	 * is pending or in the object cache. If this instance has the key but its object isn't in memory (or the key is
+	 * dead), needsRead is set to true and {@link #get(String, AtomicReference)} must be used.
 	 *
-	 * @throws IOException errors
+	 * @param key key for the object
+	 * @param needsRead set to true if the object must be read via get()
+	 * @return the object/ttl or null
 	 */
-	public void		delete() throws IOException
+	public CCDB2DataSpec getFromMemory(String key, AtomicReference<Boolean> needsRead)
 	{
-		close(new AtomicInteger());
-
-		if ( fFilePath != null )
+		updateUseCount(true);
+		try
 		{
-			if ( fIndexFile != null )
+			if ( !fIsOpen.get() )
 			{
-				fIndexFile.close();
-				if ( fIndexFile.getFilePath().exists() && !fIndexFile.getFilePath().delete() )
-				{
-					throw new IOException("Could not delete: " + fIndexFile.getFilePath().getPath());
-				}
-				fIndexFile = null;
+				return null;
 			}
 
-			if ( !(new File(fFilePath)).delete() )
+			ActivePendingPut 		activePendingPut = fActivePendingPut.get();
+			if ( (activePendingPut != null) && activePendingPut.key.equals(key) )
+			{
+				return activePendingPut.spec;
+			}
+
+			if ( fGroupIndex.isDead(key) )
+			{
+				needsRead.set(true);	// get() handles the removal
+				return null;
+			}
+
+			if ( !mightContain(key) )
+			{
+				return null;
+			}
+
+			CCDB2IndexEntry 		entry = fIndex.acquire(key);
+			if ( entry == null )
+			{
+				return null;
+			}
+
+			try
+			{
+				long 				address = entry.address;
+				ChunkedByteArray 	data = entry.pendingData;
+				int 				TTLDelta = entry.TTLDelta;
+				if ( (data == null) && (address != CCDB2IndexEntry.NOT_EXISTS_ADDRESS) )
+				{
+					data = fObjectCache.get(key);
+				}
+				if ( (data != null) && (address != CCDB2IndexEntry.NOT_EXISTS_ADDRESS) )
+				{
+					fInMemoryGetQty.incrementAndGet();
+					return new CCDB2DataSpec(data, TTLDelta + fCreationDate);
+				}
+			}
+			finally
+			{
+				fIndex.release(key, entry);
+			}
+
+			needsRead.set(true);
+			return null;
+		}
+		finally
+		{
+			updateUseCount(false);
+		}
+	}
+
+	/**
+	 * Returns the location of the given key's object in the DB file so that it can be sent without being read into the heap.
+	 * Only uncompressed objects of at least minimumSize bytes that have been written and aren't in the object cache are returned - otherwise null
+	 * is returned and {@link #get(String, AtomicReference)} should be used. The region must be released via {@link CCDB2ObjectRegion#release()}.
+	 *
+	 * @param key key for the object
+	 * @param minimumSize minimum object size in bytes
+	 * @return the region or null
+	 * @throws IOException errors
+	 */
+	public CCDB2ObjectRegion getObjectRegion(String key, int minimumSize) throws IOException
+	{
+		CCDB2IndexEntry 		entry = null;
+		CCDB2ObjectRegion 		region = null;
+
+		updateUseCount(true);
+		try
+		{
+			if ( !fIsOpen.get() || !mightContain(key) || fGroupIndex.isDead(key) || (fObjectCache.peek(key) != null) )
+			{
+				return null;
+			}
+
+			ActivePendingPut 		activePendingPut = fActivePendingPut.get();
+			if ( (activePendingPut != null) && activePendingPut.key.equals(key) )
+			{
+				return null;
+			}
+
+			entry = fIndex.acquire(key);
+			if ( entry == null )
+			{
+				return null;
+			}
+
+			int 		version = entry.version;
+			long 		address = entry.address;
+			int 		TTLDelta = entry.TTLDelta;
+			if ( (address < CCDB2IndexEntry.MINIMUM_ACTIVE_ADDRESS) || (entry.pendingData != null) )
+			{
+				return null;
+			}
+
+			CCDB2Record 	record = CCDB2Record.existingRecord(fFile, fChecksum, address);
+			try
+			{
+				record.load(fDriver, CCDB2Record.LoadMode.KEY_ONLY);
+			}
+			catch ( IOException e )
+			{
+				if ( entry.version != version )
+				{
+					return null;	// the record was rewritten/reused while being read
+				}
+				throw e;
+			}
+			if ( record.isAtDeadByte() || record.isDeletedRecord() || record.isCompressed() || !key.equals(record.getKey()) || (record.getObjectSize() < minimumSize) || (entry.version != version) )
+			{
+				return null;
+			}
+
+			region = new CCDB2ObjectRegion(this, key, entry, version, record.getObjectAddress(), record.getObjectSize(), TTLDelta + fCreationDate);
+			fRegionGetQty.incrementAndGet();
+			return region;
+		}
+		finally
+		{
+			if ( region == null )
+			{
+				if ( entry != null )
+				{
+					fIndex.release(key, entry);
+				}
+				updateUseCount(false);
+			}
+		}
+	}
+
+	/**
+	 * Close and delete the instance
+	 *
+	 * @throws IOException errors
+	 */
+	public void		delete() throws IOException
+	{
+		close(new AtomicInteger());
+
+		if ( fFilePath != null )
+		{
+			if ( fIndexFile != null )
+			{
+				fIndexFile.close();
+				if ( fIndexFile.getFilePath().exists() && !fIndexFile.getFilePath().delete() )
+				{
+					throw new IOException("Could not delete: " + fIndexFile.getFilePath().getPath());
+				}
+				fIndexFile = null;
+			}
+
+			fHotKeyFile.delete();
+
+			if ( !(new File(fFilePath)).delete() )
 			{
 				throw new IOException("Could not delete: " + fFilePath);
 			}
@@ -609,7 +995,7 @@ public class CCDB2Instance implements CCDB2UpdateIndexInterface
 	{
 		if ( fIsOpen.getAndSet(false) && (fFile != null) )
 		{
-			waitForNoUsers();
+			boolean 	hasNoUsers = waitForNoUsers();
 
 			if ( fPendingPutQueueThread != null )
 			{
@@ -625,6 +1011,24 @@ public class CCDB2Instance implements CCDB2UpdateIndexInterface
 				}
 			}
 
+			try
+			{
+				writeHotKeys();
+			}
+			catch ( IOException e )
+			{
+				fDriver.handleException(e);	// the hot keys are only a hint - don't fail the close
+			}
+
+			// everything is on disk before the file is marked as closed cleanly - otherwise the next open recovers the file
+			fIndexFile.force();
+			fFile.force();
+			writeCloseState(CLOSE_STATE_CLEAN);
+
+			if ( hasNoUsers )
+			{
+				fFile.unmap();	// otherwise, a user could still be reading a mapped segment - leave it to the VM
+			}
 			fFile.close();
 			fIndexFile.close();
 		}
@@ -632,231 +1036,897 @@ public class CCDB2Instance implements CCDB2UpdateIndexInterface
 	}
 
 	/**
-	 * Dump diagnostics to the given stream
+	 * Dump diagnostics to the given stream
+	 *
+	 * @param out the stream
+	 */
+	public void dumpStats(PrintStream out)
+	{
+		updateUseCount(true);
+		try
+		{
+			if ( !fIsOpen.get() )
+			{
+				return;
+			}
+
+			long 	inMemoryCount = fInMemoryGetQty.get();
+			long 	fromDiskCount = fFromDiskGetQty.get();
+			long	pendingPutQueueOverflowQty = fPendingPutQueueOverflowQty.get();
+			long 	totalAccessCount = Math.max(inMemoryCount + fromDiskCount, 1);
+
+			out.println(getDatabaseName());
+			out.println("\tCreated:        " + new Date(fCreationDate));
+			out.println("\tCRCs:           " + fChecksum);
+			out.println("\tLogical Size:   " + ((fFile != null) ? fFile.getLogicalSize() : -1));
+			out.println("\tActual Size:    " + ((fFile != null) ? fFile.getActualSize() : -1));
+			out.println("\tMapped Size:    " + ((fFile != null) ? fFile.getMappedSize() : -1));
+			out.println("\tObject Qty:     " + fIndex.size());
+			out.println("\tIndex Size:     " + fIndex.getIndexSize() + " bytes (approx)");
+			out.println("\tGroups Size:    " + fGroupIndex.getSize() + " bytes (approx)");
+			out.println("\tExpirations:    " + fIndex.getExpirationBucketQty() + " buckets");
+			out.println("\tTombstones:     " + fGroupIndex.getTombstoneQty());
+			CCDB2KeyFilter 		keyFilter = fKeyFilter;
+			if ( keyFilter != null )
+			{
+				out.println("\tKey Filter:     " + keyFilter.getSize() + " bytes for " + keyFilter.getAddQty() + " keys");
+				out.println("\tFilter Skips:   " + fKeyFilterSkipQty.get());
+			}
+			out.println("\tMemory Gets:    " + inMemoryCount);
+			out.println("\tDisk Gets:      " + fromDiskCount);
+			out.println("\tRegion Gets:    " + fRegionGetQty.get());
+			out.println("\tCompressed:     " + fCompressedPutQty.get() + " puts saving " + fCompressionSavedBytes.get() + " bytes");
+			out.println("\tMem v Disk:     " + ((inMemoryCount * 100) / totalAccessCount) + "%");
+			out.println("\tPut Overflows:  " + pendingPutQueueOverflowQty);
+			out.println("\tCache:          " + fObjectCache.getSize() + " bytes in " + fObjectCache.getQty() + " objects");
+			out.println("\tCache Hits:     " + fObjectCache.getHitQty());
+			out.println("\tCache Misses:   " + fObjectCache.getMissQty());
+			out.println("\tCache Evicts:   " + fObjectCache.getEvictionQty());
+			out.println("\tWarmed Up:      " + fWarmedQty.get());
+			out.println("\tFree Space:     " + fFreeSpace.getFreeBytes() + " bytes in " + fFreeSpace.getFreeQty() + " records");
+			out.println("\tReused Space:   " + fFreeSpace.getReusedBytes() + " bytes in " + fFreeSpace.getReusedQty() + " records");
+		}
+		finally
+		{
+			updateUseCount(false);
+		}
+	}
+
+	/**
+	 * Add keys that match the given pattern to the given set. If the pattern starts with a literal prefix and the
+	 * sorted key index is enabled, only the keys with that prefix are examined. Otherwise, the index is scanned
+	 * in parallel.
+	 *
+	 * @param p pattern
+	 * @param keys set to add to - must be thread safe
+	 */
+	public void regexFindKeys(final Pattern p, final Set<String> keys)
+	{
+		updateUseCount(true);
+		try
+		{
+			if ( !fIsOpen.get() )
+			{
+				return;
+			}
+
+			final String 		prefix = getLiteralPrefix(p);
+			if ( (fSortedKeys != null) && (prefix.length() > 0) )
+			{
+				for ( String key : fSortedKeys.tailSet(prefix) )
+				{
+					if ( !key.startsWith(prefix) )
+					{
+						break;
+					}
+
+					if ( p.matcher(key).matches() && !fGroupIndex.isDead(key) )
+					{
+						if ( isIndexedKey(key) )
+						{
+							keys.add(key);
+						}
+						else
+						{
+							pruneSortedKey(key);
+						}
+					}
+				}
+				return;
+			}
+
+			fIndex.visitEntriesInParallel(KEY_SCAN_POOL, new CCDB2Index.EntryVisitor()
+			{
+				@Override
+				public void visit(String key, long address, int TTLDelta)
+				{
+					if ( (address != CCDB2IndexEntry.NOT_EXISTS_ADDRESS) && key.startsWith(prefix) && p.matcher(key).matches() && !fGroupIndex.isDead(key) )
+					{
+						keys.add(key);
+					}
+				}
+			});
+		}
+		finally
+		{
+			updateUseCount(false);
+		}
+	}
+
+	/**
+	 * Returns the literal characters that every match of the pattern must start with - e.g. "product:123:" for
+	 * "product:123:.*". Returns "" if there's no such prefix or the pattern is too complicated to tell.
+	 *
+	 * @param p pattern
+	 * @return prefix or ""
+	 */
+	static String getLiteralPrefix(Pattern p)
+	{
+		String 			regex = p.pattern();
+		if ( (p.flags() != 0) || (regex.indexOf('|') >= 0) )
+		{
+			return "";
+		}
+
+		StringBuilder 	prefix = new StringBuilder();
+		int 			lastAtomStart = 0;
+		int 			i = 0;
+		while ( i < regex.length() )
+		{
+			char 		c = regex.charAt(i);
+			if ( c == '\\' )
+			{
+				if ( ((i + 1) >= regex.length()) || Character.isLetterOrDigit(regex.charAt(i + 1)) )
+				{
+					break;	// character class, quote, back reference, etc.
+				}
+				lastAtomStart = prefix.length();
+				prefix.append(regex.charAt(i + 1));
+				i += 2;
+			}
+			else if ( REGEX_META_CHARACTERS.indexOf(c) >= 0 )
+			{
+				if ( (c == '*') || (c == '?') || (c == '{') )
+				{
+					prefix.setLength(lastAtomStart);	// the preceding character is optional
+				}
+				break;
+			}
+			else
+			{
+				lastAtomStart = prefix.length();
+				prefix.append(c);
+				++i;
+			}
+		}
+		return prefix.toString();
+	}
+
+	private void processPut(CCDB2IndexEntry entry, String key, CCDB2DataSpec spec, long[] groupSpecs, boolean addToIndexFile, boolean ignorePrevious) throws IOException
+	{
+		ChunkedByteArray 		previous = ignorePrevious ? null : ((entry.pendingData != null) ? entry.pendingData : fObjectCache.peek(key));
+		PendingPutRecord		pendingPut = new PendingPutRecord(key, previous, entry, spec, groupSpecs, addToIndexFile);
+
+		// gets are served from the pending data until it's written and then from the cache
+		entry.pendingData = spec.data;
+		++entry.version;
+		fObjectCache.remove(key);
+		if ( fPendingPutQueue != null )
+		{
+			removeQueuedPendingPut(key);
+
+			fIndex.retain(key, entry);	// the queued put holds a use of the entry until it's written
+			if ( fPendingPutQueue.offer(pendingPut) )
+			{
+				pendingPut = null;
+			}
+			else
+			{
+				fIndex.release(key, entry);
+				fPendingPutQueueOverflowQty.incrementAndGet();
+			}
+		}
+
+		if ( pendingPut != null )
+		{
+			try
+			{
+				processPendingPut(pendingPut);
+			}
+			finally
+			{
+				finishPendingPut(pendingPut);
+			}
+		}
+	}
+
+	private void removeQueuedPendingPut(String key)
+	{
+		Iterator<PendingPutRecord> 	iterator = fPendingPutQueue.iterator();
+		while ( iterator.hasNext() )
+		{
+			PendingPutRecord 	put = iterator.next();
+			if ( put.key.equals(key) )
+			{
+				iterator.remove();
+				put.releaseEntry(fIndex);
+				break;
+			}
+		}
+	}
+
+	private void processPendingPut(PendingPutRecord put) throws IOException
+	{
+		if ( fGroupIndex.isDead(put.key) )
+		{
+			new DeadKeyRemover().removeDeadKey(put.key);	// removed by a group tombstone - don't write it
+			return;
+		}
+
+		fActivePendingPut.set(new ActivePendingPut(put.key, put.spec));
+		try
+		{
+			PendingWriteType 	writeType = prepareWrite(put);
+			if ( writeType == PendingWriteType.NEW_RECORD )
+			{
+				put.entry.address = writeObject(put.key, put.spec.data, put.groupSpecs);
+				++put.entry.version;
+				writeType = PendingWriteType.INDEX_ONLY;
+			}
+
+			if ( writeType == PendingWriteType.INDEX_ONLY )
+			{
+				List<CCDB2IndexFile.NewEntry> 	indexEntries = new ArrayList<CCDB2IndexFile.NewEntry>();
+				indexEntries.add(new CCDB2IndexFile.NewEntry(put.key, put.entry.address, put.entry.TTLDelta, put.groupSpecs));
+				addIndexEntries(indexEntries);
+			}
+		}
+		finally
+		{
+			fActivePendingPut.set(null);
+		}
+	}
+
+	/**
+	 * Write a batch of pending puts. Puts that can overwrite their existing record are written in place. All other puts
+	 * get new records which are allocated as one contiguous region and written with a single write. The matching index
+	 * entries are then written with a single write as well. Puts whose key has been removed by a group tombstone
+	 * are dropped.
+	 *
+	 * @param batch puts to write
+	 * @throws IOException errors
+	 */
+	private void processPendingPutBatch(List<PendingPutRecord> batch) throws IOException
+	{
+		List<CCDB2IndexFile.NewEntry> 	indexEntries = new ArrayList<CCDB2IndexFile.NewEntry>();
+		List<PendingPutRecord> 			newRecordPuts = new ArrayList<PendingPutRecord>();
+		List<CCDB2Record> 				newRecords = new ArrayList<CCDB2Record>();
+		int 							newRecordsSize = 0;
+		for ( PendingPutRecord put : batch )
+		{
+			if ( !isCurrentPendingPut(put) )
+			{
+				continue;
+			}
+
+			synchronized(put.entry)
+			{
+				if ( fGroupIndex.isDead(put.key) )
+				{
+					new DeadKeyRemover().removeDeadKey(put.key);
+					continue;
+				}
+
+				fActivePendingPut.set(new ActivePendingPut(put.key, put.spec));
+				try
+				{
+					switch ( prepareWrite(put) )
+					{
+						case INDEX_ONLY:
+						{
+							indexEntries.add(new CCDB2IndexFile.NewEntry(put.key, put.entry.address, put.entry.TTLDelta, put.groupSpecs));
+							break;
+						}
+
+						case NEW_RECORD:
+						{
+							CCDB2Record 	record = CCDB2Record.unallocatedRecord(fFile, fChecksum, put.key, put.spec.data, put.groupSpecs, fDriver.getCompressionThreshold());
+							updateCompressionStats(record, put.spec.data);
+							if ( writeToFreeSpace(record) )
+							{
+								put.entry.address = record.getAddress();
+								++put.entry.version;
+								indexEntries.add(new CCDB2IndexFile.NewEntry(put.key, put.entry.address, put.entry.TTLDelta, put.groupSpecs));
+								break;
+							}
+
+							if ( (newRecords.size() > 0) && ((newRecordsSize + record.getRecordSize()) > MAX_PENDING_PUT_BATCH_BYTES) )
+							{
+								writeNewRecords(newRecordPuts, newRecords, indexEntries);
+								newRecordsSize = 0;
+							}
+							newRecordPuts.add(put);
+							newRecords.add(record);
+							newRecordsSize += record.getRecordSize();
+							break;
+						}
+
+						default:
+						{
+							break;
+						}
+					}
+				}
+				finally
+				{
+					fActivePendingPut.set(null);
+				}
+			}
+		}
+
+		writeNewRecords(newRecordPuts, newRecords, indexEntries);
+		addIndexEntries(indexEntries);
+	}
+
+	/**
+	 * Append the index entries of written puts. When the index is loaded, a group tombstone only kills the entries
+	 * before it in the file. So, an entry whose key has been killed by a tombstone since its put was written must not
+	 * be appended (the key would come back after a restart) - the key's record is deleted instead. Tombstones are
+	 * added while holding the write lock so that one can't be added between the check and the append.
+	 *
+	 * @param indexEntries entries to append - the dropped entries are removed from the list
+	 * @throws IOException errors
+	 */
+	private void addIndexEntries(List<CCDB2IndexFile.NewEntry> indexEntries) throws IOException
+	{
+		List<String> 	deadKeys = new ArrayList<String>();
+		fTombstoneLock.readLock().lock();
+		try
+		{
+			Iterator<CCDB2IndexFile.NewEntry> 	iterator = indexEntries.iterator();
+			while ( iterator.hasNext() )
+			{
+				CCDB2IndexFile.NewEntry 	entry = iterator.next();
+				if ( fGroupIndex.isDead(entry.key) )
+				{
+					deadKeys.add(entry.key);
+					iterator.remove();
+				}
+			}
+			fIndexFile.addNewEntries(indexEntries);
+		}
+		finally
+		{
+			fTombstoneLock.readLock().unlock();
+		}
+
+		// not while holding the lock - removing a key locks its entry and puts lock their entry before the lock
+		DeadKeyRemover 	remover = new DeadKeyRemover();
+		for ( String key : deadKeys )
+		{
+			remover.removeDeadKey(key);
+		}
+	}
+
+	private void finishPendingPutBatch(List<PendingPutRecord> batch)
+	{
+		for ( PendingPutRecord put : batch )
+		{
+			finishPendingPut(put);
+			put.releaseEntry(fIndex);
+		}
+	}
+
+	/**
+	 * Once a put has been written, its data moves from the entry to the object cache
+	 *
+	 * @param put the put
+	 */
+	private void finishPendingPut(PendingPutRecord put)
+	{
+		synchronized(put.entry)
+		{
+			if ( put.entry.pendingData == put.spec.data )
+			{
+				put.entry.pendingData = null;
+				++put.entry.version;
+				if ( put.entry.address >= CCDB2IndexEntry.MINIMUM_ACTIVE_ADDRESS )
+				{
+					fObjectCache.put(put.key, put.spec.data);
+				}
+			}
+		}
+	}
+
+	private void writeNewRecords(List<PendingPutRecord> puts, List<CCDB2Record> records, List<CCDB2IndexFile.NewEntry> indexEntries) throws IOException
+	{
+		if ( records.size() == 0 )
+		{
+			return;
+		}
+
+		CCDB2Record.writeNewRecords(fFile, records);
+		for ( int i = 0; i < puts.size(); ++i )
+		{
+			PendingPutRecord 	put = puts.get(i);
+			CCDB2Record 		record = records.get(i);
+			synchronized(put.entry)
+			{
+				if ( put.entry.address == CCDB2IndexEntry.PENDING_PUT_ADDRESS )
+				{
+					put.entry.address = record.getAddress();
+					++put.entry.version;
+					indexEntries.add(new CCDB2IndexFile.NewEntry(put.key, put.entry.address, put.entry.TTLDelta, put.groupSpecs));
+				}
+				else
+				{
+					// the key was removed while the batch was being written
+					record.markDeleted();
+					fFreeSpace.add(record.getAddress(), record.getRecordSize());
+				}
+			}
+		}
+
+		puts.clear();
+		records.clear();
+	}
+
+	/**
+	 * Determine how a pending put should be written. If the put can overwrite the existing record, it's done here.
+	 * MUST be called while synchronized on the put's entry.
+	 *
+	 * @param put the put
+	 * @return what remains to be written
+	 * @throws IOException errors
+	 */
+	private PendingWriteType prepareWrite(PendingPutRecord put) throws IOException
+	{
+		if ( (put.entry.address >= CCDB2IndexEntry.MINIMUM_ACTIVE_ADDRESS) && (put.previousBytesRef != null) )
+		{
+			// as an object becomes stale, multiple app servers are likely to write the same object
+			// at the same time. Ignore duplicates.
+			if ( put.previousBytesRef.equals(put.spec.data) )
+			{
+				return PendingWriteType.NONE;
+			}
+		}
+
+		boolean			localAddToIndexFile = put.addToIndexFile;
+		if ( put.entry.address >= CCDB2IndexEntry.MINIMUM_ACTIVE_ADDRESS )
+		{
+			CCDB2Record 	record = CCDB2Record.existingRecord(fFile, fChecksum, put.entry.address);
+			if ( !loadRecordOfKey(record, put.key) )
+			{
+				// the space was reused by another key - leave that key's record alone
+				put.entry.address = CCDB2IndexEntry.PENDING_PUT_ADDRESS;
+				++put.entry.version;
+				return PendingWriteType.NEW_RECORD;
+			}
+			if ( (record.getObjectSize() >= put.spec.data.size()) && (record.getGroupSpecQty() >= put.groupSpecs.length) )
+			{
+				record.writeRecord(put.key, put.spec.data, put.groupSpecs, fDriver.getCompressionThreshold());
+				updateCompressionStats(record, put.spec.data);
+				if ( record.getGroupSpecQty() > 0 )
+				{
+					localAddToIndexFile = true;	// can't take chance that the group specs haven't changed
+				}
+				return localAddToIndexFile ? PendingWriteType.INDEX_ONLY : PendingWriteType.NONE;
+			}
+
+			// can't be overwritten - reclaim the old record's space
+			record.markDeleted();
+			fFreeSpace.add(put.entry.address, record.getRecordSize());
+			put.entry.address = CCDB2IndexEntry.PENDING_PUT_ADDRESS;
+			++put.entry.version;
+		}
+
+		return PendingWriteType.NEW_RECORD;
+	}
+
+	private boolean isCurrentPendingPut(PendingPutRecord put)
+	{
+		// otherwise another value was set for the key or the key was removed
+		CCDB2IndexEntry 	currentEntry = fIndex.acquire(put.key);
+		if ( currentEntry == null )
+		{
+			return false;
+		}
+
+		try
+		{
+			return (currentEntry.address != CCDB2IndexEntry.NOT_EXISTS_ADDRESS) && (currentEntry == put.entry);
+		}
+		finally
+		{
+			fIndex.release(put.key, currentEntry);
+		}
+	}
+
+	/**
+	 * Read the object for an acquired entry. The entry's monitor is not held during disk I/O - a snapshot of the entry
+	 * is used instead. If the entry changes while its record is being read, the read is retried with the new snapshot.
+	 *
+	 * @param key key
+	 * @param entry acquired entry
+	 * @param wasDeleted if the object was deleted, this is set to true (can be null)
+	 * @return the object/ttl or null
+	 * @throws IOException errors
+	 */
+	private CCDB2DataSpec getEntryData(String key, CCDB2IndexEntry entry, AtomicReference<Boolean> wasDeleted) throws IOException
+	{
+		for(;;)
+		{
+			int 				version = entry.version;
+			long 				address = entry.address;
+			ChunkedByteArray 	data = entry.pendingData;
+			int 				TTLDelta = entry.TTLDelta;
+
+			if ( address == CCDB2IndexEntry.NOT_EXISTS_ADDRESS )
+			{
+				if ( wasDeleted != null )
+				{
+					wasDeleted.set(true);
+				}
+				return null;
+			}
+
+			if ( data == null )
+			{
+				data = fObjectCache.get(key);
+			}
+			if ( data != null )
+			{
+				fInMemoryGetQty.incrementAndGet();
+				return new CCDB2DataSpec(data, TTLDelta + fCreationDate);
+			}
+
+			if ( address < CCDB2IndexEntry.MINIMUM_ACTIVE_ADDRESS )
+			{
+				return null;
+			}
+
+			try
+			{
+				data = readObject(key, address);
+			}
+			catch ( IOException e )
+			{
+				if ( entry.version != version )
+				{
+					continue;	// the record was rewritten/reused while being read
+				}
+				throw e;
+			}
+
+			synchronized(entry)
+			{
+				if ( entry.version != version )
+				{
+					continue;
+				}
+
+				if ( data == null )
+				{
+					if ( wasDeleted != null )
+					{
+						wasDeleted.set(true);
+					}
+					entry.address = CCDB2IndexEntry.NOT_EXISTS_ADDRESS;
+					++entry.version;
+					return null;
+				}
+
+				// only cached if the entry hasn't changed - otherwise this could replace newer data
+				data.lock();
+				fObjectCache.put(key, data);
+			}
+
+			fFromDiskGetQty.incrementAndGet();
+			return new CCDB2DataSpec(data, TTLDelta + fCreationDate);
+		}
+	}
+
+	/**
+	 * Wait for current users to finish. Users check fIsOpen after counting themselves so, once the instance is marked
+	 * closed, the count can only go down.
+	 *
+	 * @return true if the users finished, false if the wait was interrupted
+	 */
+	private boolean waitForNoUsers()
+	{
+		long 		lastLogTicks = 0;
+		long 		count;
+		while ( (count = fUseCounter.get()) > 0 )
+		{
+			long 		now = System.currentTimeMillis();
+			if ( (now - lastLogTicks) >= WAIT_FOR_USERS_LOG_TICKS )
+			{
+				fDriver.log("Waiting on " + count + " threads...", null, true);
+				lastLogTicks = now;
+			}
+
+			try
+			{
+				Thread.sleep(WAIT_FOR_USERS_SLEEP_TICKS);
+			}
+			catch ( InterruptedException dummy )
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * MUST be called while synchronized on the entry
 	 *
-	 * @param out the stream
+	 * @param key key
+	 * @param entry the key's entry
+	 * @throws IOException errors
 	 */
-	public void dumpStats(PrintStream out)
+	private void deleteEntry(String key, CCDB2IndexEntry entry) throws IOException
 	{
-		updateUseCount(true);
-		try
+		if ( entry.address >= CCDB2IndexEntry.MINIMUM_ACTIVE_ADDRESS )
 		{
-			if ( !fIsOpen.get() )
-			{
-				return;
-			}
+			deleteObject(key, entry.address);
+		}
+		entry.address = CCDB2IndexEntry.NOT_EXISTS_ADDRESS;
+		entry.pendingData = null;
+		entry.TTLDelta = 0;
+		++entry.version;
+		fObjectCache.remove(key);
+	}
 
-			long 	inMemoryCount = fInMemoryGetQty.get();
-			long 	fromDiskCount = fFromDiskGetQty.get();
-			long	pendingPutQueueOverflowQty = fPendingPutQueueOverflowQty.get();
-			long 	totalAccessCount = Math.max(inMemoryCount + fromDiskCount, 1);
+	void transferRegion(long address, int length, WritableByteChannel channel) throws IOException
+	{
+		fFile.transferTo(address, length, channel);
+	}
 
-			out.println(getDatabaseName());
-			out.println("\tCreated:        " + new Date(fCreationDate));
-			out.println("\tCRCs:           " + (fUseCRCs ? "on" : "off"));
-			out.println("\tLogical Size:   " + ((fFile != null) ? fFile.getLogicalSize() : -1));
-			out.println("\tActual Size:    " + ((fFile != null) ? fFile.getActualSize() : -1));
-			out.println("\tFile Pool Size: " + ((fFile != null) ? fFile.getFilePoolSize() : -1));
-			out.println("\tObject Qty:     " + fIndex.size());
-			out.println("\tIndex Size:     " + fIndexSize.get() + " bytes (approx)");
-			out.println("\tGroups Size:    " + fGroupsIndexSize.get() + " bytes (approx)");
-			out.println("\tMemory Gets:    " + inMemoryCount);
-			out.println("\tDisk Gets:      " + fromDiskCount);
-			out.println("\tMem v Disk:     " + ((inMemoryCount * 100) / totalAccessCount) + "%");
-			out.println("\tPut Overflows:  " + pendingPutQueueOverflowQty);
-		}
-		finally
+	boolean isRegionValid(CCDB2IndexEntry entry, int version)
+	{
+		return fIsOpen.get() && (entry.version == version);
+	}
+
+	void releaseRegion(String key, CCDB2IndexEntry entry)
+	{
+		fIndex.release(key, entry);
+		updateUseCount(false);
+	}
+
+	private void writeHotKeys() throws IOException
+	{
+		if ( (fDriver.getHotKeyQty() > 0) && (fDriver.getObjectCacheSize() > 0) )
 		{
-			updateUseCount(false);
+			fHotKeyFile.write(fObjectCache.getHotKeys(fDriver.getHotKeyQty()));
 		}
 	}
 
 	/**
-	 * Find keys that match the given regular expression
+	 * Read a hot record into the object cache
 	 *
-	 * @param p regular expression
-	 * @param keys set to update with found keys
+	 * @param record the record
+	 * @return false if the instance has been closed
 	 */
-	public void regexFindKeys(Pattern p, Set<String> keys)
+	private boolean warmUpRecord(HotRecord record)
 	{
 		updateUseCount(true);
 		try
 		{
 			if ( !fIsOpen.get() )
 			{
-				return;
+				return false;
 			}
 
-			for ( String thisKey : fIndex.keySet() )
+			CCDB2IndexEntry 	entry = fIndex.acquire(record.key);
+			if ( entry == null )
+			{
+				return true;
+			}
+
+			try
 			{
-				if ( p.matcher(thisKey).matches() )
+				int 		version = entry.version;
+				if ( (entry.address != record.address) || (entry.pendingData != null) || (fObjectCache.peek(record.key) != null) )
+				{
+					return true;	// changed or already in memory
+				}
+
+				ChunkedByteArray 	data;
+				try
+				{
+					data = readObject(record.key, record.address);
+				}
+				catch ( IOException dummy )
+				{
+					return true;	// best effort - a bad record will be reported when it's read via get()
+				}
+
+				synchronized(entry)
 				{
-					keys.add(thisKey);
+					if ( (data != null) && (entry.version == version) )
+					{
+						data.lock();
+						if ( fObjectCache.warm(record.key, data) )
+						{
+							fWarmedQty.incrementAndGet();
+						}
+					}
 				}
 			}
+			finally
+			{
+				fIndex.release(record.key, entry);
+			}
 		}
 		finally
 		{
 			updateUseCount(false);
 		}
+		return true;
 	}
 
-	@Override
-	public void 	updateIndexSize(String key, boolean add)
+	private boolean mightContain(String key)
 	{
-		int 		size = key.length() + CCDB2IndexEntry.INDEX_BASE_SIZE;
-		if ( !add )
+		CCDB2KeyFilter 		keyFilter = fKeyFilter;
+		if ( (keyFilter != null) && !keyFilter.mightContain(key) )
 		{
-			size *= -1;
+			fKeyFilterSkipQty.incrementAndGet();
+			return false;
 		}
-		fIndexSize.addAndGet(size);
+		return true;
 	}
 
-	private void processPut(CCDB2IndexEntry entry, String key, CCDB2DataSpec spec, long[] groupSpecs, boolean addToIndexFile) throws IOException
+	private boolean isIndexedKey(String key)
 	{
-		ChunkedByteArray 		previous = (entry.bytesRef != null) ? entry.bytesRef.get() : null;
-		PendingPutRecord		pendingPut = new PendingPutRecord(key, previous, entry, spec, groupSpecs, addToIndexFile);
-
-		// though this is a SoftReference, a hard reference is held by spec.data in the pending record until it's actually written
-		entry.bytesRef = new SoftReference<ChunkedByteArray>(spec.data);
-		if ( fPendingPutQueue != null )
+		CCDB2IndexEntry 	entry = fIndex.acquire(key);
+		if ( entry == null )
 		{
-			fPendingPutQueue.remove(pendingPut);
-			if ( fPendingPutQueue.offer(pendingPut) )
-			{
-				pendingPut = null;
-			}
+			return false;
 		}
-
-		if ( pendingPut != null )
+		try
 		{
-			processPendingPut(pendingPut);
+			return entry.address != CCDB2IndexEntry.NOT_EXISTS_ADDRESS;
+		}
+		finally
+		{
+			fIndex.release(key, entry);
 		}
 	}
 
-	private void processPendingPut(PendingPutRecord put) throws IOException
+	private void pruneSortedKey(String key)
 	{
-		boolean 		needsUpdating = true;
-		boolean			localAddToIndexFile = put.addToIndexFile;
-
-		fActivePendingPut.set(new ActivePendingPut(put.key, put.spec));
-		try
+		if ( fSortedKeys != null )
 		{
-			if ( (put.entry.address >= CCDB2IndexEntry.MINIMUM_ACTIVE_ADDRESS) && (put.previousBytesRef != null) )
-			{
-				// as an object becomes stale, multiple app servers are likely to write the same object
-				// at the same time. Ignore duplicates.
-				if ( put.previousBytesRef.equals(put.spec.data) )
-				{
-					needsUpdating = false;
-				}
-			}
-
-			if ( needsUpdating )
+			// puts add to the index before adding to the set so a key added concurrently is put back here
+			fSortedKeys.remove(key);
+			CCDB2IndexEntry 	entry = fIndex.acquire(key);
+			if ( entry != null )
 			{
-				if ( put.entry.address >= CCDB2IndexEntry.MINIMUM_ACTIVE_ADDRESS )
-				{
-					CCDB2Record 	record = CCDB2Record.existingRecord(fFile, fUseCRCs, put.entry.address);
-					record.load(fDriver, CCDB2Record.LoadMode.SIZES_ONLY);
-					if ( (record.getObjectSize() >= put.spec.data.size()) && (record.getGroupSpecQty() >= put.groupSpecs.length) )
-					{
-						record.writeRecord(put.key, put.spec.data, put.groupSpecs);
-						if ( record.getGroupSpecQty() > 0 )
-						{
-							localAddToIndexFile = true;	// can't take chance that the group specs haven't changed
-						}
-					}
-					else
-					{
-						put.entry.address = CCDB2IndexEntry.NOT_EXISTS_ADDRESS;		// can't be overwritten
-					}
-				}
-
-				if ( put.entry.address < CCDB2IndexEntry.MINIMUM_ACTIVE_ADDRESS )
-				{
-					localAddToIndexFile = true;
-					put.entry.address = writeObject(put.key, put.spec.data, put.groupSpecs);
-				}
-
-				if ( localAddToIndexFile )
-				{
-					fIndexFile.addNewEntry(put.key, put.entry.address, put.entry.TTLDelta, put.groupSpecs);
-				}
+				fIndex.release(key, entry);
+				fSortedKeys.add(key);
 			}
 		}
-		finally
-		{
-			fActivePendingPut.set(null);
-		}
 	}
 
-	private synchronized void waitForNoUsers()
+	private void deleteObject(String key, long address) throws IOException
 	{
-		while ( fUseCount > 0 )
+		CCDB2Record		record = CCDB2Record.existingRecord(fFile, fChecksum, address);
+		if ( loadRecordOfKey(record, key) )
 		{
-			fDriver.log("Waiting on " + fUseCount + " threads...", null, true);
-			try
-			{
-				wait();
-			}
-			catch ( InterruptedException dummy )
-			{
-				break;
-			}
+			record.markDeleted();
+			fFreeSpace.add(address, record.getRecordSize());
 		}
 	}
 
-	private void deleteObject(long address) throws IOException
+	/**
+	 * Load the sizes and key of a record and check that it's the given key's record. Removals aren't written to the
+	 * index file, so after a restart an index entry can point at space that was freed and then reused by another key.
+	 * That key's record must not be overwritten or deleted.
+	 *
+	 * @param record the record to load
+	 * @param key the key the record should have
+	 * @return true if the record is the key's live record
+	 * @throws IOException errors
+	 */
+	private boolean loadRecordOfKey(CCDB2Record record, String key) throws IOException
 	{
-		CCDB2Record		record = CCDB2Record.existingRecord(fFile, fUseCRCs, address);
-		record.markDeleted();
+		record.load(fDriver, CCDB2Record.LoadMode.KEY_ONLY);
+		return !record.isAtDeadByte() && !record.isDeletedRecord() && key.equals(record.getKey());
 	}
 
 	private void readHeader() throws IOException
 	{
-		CCDB2io		io = null;
-		try
+		CCDB2io		io = fFile.getFile();
+		if ( fFile.getActualSize() == 0 )
 		{
-			if ( fFile.getActualSize() == 0 )
-			{
-				fCreationDate = System.currentTimeMillis();
-				fUseCRCs = DEFAULT_USE_CRCs;
+			fCreationDate = System.currentTimeMillis();
+			fChecksum = fDriver.useChecksums() ? CCDB2Checksum.CRC32C : CCDB2Checksum.NONE;
+			fWasClosedCleanly = true;
 
-				long 		headerAddress = fFile.allocate(HEADER_SIZE);
-				assert headerAddress == 0;
-				io = fFile.getFile();
-			}
-			else
+			long 		headerAddress = fFile.allocate(HEADER_SIZE);
+			assert headerAddress == 0;
+		}
+		else
+		{
+			io.seek(0);
+			if ( io.readInt() != HEADER_VERSION )
 			{
-				io = fFile.getFile();
-				io.seek(0);
-				if ( io.readInt() != HEADER_VERSION )
-				{
-					throw new OldFileException("File is an old version and will be ignored: " + fFilePath);
-				}
-				fUseCRCs = io.readBoolean();
-				fCreationDate = io.readLong();
+				throw new OldFileException("File is an old version and will be ignored: " + fFilePath);
 			}
+			boolean 	useCRCs = io.readBoolean();
+			fCreationDate = io.readLong();
+			fChecksum = CCDB2Checksum.fromHeader(useCRCs, io.readByte());	// 0 in files written before the checksum kind was recorded
+			fWasClosedCleanly = (io.readByte() == CLOSE_STATE_CLEAN);	// 0 in files written before the close state was recorded
+		}
 
-			io.seek(0);
+		io.seek(0);
+
+		io.writeInt(HEADER_VERSION);
+		io.writeBoolean(fChecksum != CCDB2Checksum.NONE);
+		io.writeLong(fCreationDate);
+		io.writeByte(fChecksum.getHeaderCode());
+		io.writeByte(CLOSE_STATE_OPEN);
+		fFile.force();	// if the open state is lost, a crash could leave the file looking clean
+	}
+
+	private void writeCloseState(byte state) throws IOException
+	{
+		CCDB2io		io = fFile.getFile();
+		io.seek(CLOSE_STATE_OFFSET);
+		io.writeByte(state);
+	}
+
+	/**
+	 * Recover a file that wasn't closed cleanly. A crash can leave index entries pointing at records that were never
+	 * completely written (or whose space was being reused) and can leave a torn entry at the end of the index file. The records
+	 * of all the index entries are checked in parallel - the record header must be intact, lie within the file and have the entry's
+	 * key. Entries that fail are removed from the index (only those keys are lost). The DB file is truncated after the last intact
+	 * record and the index file is compacted so that the removed entries and any torn tail are gone from disk too.<br><br>
+	 *
+	 * Objects aren't read, so their CRCs (if any) are still checked when they're read.
+	 *
+	 * @param percentDone reporting mechanism
+	 * @param indexIsIntact false if the index file had a torn tail
+	 * @throws IOException errors
+	 */
+	private void recover(AtomicInteger percentDone, boolean indexIsIntact) throws IOException
+	{
+		fDriver.log("Recovering " + fFilePath + " - it was not closed cleanly" + (indexIsIntact ? "" : " and its index file has a torn tail"), null, true);
+		percentDone.set(0);
 
-			io.writeInt(HEADER_VERSION);
-			io.writeBoolean(DEFAULT_USE_CRCs);
-			io.writeLong(fCreationDate);
+		RecoveryKeyReader 	reader = new RecoveryKeyReader(fFile.getActualSize(), fIndex.size(), percentDone);
+		int 				removedQty = fIndex.removeInvalidEntries(KEY_SCAN_POOL, reader);
+		if ( removedQty > 0 )
+		{
+			fGroupIndex.removeMissingKeys(fIndex);
 		}
-		finally
+
+		long 				truncatedSize = fFile.getActualSize() - reader.getEndOfRecords();
+		if ( truncatedSize > 0 )
 		{
-			if ( io != null )
-			{
-				fFile.releaseFile(io);
-			}
+			fFile.truncate(reader.getEndOfRecords());
 		}
+
+		if ( (removedQty > 0) || !indexIsIntact )
+		{
+			fIndexFile.compact(fIndex, fGroupIndex);
+		}
+
+		fFile.force();
+		fIndexFile.force();
+		percentDone.set(100);
+
+		fDriver.log("Recovered " + fFilePath + " - removed " + removedQty + " invalid index entries and truncated " + Math.max(truncatedSize, 0) + " bytes", null, true);
 	}
 
-	private ChunkedByteArray readObject(long address) throws IOException
+	private ChunkedByteArray readObject(String key, long address) throws IOException
 	{
-		CCDB2Record				record = CCDB2Record.existingRecord(fFile, fUseCRCs, address);
+		CCDB2Record				record = CCDB2Record.existingRecord(fFile, fChecksum, address);
 		record.load(fDriver, CCDB2Record.LoadMode.ALL);
+		if ( record.isAtDeadByte() || record.isDeletedRecord() || !key.equals(record.getKey()) )
+		{
+			return null;	// deleted or the space has been reused by another key
+		}
 		if ( !record.CRCsMatch() )
 		{
 			throw new IOException("crcs don't match at address: " + address);
@@ -866,40 +1936,180 @@ public class CCDB2Instance implements CCDB2UpdateIndexInterface
 
 	private long writeObject(String key, ChunkedByteArray bytes, long[] groupSpecs) throws IOException
 	{
-		CCDB2Record			record = CCDB2Record.newRecord(fFile, fUseCRCs, key, bytes, groupSpecs);
-		record.writeRecord(key, bytes, groupSpecs);
+		CCDB2Record			record = CCDB2Record.unallocatedRecord(fFile, fChecksum, key, bytes, groupSpecs, fDriver.getCompressionThreshold());
+		updateCompressionStats(record, bytes);
+		if ( !writeToFreeSpace(record) )
+		{
+			CCDB2Record.writeNewRecords(fFile, Collections.singletonList(record));
+		}
 		return record.getAddress();
 	}
 
-	static void addToGroup(ConcurrentHashMap<Long, HashSet<String>> map, String key, long groupSpec)
+	private boolean writeToFreeSpace(CCDB2Record record) throws IOException
+	{
+		CCDB2FreeSpaceMap.FreeRecord 	freeRecord = fFreeSpace.take(record.getRecordSize());
+		if ( freeRecord == null )
+		{
+			return false;
+		}
+
+		record.useFreeSpace(freeRecord);
+		record.write();
+		return true;
+	}
+
+	private void updateCompressionStats(CCDB2Record record, ChunkedByteArray bytes)
 	{
-		HashSet<String> 	initialLlist = new HashSet<String>();
-		HashSet<String> 	actualList = map.putIfAbsent(groupSpec, initialLlist);
-		if ( actualList == null )
+		if ( record.isCompressed() )
 		{
-			actualList = initialLlist;
+			fCompressedPutQty.incrementAndGet();
+			fCompressionSavedBytes.addAndGet(bytes.size() - record.getObjectSize());
 		}
-		synchronized(actualList)
+	}
+
+	private void updateUseCount(boolean increment)
+	{
+		if ( increment )
+		{
+			fUseCounter.increment();
+		}
+		else
+		{
+			fUseCounter.decrement();
+		}
+	}
+
+	private class DeadKeyRemover implements CCDB2GroupIndex.DeadKeyHandler
+	{
+		@Override
+		public void removeDeadKey(String key) throws IOException
+		{
+			CCDB2IndexEntry 	entry = fIndex.acquire(key);
+			if ( entry == null )
+			{
+				fGroupIndex.removeKey(key);
+				return;
+			}
+
+			try
+			{
+				synchronized(entry)
+				{
+					// puts update the group index while synchronized on the entry so this check is reliable
+					if ( fGroupIndex.isDead(key) )
+					{
+						deleteEntry(key, entry);
+						fGroupIndex.removeKey(key);
+					}
+				}
+			}
+			finally
+			{
+				fIndex.release(key, entry);
+			}
+		}
+	}
+
+	private class ExpiredKeyRemover implements CCDB2Index.ExpiredKeyHandler
+	{
+		@Override
+		public void keyExpired(String key)
 		{
-			actualList.add(key);
+			// a put may have added the key back - the group and sorted indexes check the index and the cache just misses
+			fObjectCache.remove(key);
+			fGroupIndex.removeMissingKey(fIndex, key);
+			pruneSortedKey(key);
 		}
 	}
 
-	private void updateGroupIndex(String key, long[] groupSpecs)
+	private class IndexKeyReader implements CCDB2Index.KeyReader
 	{
-		if ( groupSpecs != null )
+		@Override
+		public String readKey(long address) throws IOException
 		{
-			for ( long spec : groupSpecs )
+			CCDB2Record 	record = CCDB2Record.existingRecord(fFile, fChecksum, address);
+			record.load(fDriver, CCDB2Record.LoadMode.KEY_ONLY);
+			if ( record.isAtDeadByte() || record.isDeletedRecord() )
 			{
-				addToGroup(fGroupsIndex, key, spec);
+				return null;
 			}
+			return record.getKey();
 		}
 	}
 
-	private synchronized void updateUseCount(boolean increment)
+	/**
+	 * Returns the key of the intact record at an address - used by {@link CCDB2Instance#recover(AtomicInteger, boolean)}.
+	 * Also tracks the end of the last intact record.
+	 */
+	private class RecoveryKeyReader implements CCDB2Index.KeyReader
 	{
-		fUseCount += increment ? 1 : -1;
-		notifyAll();
+		RecoveryKeyReader(long fileSize, int entryQty, AtomicInteger percentDone)
+		{
+			fFileSize = fileSize;
+			fEntryQty = Math.max(entryQty, 1);
+			fPercentDone = percentDone;
+			fReadQty = new AtomicLong(0);
+			fEndOfRecords = new AtomicLong(HEADER_SIZE);
+		}
+
+		@Override
+		public String readKey(long address) throws IOException
+		{
+			long 		readQty = fReadQty.incrementAndGet();
+			if ( (readQty % PROGRESS_UPDATE_QTY) == 0 )
+			{
+				fPercentDone.set((int)Math.min((readQty * 100) / fEntryQty, 99));
+			}
+
+			if ( (address < HEADER_SIZE) || (address >= fFileSize) )
+			{
+				return null;
+			}
+
+			// check the sizes first so that a torn header can't cause a huge key to be read
+			CCDB2Record 	record = CCDB2Record.existingRecord(fFile, fChecksum, address);
+			try
+			{
+				record.load(fDriver, CCDB2Record.LoadMode.SIZES_ONLY);
+				if ( record.isAtDeadByte() || record.isDeletedRecord() || (record.getRecordSize() <= 0) || (record.getNextAddress() > fFileSize) )
+				{
+					return null;
+				}
+				record.load(fDriver, CCDB2Record.LoadMode.KEY_ONLY);
+				if ( record.isAtDeadByte() || record.isDeletedRecord() )
+				{
+					return null;
+				}
+			}
+			catch ( RuntimeException dummy )
+			{
+				return null;	// garbage sizes
+			}
+
+			long 		endOfRecord = record.getNextAddress();
+			for(;;)
+			{
+				long 	endOfRecords = fEndOfRecords.get();
+				if ( (endOfRecord <= endOfRecords) || fEndOfRecords.compareAndSet(endOfRecords, endOfRecord) )
+				{
+					break;
+				}
+			}
+			return record.getKey();
+		}
+
+		long 		getEndOfRecords()
+		{
+			return fEndOfRecords.get();
+		}
+
+		private static final int 	PROGRESS_UPDATE_QTY = 0x1000;
+
+		private final long 			fFileSize;
+		private final int 			fEntryQty;
+		private final AtomicInteger fPercentDone;
+		private final AtomicLong 	fReadQty;
+		private final AtomicLong 	fEndOfRecords;
 	}
 
 	private class PendingPutThread implements Runnable
@@ -907,26 +2117,26 @@ public class CCDB2Instance implements CCDB2UpdateIndexInterface
 		@Override
 		public void run()
 		{
+			List<PendingPutRecord> 		batch = new ArrayList<PendingPutRecord>();
 			while ( !Thread.currentThread().isInterrupted() )
 			{
 				try
 				{
-					PendingPutRecord 		pendingPut = fPendingPutQueue.take();
+					batch.add(fPendingPutQueue.take());
+					fPendingPutQueue.drainTo(batch, MAX_PENDING_PUT_BATCH_QTY - 1);
 					try
 					{
-						CCDB2IndexEntry 	currentEntry = fIndex.get(pendingPut.key);
-						if ( (currentEntry != null) && (currentEntry.address != CCDB2IndexEntry.NOT_EXISTS_ADDRESS) && (currentEntry == pendingPut.entry) )	// otherwise another value was set for the key or the key was removed
-						{
-							synchronized(pendingPut.entry)
-							{
-								processPendingPut(pendingPut);
-							}
-						}
+						processPendingPutBatch(batch);
 					}
 					catch ( IOException e )
 					{
 						fPendingPutException.set(e);
 					}
+					finally
+					{
+						finishPendingPutBatch(batch);
+						batch.clear();
+					}
 				}
 				catch ( InterruptedException e )
 				{
@@ -937,6 +2147,36 @@ public class CCDB2Instance implements CCDB2UpdateIndexInterface
 		}
 	}
 
+	private enum PendingWriteType
+	{
+		/**
+		 * Nothing needs to be written
+		 */
+		NONE,
+
+		/**
+		 * The record has been written - only the index entry needs to be written
+		 */
+		INDEX_ONLY,
+
+		/**
+		 * A new record needs to be written
+		 */
+		NEW_RECORD
+	}
+
+	private static class HotRecord
+	{
+		final String			key;
+		final long 				address;
+
+		private HotRecord(String key, long address)
+		{
+			this.key = key;
+			this.address = address;
+		}
+	}
+
 	private static class ActivePendingPut
 	{
 		final String			key;
@@ -957,6 +2197,21 @@ public class CCDB2Instance implements CCDB2UpdateIndexInterface
 		final CCDB2DataSpec 		spec;
 		final long[] 				groupSpecs;
 		final boolean 				addToIndexFile;
+		private final AtomicBoolean entryReleased = new AtomicBoolean(false);
+
+		/**
+		 * Release the queue's use of the entry. A put can be both taken by the background thread and
+		 * removed as a duplicate - only the first release counts.
+		 *
+		 * @param index the index
+		 */
+		void releaseEntry(CCDB2Index index)
+		{
+			if ( entryReleased.compareAndSet(false, true) )
+			{
+				index.release(key, entry);
+			}
+		}
 
 		@Override
 		public boolean equals(Object o)
@@ -999,30 +2254,53 @@ public class CCDB2Instance implements CCDB2UpdateIndexInterface
 
 	private static final int 		DEAD_BYTE = 0;
 
-	private static final boolean	DEFAULT_USE_CRCs = (System.getProperty("crcs") != null);
-
 	private static final int		HEADER_SIZE = 1024;		// allow room for future growth
 	private static final int		HEADER_VERSION = 11;
+	private static final int		CLOSE_STATE_OFFSET = 4 + 1 + 8 + 1;	// version, CRCs, creation date, checksum kind
+	private static final byte		CLOSE_STATE_OPEN = 0;
+	private static final byte		CLOSE_STATE_CLEAN = 1;
 
 	private static final long[] 	NULL_GROUP_SPECS = new long[0];
 
+	private static final String 	HOT_KEY_EXTENSION = ".hot";
+
+	private static final int		MAX_PENDING_PUT_BATCH_QTY = 256;
+	private static final int		MAX_PENDING_PUT_BATCH_BYTES = 0x400000;	// 4 MB
+
+	private static final String 	REGEX_META_CHARACTERS = "[](){}.*+?^$|";
+
+	private static final ForkJoinPool 	KEY_SCAN_POOL = new ForkJoinPool();
+
+	private static final int		WAIT_FOR_USERS_SLEEP_TICKS = 10;
+	private static final int		WAIT_FOR_USERS_LOG_TICKS = 1000;
+
 	private final CCDB2Driver										fDriver;
 	private	String													fFilePath;
 	private volatile CCDB2File										fFile;
 	private	long													fCreationDate;
-	private	boolean													fUseCRCs;
+	private	CCDB2Checksum											fChecksum;
+	private	boolean													fWasClosedCleanly;
 	private final AtomicBoolean										fIsOpen;
-	private	int														fUseCount;
-	private final ConcurrentHashMap<String,	CCDB2IndexEntry>		fIndex;
-	private final ConcurrentHashMap<Long, HashSet<String>>			fGroupsIndex;
+	private final CCDB2UseCounter									fUseCounter;
+	private final CCDB2Index										fIndex;
+	private final CCDB2GroupIndex									fGroupIndex;
+	private final ReentrantReadWriteLock							fTombstoneLock;
+	private final ConcurrentSkipListSet<String>						fSortedKeys;
+	private volatile CCDB2KeyFilter									fKeyFilter;
 	private final BlockingQueue<PendingPutRecord> 					fPendingPutQueue;
 	private final Thread											fPendingPutQueueThread;
 	private final AtomicReference<IOException>						fPendingPutException;
 	private final AtomicReference<ActivePendingPut>					fActivePendingPut;
-	private	final AtomicLong										fIndexSize;
-	private	final AtomicLong										fGroupsIndexSize;
 	private	final AtomicLong										fInMemoryGetQty;
 	private	final AtomicLong										fFromDiskGetQty;
+	private	final AtomicLong										fKeyFilterSkipQty;
+	private	final AtomicLong										fRegionGetQty;
+	private	final AtomicLong										fCompressedPutQty;
+	private	final AtomicLong										fCompressionSavedBytes;
 	private	final AtomicLong										fPendingPutQueueOverflowQty;
+	private	final AtomicLong										fWarmedQty;
 	private	CCDB2IndexFile											fIndexFile;
+	private final CCDB2HotKeyFile									fHotKeyFile;
+	private final CCDB2FreeSpaceMap									fFreeSpace;
+	private final CCDB2ObjectCache									fObjectCache;
 }
\ No newline at end of file
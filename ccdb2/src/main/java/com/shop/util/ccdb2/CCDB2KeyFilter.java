@@ -0,0 +1,139 @@
+/*
+ * Copyright 2008-2009 SHOP.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shop.util.ccdb2;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Blocked Bloom filter of the keys in an instance. All the bits for a key are in a single 512 bit block (a cache line)
+ * so a lookup touches only one block. Keys can be added concurrently but never removed - removed keys simply
+ * remain as false positives until the instance is rotated out.<br><br>
+ *
+ * A negative answer is always correct. The false positive rate is about 1% when the number of keys added is
+ * at or below the capacity and rises gradually past it.<br>
+ *
+ * @author Jordan Zimmerman
+ */
+class CCDB2KeyFilter
+{
+	/**
+	 * @param capacity expected number of keys
+	 */
+	CCDB2KeyFilter(long capacity)
+	{
+		long		bits = Math.max(capacity, 1) * BITS_PER_KEY;
+		fBlockQty = (int)Math.min((bits + BLOCK_BITS - 1) / BLOCK_BITS, Integer.MAX_VALUE / LONGS_PER_BLOCK);
+		fBits = new AtomicLongArray(fBlockQty * LONGS_PER_BLOCK);
+		fAddQty = new AtomicLong(0);
+	}
+
+	/**
+	 * Add a key to the filter
+	 *
+	 * @param key key
+	 */
+	void 		add(String key)
+	{
+		long 		hash = CCDB2PrimitiveIndex.hashKey(key);
+		int 		base = getBlockBase(hash);
+		long 		bitHash = hash * BIT_HASH_MULTIPLIER;
+		boolean 	isNew = false;
+		for ( int i = 0; i < HASH_QTY; ++i )
+		{
+			int 		bit = (int)(bitHash >>> (i * BITS_PER_HASH)) & (BLOCK_BITS - 1);
+			int 		index = base + (bit >>> 6);
+			long 		mask = 1L << (bit & 63);
+			for(;;)
+			{
+				long 		value = fBits.get(index);
+				if ( (value & mask) != 0 )
+				{
+					break;
+				}
+				if ( fBits.compareAndSet(index, value, value | mask) )
+				{
+					isNew = true;
+					break;
+				}
+			}
+		}
+
+		if ( isNew )
+		{
+			fAddQty.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Returns false if the key has definitely not been added. true means it might have been added.
+	 *
+	 * @param key key
+	 * @return true/false
+	 */
+	boolean 	mightContain(String key)
+	{
+		long 		hash = CCDB2PrimitiveIndex.hashKey(key);
+		int 		base = getBlockBase(hash);
+		long 		bitHash = hash * BIT_HASH_MULTIPLIER;
+		for ( int i = 0; i < HASH_QTY; ++i )
+		{
+			int 		bit = (int)(bitHash >>> (i * BITS_PER_HASH)) & (BLOCK_BITS - 1);
+			if ( (fBits.get(base + (bit >>> 6)) & (1L << (bit & 63))) == 0 )
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the size of the filter in bytes
+	 *
+	 * @return size
+	 */
+	long 		getSize()
+	{
+		return (long)fBlockQty * LONGS_PER_BLOCK * 8;
+	}
+
+	/**
+	 * Returns the approximate number of distinct keys added
+	 *
+	 * @return qty
+	 */
+	long 		getAddQty()
+	{
+		return fAddQty.get();
+	}
+
+	private int 	getBlockBase(long hash)
+	{
+		// map the high 32 bits onto the block range without a division
+		return (int)(((hash >>> 32) * fBlockQty) >>> 32) * LONGS_PER_BLOCK;
+	}
+
+	private static final int 		BITS_PER_KEY = 10;
+	private static final int 		BLOCK_BITS = 512;
+	private static final int 		LONGS_PER_BLOCK = BLOCK_BITS / 64;
+	private static final int 		HASH_QTY = 7;
+	private static final int 		BITS_PER_HASH = 9;	// log2(BLOCK_BITS)
+	private static final long 		BIT_HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+	private final int 				fBlockQty;
+	private final AtomicLongArray 	fBits;
+	private final AtomicLong 		fAddQty;
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright 2008-2009 SHOP.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shop.util.ccdb2;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Default index - every key has a permanent {@link CCDB2IndexEntry} in a ConcurrentHashMap. Acquire/release
+ * are therefore no-ops.<br>
+ *
+ * @author Jordan Zimmerman
+ */
+class CCDB2MapIndex implements CCDB2Index
+{
+	CCDB2MapIndex()
+	{
+		fIndex = new ConcurrentHashMap<String, CCDB2IndexEntry>();
+		fIndexSize = new AtomicLong(0);
+		fExpirations = new CCDB2ExpirationSchedule<ConcurrentLinkedQueue<String>>
+		(
+			new CCDB2ExpirationSchedule.BucketFactory<ConcurrentLinkedQueue<String>>()
+			{
+				@Override
+				public ConcurrentLinkedQueue<String> newBucket()
+				{
+					return new ConcurrentLinkedQueue<String>();
+				}
+			}
+		);
+	}
+
+	@Override
+	public CCDB2IndexEntry acquire(String key)
+	{
+		return fIndex.get(key);
+	}
+
+	@Override
+	public CCDB2IndexEntry acquireOrAdd(String key, CCDB2IndexEntry newEntry)
+	{
+		CCDB2IndexEntry 	entry = fIndex.putIfAbsent(key, newEntry);
+		if ( entry == null )
+		{
+			updateIndexSize(key, true);
+		}
+		return entry;
+	}
+
+	@Override
+	public void retain(String key, CCDB2IndexEntry entry)
+	{
+		// NOP
+	}
+
+	@Override
+	public void release(String key, CCDB2IndexEntry entry)
+	{
+		// NOP
+	}
+
+	@Override
+	public boolean remove(String key)
+	{
+		if ( fIndex.remove(key) != null )
+		{
+			updateIndexSize(key, false);
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public void load(String key, long address, int TTLDelta)
+	{
+		CCDB2IndexEntry		entry = new CCDB2IndexEntry();
+		entry.address = address;
+		entry.TTLDelta = TTLDelta;
+		if ( fIndex.put(key, entry) == null )
+		{
+			updateIndexSize(key, true);
+		}
+	}
+
+	@Override
+	public void scheduleLoadedExpirations()
+	{
+		for ( Map.Entry<String, CCDB2IndexEntry> mapEntry : fIndex.entrySet() )
+		{
+			scheduleExpiration(mapEntry.getKey(), mapEntry.getValue().TTLDelta);
+		}
+	}
+
+	@Override
+	public void scheduleExpiration(String key, int TTLDelta)
+	{
+		if ( TTLDelta <= 0 )
+		{
+			return;
+		}
+
+		int 		tick = CCDB2ExpirationSchedule.getTick(TTLDelta);
+		for(;;)
+		{
+			ConcurrentLinkedQueue<String> 	bucket = fExpirations.getBucket(tick);
+			bucket.add(key);
+			if ( fExpirations.isScheduled(tick, bucket) )
+			{
+				break;
+			}
+		}
+	}
+
+	@Override
+	public int removeExpired(long creationDate, long now, int maxQty, ExpiredKeyHandler handler)
+	{
+		int 		qty = 0;
+		int 		examinedQty = 0;
+		while ( examinedQty < maxQty )
+		{
+			Map.Entry<Integer, ConcurrentLinkedQueue<String>> 	due = fExpirations.getFirstDue(creationDate, now);
+			if ( due == null )
+			{
+				break;
+			}
+
+			ConcurrentLinkedQueue<String> 	bucket = due.getValue();
+			String 							key;
+			while ( (examinedQty < maxQty) && ((key = bucket.poll()) != null) )
+			{
+				++examinedQty;
+				if ( removeIfExpired(key, creationDate, now) )
+				{
+					handler.keyExpired(key);
+					++qty;
+				}
+			}
+
+			if ( bucket.isEmpty() && fExpirations.remove(due.getKey(), bucket) )
+			{
+				// keys added while the bucket was being removed
+				while ( (key = bucket.poll()) != null )
+				{
+					if ( removeIfExpired(key, creationDate, now) )
+					{
+						handler.keyExpired(key);
+						++qty;
+					}
+				}
+			}
+		}
+		return qty;
+	}
+
+	@Override
+	public int getExpirationBucketQty()
+	{
+		return fExpirations.getBucketQty();
+	}
+
+	@Override
+	public void visitEntries(EntryVisitor visitor)
+	{
+		for ( Map.Entry<String, CCDB2IndexEntry> mapEntry : fIndex.entrySet() )
+		{
+			CCDB2IndexEntry 	entry = mapEntry.getValue();
+			visitor.visit(mapEntry.getKey(), entry.address, entry.TTLDelta);
+		}
+	}
+
+	@Override
+	public void visitEntriesInParallel(ForkJoinPool pool, EntryVisitor visitor)
+	{
+		pool.invoke(new VisitTask(fIndex.entrySet().spliterator(), visitor));
+	}
+
+	@Override
+	public int removeInvalidEntries(ForkJoinPool pool, final KeyReader reader)
+	{
+		final ConcurrentHashMap<String, Long> 	invalidEntries = new ConcurrentHashMap<String, Long>();
+		visitEntriesInParallel
+		(
+			pool,
+			new EntryVisitor()
+			{
+				@Override
+				public void visit(String key, long address, int TTLDelta)
+				{
+					if ( address < CCDB2IndexEntry.MINIMUM_ACTIVE_ADDRESS )
+					{
+						return;
+					}
+
+					String 		recordKey;
+					try
+					{
+						recordKey = reader.readKey(address);
+					}
+					catch ( IOException dummy )
+					{
+						recordKey = null;
+					}
+					if ( !key.equals(recordKey) )
+					{
+						invalidEntries.put(key, address);
+					}
+				}
+			}
+		);
+
+		int 		qty = 0;
+		for ( Map.Entry<String, Long> invalid : invalidEntries.entrySet() )
+		{
+			CCDB2IndexEntry 	entry = fIndex.get(invalid.getKey());
+			if ( (entry != null) && (entry.address == invalid.getValue()) && fIndex.remove(invalid.getKey(), entry) )
+			{
+				updateIndexSize(invalid.getKey(), false);
+				++qty;
+			}
+		}
+		return qty;
+	}
+
+	@Override
+	public int size()
+	{
+		return fIndex.size();
+	}
+
+	@Override
+	public long getIndexSize()
+	{
+		return fIndexSize.get();
+	}
+
+	/**
+	 * Splits the map until the pieces are small enough and then visits each piece
+	 */
+	private static class VisitTask extends RecursiveAction
+	{
+		VisitTask(Spliterator<Map.Entry<String, CCDB2IndexEntry>> spliterator, EntryVisitor visitor)
+		{
+			fSpliterator = spliterator;
+			fVisitor = visitor;
+		}
+
+		@Override
+		protected void compute()
+		{
+			List<VisitTask> 								forks = new ArrayList<VisitTask>();
+			Spliterator<Map.Entry<String, CCDB2IndexEntry>> 	split;
+			while ( (fSpliterator.estimateSize() > MIN_VISIT_SPLIT_SIZE) && ((split = fSpliterator.trySplit()) != null) )
+			{
+				VisitTask 		task = new VisitTask(split, fVisitor);
+				task.fork();
+				forks.add(task);
+			}
+
+			fSpliterator.forEachRemaining(new Consumer<Map.Entry<String, CCDB2IndexEntry>>()
+			{
+				@Override
+				public void accept(Map.Entry<String, CCDB2IndexEntry> mapEntry)
+				{
+					CCDB2IndexEntry 	entry = mapEntry.getValue();
+					fVisitor.visit(mapEntry.getKey(), entry.address, entry.TTLDelta);
+				}
+			});
+
+			for ( VisitTask task : forks )
+			{
+				task.join();
+			}
+		}
+
+		private static final long 										serialVersionUID = 1L;
+
+		private final Spliterator<Map.Entry<String, CCDB2IndexEntry>> 	fSpliterator;
+		private final EntryVisitor 										fVisitor;
+	}
+
+	private boolean removeIfExpired(String key, long creationDate, long now)
+	{
+		// keys whose TTL has changed since they were scheduled are skipped - they've been scheduled again
+		CCDB2IndexEntry 	entry = fIndex.get(key);
+		if ( (entry != null) && (entry.TTLDelta > 0) && (now >= (creationDate + entry.TTLDelta)) && fIndex.remove(key, entry) )
+		{
+			updateIndexSize(key, false);
+			return true;
+		}
+		return false;
+	}
+
+	private void 	updateIndexSize(String key, boolean add)
+	{
+		int 		size = key.length() + CCDB2IndexEntry.INDEX_BASE_SIZE;
+		if ( !add )
+		{
+			size *= -1;
+		}
+		fIndexSize.addAndGet(size);
+	}
+
+	private static final int 		MIN_VISIT_SPLIT_SIZE = 0x4000;
+
+	private final ConcurrentHashMap<String, CCDB2IndexEntry> 		fIndex;
+	private final AtomicLong 										fIndexSize;
+	private final CCDB2ExpirationSchedule<ConcurrentLinkedQueue<String>> 	fExpirations;
+}
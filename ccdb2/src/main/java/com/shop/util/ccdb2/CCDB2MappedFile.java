@@ -0,0 +1,244 @@
+/*
+ * Copyright 2008-2009 SHOP.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shop.util.ccdb2;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only view of a DB file via memory mapped segments. Reads are served directly from the
+ * OS page cache without a seek/read system call per access. The file is mapped in segments of
+ * {@link #SEGMENT_SIZE} bytes. As {@link CCDB2File#allocate(int)} grows the file, the last
+ * (partial) segment is remapped and new segments are added on demand.<br>
+ *
+ * @author Jordan Zimmerman
+ */
+class CCDB2MappedFile
+{
+	/**
+	 * @param file the file to map. Its channel is used for mapping and its actual size determines how much of the file can be mapped
+	 */
+	CCDB2MappedFile(CCDB2File file)
+	{
+		fFile = file;
+		fSegments = new MappedByteBuffer[0];
+		fMappedSize = 0;
+	}
+
+	/**
+	 * Drop the mapping. If unmap is true, the segments are unmapped now so that the file's pages (and, once the file is
+	 * deleted, its disk space) are released immediately. Otherwise, they are released when the VM collects them.
+	 *
+	 * @param unmap true to unmap the segments - MUST only be true if no reads are in progress or can start: reading an unmapped
+	 * segment crashes the VM
+	 */
+	synchronized void close(boolean unmap)
+	{
+		MappedByteBuffer[] 		segments = fSegments;
+		fSegments = new MappedByteBuffer[0];
+		fMappedSize = 0;
+
+		if ( unmap && (INVOKE_CLEANER != null) )
+		{
+			for ( MappedByteBuffer segment : segments )
+			{
+				try
+				{
+					INVOKE_CLEANER.invoke(UNSAFE, segment);
+				}
+				catch ( Exception dummy )
+				{
+					// left for the VM to release
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of bytes of the file currently mapped
+	 *
+	 * @return mapped size
+	 */
+	long getMappedSize()
+	{
+		return fMappedSize;
+	}
+
+	/**
+	 * Return a reader positioned at the start of the file
+	 *
+	 * @return reader
+	 */
+	CCDB2Reader getReader()
+	{
+		return new MappedReader();
+	}
+
+	/**
+	 * Fill the given buffer from the given address
+	 *
+	 * @param address file address
+	 * @param bytes buffer
+	 * @param offset offset within the buffer
+	 * @param length number of bytes to read
+	 * @throws IOException errors or if the address is past the end of the file
+	 */
+	void read(long address, byte[] bytes, int offset, int length) throws IOException
+	{
+		MappedByteBuffer[] 		segments = getSegmentsFor(address + length);
+		while ( length > 0 )
+		{
+			int 		segmentIndex = (int)(address / SEGMENT_SIZE);
+			int 		offsetWithinSegment = (int)(address - ((long)segmentIndex * SEGMENT_SIZE));
+
+			ByteBuffer 	segment = segments[segmentIndex].duplicate();	// position is not thread safe
+			int 		thisSize = Math.min(length, segment.limit() - offsetWithinSegment);
+			segment.position(offsetWithinSegment);
+			segment.get(bytes, offset, thisSize);
+
+			address += thisSize;
+			offset += thisSize;
+			length -= thisSize;
+		}
+	}
+
+	private MappedByteBuffer[] getSegmentsFor(long endAddress) throws IOException
+	{
+		if ( endAddress > fMappedSize )
+		{
+			remap(fFile.getActualSize());
+			if ( endAddress > fMappedSize )
+			{
+				throw new EOFException();
+			}
+		}
+		return fSegments;
+	}
+
+	private synchronized void remap(long size) throws IOException
+	{
+		FileChannel 			channel = fFile.getChannel();
+		size = Math.min(size, channel.size());
+		if ( size <= fMappedSize )
+		{
+			return;
+		}
+
+		int 					segmentQty = (int)((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+		MappedByteBuffer[] 		newSegments = new MappedByteBuffer[segmentQty];
+		System.arraycopy(fSegments, 0, newSegments, 0, fSegments.length);
+
+		int 					firstSegmentIndex = (int)(fMappedSize / SEGMENT_SIZE);	// the last segment may have been partially mapped
+		for ( int i = firstSegmentIndex; i < segmentQty; ++i )
+		{
+			long 		position = (long)i * SEGMENT_SIZE;
+			long 		length = Math.min(SEGMENT_SIZE, size - position);
+			newSegments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+		}
+
+		fSegments = newSegments;
+		fMappedSize = size;
+	}
+
+	private class MappedReader implements CCDB2Reader
+	{
+		@Override
+		public void seek(long i) throws IOException
+		{
+			fPosition = i;
+		}
+
+		@Override
+		public byte readByte() throws IOException
+		{
+			readScratch(1);
+			return fScratch[0];
+		}
+
+		@Override
+		public long readLong() throws IOException
+		{
+			readScratch(8);
+			long 		value = 0;
+			for ( int i = 0; i < 8; ++i )
+			{
+				value = (value << 8) | (fScratch[i] & 0xff);
+			}
+			return value;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) throws IOException
+		{
+			CCDB2MappedFile.this.read(fPosition, bytes, offset, length);
+			fPosition += length;
+			return length;
+		}
+
+		@Override
+		public void readFully(byte[] buffer) throws IOException
+		{
+			read(buffer, 0, buffer.length);
+		}
+
+		private void readScratch(int length) throws IOException
+		{
+			read(fScratch, 0, length);
+		}
+
+		private final byte[]	fScratch = new byte[8];
+		private long			fPosition = 0;
+	}
+
+	private static Object 	getUnsafe()
+	{
+		try
+		{
+			Field 		field = Class.forName("sun.misc.Unsafe").getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			return field.get(null);
+		}
+		catch ( Exception dummy )
+		{
+			return null;
+		}
+	}
+
+	private static Method 	getInvokeCleaner()
+	{
+		try
+		{
+			return (UNSAFE != null) ? UNSAFE.getClass().getMethod("invokeCleaner", ByteBuffer.class) : null;
+		}
+		catch ( NoSuchMethodException dummy )
+		{
+			return null;	// not available in this VM - segments are released by the VM
+		}
+	}
+
+	private static final long 		SEGMENT_SIZE = 0x40000000;	// 1 GB
+	private static final Object 	UNSAFE = getUnsafe();
+	private static final Method 	INVOKE_CLEANER = getInvokeCleaner();
+
+	private final CCDB2File 					fFile;
+	private volatile MappedByteBuffer[] 		fSegments;
+	private volatile long 						fMappedSize;
+}
@@ -0,0 +1,392 @@
+/*
+ * Copyright 2008-2009 SHOP.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shop.util.ccdb2;
+
+import com.shop.util.chunked.ChunkedByteArray;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Byte budgeted cache of object data. The cache is split into shards (each with its own lock and an equal share
+ * of the budget). Each shard is a segmented LRU: new objects go into a probationary segment and are promoted to the
+ * protected segment when they are accessed again. Thus, one-time reads can't flush frequently read objects.<br>
+ *
+ * @author Jordan Zimmerman
+ */
+class CCDB2ObjectCache
+{
+	/**
+	 * @param maxBytes the maximum number of bytes to cache. If 0, nothing is cached
+	 */
+	CCDB2ObjectCache(long maxBytes)
+	{
+		fShards = new Shard[SHARD_QTY];
+		for ( int i = 0; i < SHARD_QTY; ++i )
+		{
+			fShards[i] = new Shard(maxBytes / SHARD_QTY);
+		}
+
+		fHitQty = new AtomicLong(0);
+		fMissQty = new AtomicLong(0);
+		fEvictionQty = new AtomicLong(0);
+	}
+
+	/**
+	 * Change the maximum number of bytes to cache. If the cache is now over budget, the least recently used objects are
+	 * evicted.
+	 *
+	 * @param maxBytes new maximum. If 0, nothing is cached
+	 */
+	void 				setMaxBytes(long maxBytes)
+	{
+		for ( Shard shard : fShards )
+		{
+			shard.setMaxBytes(maxBytes / SHARD_QTY);
+		}
+	}
+
+	/**
+	 * Return the cached object for the given key
+	 *
+	 * @param key key
+	 * @return object or null
+	 */
+	ChunkedByteArray 	get(String key)
+	{
+		ChunkedByteArray 	data = getShard(key).get(key);
+		if ( data != null )
+		{
+			fHitQty.incrementAndGet();
+		}
+		else
+		{
+			fMissQty.incrementAndGet();
+		}
+		return data;
+	}
+
+	/**
+	 * Return the cached object for the given key without affecting the LRU or the stats
+	 *
+	 * @param key key
+	 * @return object or null
+	 */
+	ChunkedByteArray 	peek(String key)
+	{
+		return getShard(key).peek(key);
+	}
+
+	/**
+	 * Add/replace the object for the given key. The object must be locked.
+	 *
+	 * @param key key
+	 * @param data object
+	 */
+	void 				put(String key, ChunkedByteArray data)
+	{
+		getShard(key).put(key, data);
+	}
+
+	/**
+	 * Add the object for the given key only if that doesn't evict anything - used to warm up the cache without
+	 * flushing objects that have been read since. The object must be locked.
+	 *
+	 * @param key key
+	 * @param data object
+	 * @return true if the object was added
+	 */
+	boolean 			warm(String key, ChunkedByteArray data)
+	{
+		return getShard(key).warm(key, data);
+	}
+
+	/**
+	 * Remove the object for the given key
+	 *
+	 * @param key key
+	 */
+	void 				remove(String key)
+	{
+		getShard(key).remove(key);
+	}
+
+	/**
+	 * Return the keys of the cached objects, most used first - i.e. the protected segment followed by the probationary
+	 * segment, each most recently used first. Each shard contributes an equal share.
+	 *
+	 * @param maxQty maximum number of keys to return
+	 * @return keys
+	 */
+	List<String> 		getHotKeys(int maxQty)
+	{
+		int 			qtyPerShard = (maxQty + SHARD_QTY - 1) / SHARD_QTY;
+		List<String> 	keys = new ArrayList<String>();
+		for ( Shard shard : fShards )
+		{
+			shard.addHotKeys(keys, qtyPerShard);
+		}
+		return keys;
+	}
+
+	/**
+	 * Returns the number of bytes currently cached (approx)
+	 *
+	 * @return bytes
+	 */
+	long 				getSize()
+	{
+		long 		size = 0;
+		for ( Shard shard : fShards )
+		{
+			size += shard.getSize();
+		}
+		return size;
+	}
+
+	/**
+	 * Returns the number of objects currently cached
+	 *
+	 * @return qty
+	 */
+	int 				getQty()
+	{
+		int 		qty = 0;
+		for ( Shard shard : fShards )
+		{
+			qty += shard.getQty();
+		}
+		return qty;
+	}
+
+	/**
+	 * Returns the number of gets that found the object
+	 *
+	 * @return qty
+	 */
+	long 				getHitQty()
+	{
+		return fHitQty.get();
+	}
+
+	/**
+	 * Returns the number of gets that didn't find the object
+	 *
+	 * @return qty
+	 */
+	long 				getMissQty()
+	{
+		return fMissQty.get();
+	}
+
+	/**
+	 * Returns the number of objects evicted to stay within the budget
+	 *
+	 * @return qty
+	 */
+	long 				getEvictionQty()
+	{
+		return fEvictionQty.get();
+	}
+
+	private Shard getShard(String key)
+	{
+		int 		hash = key.hashCode();
+		hash ^= (hash >>> 16);
+		return fShards[hash & (SHARD_QTY - 1)];
+	}
+
+	private class Shard
+	{
+		Shard(long maxBytes)
+		{
+			fMaxBytes = maxBytes;
+			fMaxProtectedBytes = (maxBytes * PROTECTED_PERCENT) / 100;
+			fProbation = new LinkedHashMap<String, ChunkedByteArray>(16, .75f, true);
+			fProtected = new LinkedHashMap<String, ChunkedByteArray>(16, .75f, true);
+			fProbationBytes = 0;
+			fProtectedBytes = 0;
+		}
+
+		synchronized void 		setMaxBytes(long maxBytes)
+		{
+			fMaxBytes = maxBytes;
+			fMaxProtectedBytes = (maxBytes * PROTECTED_PERCENT) / 100;
+			demoteProtected();
+		}
+
+		synchronized ChunkedByteArray 	get(String key)
+		{
+			ChunkedByteArray 	data = fProtected.get(key);
+			if ( data == null )
+			{
+				data = fProbation.remove(key);
+				if ( data != null )
+				{
+					// second access - promote
+					fProbationBytes -= getEntrySize(key, data);
+					fProtected.put(key, data);
+					fProtectedBytes += getEntrySize(key, data);
+					demoteProtected();
+				}
+			}
+			return data;
+		}
+
+		synchronized ChunkedByteArray 	peek(String key)
+		{
+			ChunkedByteArray 	data = fProtected.get(key);
+			return (data != null) ? data : fProbation.get(key);
+		}
+
+		synchronized void 		put(String key, ChunkedByteArray data)
+		{
+			remove(key);
+
+			long 		size = getEntrySize(key, data);
+			if ( size > fMaxBytes )
+			{
+				return;
+			}
+
+			fProbation.put(key, data);
+			fProbationBytes += size;
+			evict();
+		}
+
+		synchronized boolean 	warm(String key, ChunkedByteArray data)
+		{
+			if ( fProtected.containsKey(key) || fProbation.containsKey(key) )
+			{
+				return false;
+			}
+
+			long 		size = getEntrySize(key, data);
+			if ( (fProbationBytes + fProtectedBytes + size) > fMaxBytes )
+			{
+				return false;
+			}
+
+			fProbation.put(key, data);
+			fProbationBytes += size;
+			return true;
+		}
+
+		synchronized void 		addHotKeys(List<String> keys, int maxQty)
+		{
+			List<String> 	protectedKeys = new ArrayList<String>(fProtected.keySet());
+			List<String> 	probationKeys = new ArrayList<String>(fProbation.keySet());
+			Collections.reverse(protectedKeys);	// the maps are in LRU order
+			Collections.reverse(probationKeys);
+
+			int 			qty = 0;
+			for ( String key : protectedKeys )
+			{
+				if ( qty++ >= maxQty )
+				{
+					return;
+				}
+				keys.add(key);
+			}
+			for ( String key : probationKeys )
+			{
+				if ( qty++ >= maxQty )
+				{
+					return;
+				}
+				keys.add(key);
+			}
+		}
+
+		synchronized void 		remove(String key)
+		{
+			ChunkedByteArray 	data = fProbation.remove(key);
+			if ( data != null )
+			{
+				fProbationBytes -= getEntrySize(key, data);
+			}
+
+			data = fProtected.remove(key);
+			if ( data != null )
+			{
+				fProtectedBytes -= getEntrySize(key, data);
+			}
+		}
+
+		synchronized long 		getSize()
+		{
+			return fProbationBytes + fProtectedBytes;
+		}
+
+		synchronized int 		getQty()
+		{
+			return fProbation.size() + fProtected.size();
+		}
+
+		private void 		demoteProtected()
+		{
+			Iterator<Map.Entry<String, ChunkedByteArray>> 	iterator = fProtected.entrySet().iterator();
+			while ( (fProtectedBytes > fMaxProtectedBytes) && iterator.hasNext() )
+			{
+				Map.Entry<String, ChunkedByteArray> 	eldest = iterator.next();
+				long 									size = getEntrySize(eldest.getKey(), eldest.getValue());
+				iterator.remove();
+				fProtectedBytes -= size;
+
+				fProbation.put(eldest.getKey(), eldest.getValue());
+				fProbationBytes += size;
+			}
+			evict();
+		}
+
+		private void 		evict()
+		{
+			Iterator<Map.Entry<String, ChunkedByteArray>> 	iterator = fProbation.entrySet().iterator();
+			while ( ((fProbationBytes + fProtectedBytes) > fMaxBytes) && iterator.hasNext() )
+			{
+				Map.Entry<String, ChunkedByteArray> 	eldest = iterator.next();
+				iterator.remove();
+				fProbationBytes -= getEntrySize(eldest.getKey(), eldest.getValue());
+				fEvictionQty.incrementAndGet();
+			}
+		}
+
+		private long 											fMaxBytes;
+		private long 											fMaxProtectedBytes;
+		private final LinkedHashMap<String, ChunkedByteArray> 	fProbation;
+		private final LinkedHashMap<String, ChunkedByteArray> 	fProtected;
+		private long 											fProbationBytes;
+		private long 											fProtectedBytes;
+	}
+
+	private static long getEntrySize(String key, ChunkedByteArray data)
+	{
+		return data.size() + (key.length() * 2) + ENTRY_OVERHEAD;
+	}
+
+	private static final int 		SHARD_QTY = 16;	// must be a power of 2
+	private static final int 		PROTECTED_PERCENT = 80;
+	private static final int 		ENTRY_OVERHEAD = 96;	// approx: map node, ChunkedByteArray object and chunk list
+
+	private final Shard[] 			fShards;
+	private final AtomicLong 		fHitQty;
+	private final AtomicLong 		fMissQty;
+	private final AtomicLong 		fEvictionQty;
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2008-2009 SHOP.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shop.util.ccdb2;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The location of an object's data in a DB file. Returned by {@link CCDB2Instance#getObjectRegion(String, int)} so that
+ * the object can be sent without being read into the heap. The instance is held open until {@link #release()} is called.<br><br>
+ *
+ * Objects are not locked while being sent. If the object is rewritten or removed during the send, the bytes sent may be
+ * wrong. So, check {@link #isValid()} after sending and discard the object if it returns false.<br>
+ *
+ * @author Jordan Zimmerman
+ */
+public class CCDB2ObjectRegion
+{
+	CCDB2ObjectRegion(CCDB2Instance instance, String key, CCDB2IndexEntry entry, int version, long address, int length, long ttl)
+	{
+		fInstance = instance;
+		fKey = key;
+		fEntry = entry;
+		fVersion = version;
+		fAddress = address;
+		fLength = length;
+		fTTL = ttl;
+		fIsReleased = new AtomicBoolean(false);
+	}
+
+	/**
+	 * Returns the size of the object
+	 *
+	 * @return size in bytes
+	 */
+	public int 		getLength()
+	{
+		return fLength;
+	}
+
+	/**
+	 * Returns the object's TTL
+	 *
+	 * @return TTL
+	 */
+	public long 	getTTL()
+	{
+		return fTTL;
+	}
+
+	/**
+	 * Send the object's data to the given channel
+	 *
+	 * @param channel channel to send to
+	 * @throws IOException errors
+	 */
+	public void 	transferTo(WritableByteChannel channel) throws IOException
+	{
+		fInstance.transferRegion(fAddress, fLength, channel);
+	}
+
+	/**
+	 * Returns true if the object hasn't changed since the region was returned - i.e. the bytes sent are correct
+	 *
+	 * @return true/false
+	 */
+	public boolean 	isValid()
+	{
+		return fInstance.isRegionValid(fEntry, fVersion);
+	}
+
+	/**
+	 * Release the instance. Must be called when done with the region.
+	 */
+	public void 	release()
+	{
+		if ( fIsReleased.compareAndSet(false, true) )
+		{
+			fInstance.releaseRegion(fKey, fEntry);
+		}
+	}
+
+	private final CCDB2Instance 	fInstance;
+	private final String 			fKey;
+	private final CCDB2IndexEntry 	fEntry;
+	private final int 				fVersion;
+	private final long 				fAddress;
+	private final int 				fLength;
+	private final long 				fTTL;
+	private final AtomicBoolean 	fIsReleased;
+}
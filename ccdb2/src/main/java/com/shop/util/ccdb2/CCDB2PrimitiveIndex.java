@@ -0,0 +1,833 @@
+/*
+ * Copyright 2008-2009 SHOP.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shop.util.ccdb2;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compact index - keys are not kept in memory. Instead, a 64 bit hash of the key, the address and the TTL delta are stored in
+ * open-addressed (linear probing) primitive arrays - about 20 bytes per slot. The index is split into segments, each with its own lock.<br><br>
+ *
+ * {@link CCDB2IndexEntry} objects only exist while an entry is acquired. When the last use is released, the entry's
+ * address/TTL are written back to the arrays. Because only the hash is stored, callers must verify the key against the record
+ * on disk (see {@link CCDB2Instance}'s readObject()). Keys needed for iteration are read from the DB via the {@link KeyReader}.
+ * Thus, keys whose address is not active (deleted keys) are not visited.<br><br>
+ *
+ * A key whose hash is already used by a different key is kept in an overflow {@link CCDB2MapIndex} (with its full key)
+ * so that both keys work. The overflow is checked first and is only changed while holding the key's segment lock. When the
+ * index is loaded, keys aren't compared - of two loaded keys with the same hash, the last one loaded wins and the other is a
+ * miss (reads verify the record's key so the wrong object is never returned).<br>
+ *
+ * @author Jordan Zimmerman
+ */
+class CCDB2PrimitiveIndex implements CCDB2Index
+{
+	/**
+	 * @param keyReader used to read keys from the DB
+	 */
+	CCDB2PrimitiveIndex(KeyReader keyReader)
+	{
+		fKeyReader = keyReader;
+		fExpirations = new CCDB2ExpirationSchedule<ExpirationBucket>
+		(
+			new CCDB2ExpirationSchedule.BucketFactory<ExpirationBucket>()
+			{
+				@Override
+				public ExpirationBucket newBucket()
+				{
+					return new ExpirationBucket();
+				}
+			}
+		);
+		fSegments = new Segment[SEGMENT_QTY];
+		for ( int i = 0; i < SEGMENT_QTY; ++i )
+		{
+			fSegments[i] = new Segment();
+		}
+		fOverflow = new CCDB2MapIndex();
+	}
+
+	/**
+	 * Returns the 64 bit hash for a key. 0 is never returned
+	 *
+	 * @param key key
+	 * @return hash
+	 */
+	static long 	hashKey(String key)
+	{
+		long 		hash = FNV_OFFSET_BASIS;
+		for ( int i = 0; i < key.length(); ++i )
+		{
+			hash ^= key.charAt(i);
+			hash *= FNV_PRIME;
+		}
+
+		// final mix so that the low bits (slot) and high bits (segment) are both well distributed
+		hash ^= (hash >>> 33);
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= (hash >>> 33);
+
+		return (hash != EMPTY_HASH) ? hash : 1;
+	}
+
+	@Override
+	public CCDB2IndexEntry acquire(String key)
+	{
+		long 		hash = hashKey(key);
+		Segment 	segment = getSegment(hash);
+		synchronized(segment)
+		{
+			CCDB2IndexEntry 	overflowEntry = fOverflow.acquire(key);
+			if ( overflowEntry != null )
+			{
+				return overflowEntry;
+			}
+
+			LiveEntry 	live = segment.fLive.get(hash);
+			if ( live != null )
+			{
+				if ( !live.key.equals(key) )
+				{
+					return null;	// hash collision with a different key that's in use
+				}
+				++live.useCount;
+				return live.entry;
+			}
+
+			int 		slot = segment.find(hash);
+			return (slot >= 0) ? segment.makeLive(key, hash, slot) : null;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}<br><br>
+	 *
+	 * Before an existing slot is used for the key, the key of the slot's record is read (outside of the segment lock) to
+	 * make sure that the slot isn't another key's with the same hash. If it is, the key is added to the overflow index. If
+	 * the slot's record can't be read, the slot is stale and the key replaces it.
+	 */
+	@Override
+	public CCDB2IndexEntry acquireOrAdd(String key, CCDB2IndexEntry newEntry)
+	{
+		long 		hash = hashKey(key);
+		Segment 	segment = getSegment(hash);
+		long 		checkedAddress = CCDB2IndexEntry.NOT_EXISTS_ADDRESS;
+		String 		checkedKey = null;
+		for(;;)
+		{
+			synchronized(segment)
+			{
+				CCDB2IndexEntry 	overflowEntry = fOverflow.acquire(key);
+				if ( overflowEntry != null )
+				{
+					return overflowEntry;
+				}
+
+				LiveEntry 	live = segment.fLive.get(hash);
+				if ( live != null )
+				{
+					if ( !live.key.equals(key) )
+					{
+						return fOverflow.acquireOrAdd(key, newEntry);	// a different key with the same hash is in use
+					}
+					++live.useCount;
+					return live.entry;
+				}
+
+				int 		slot = segment.find(hash);
+				if ( slot >= 0 )
+				{
+					long 		address = segment.fAddresses[slot];
+					if ( (address < CCDB2IndexEntry.MINIMUM_ACTIVE_ADDRESS) || (fKeyReader == null) )
+					{
+						return segment.makeLive(key, hash, slot);
+					}
+					if ( address != checkedAddress )
+					{
+						checkedAddress = address;	// check the record's key and try again
+					}
+					else if ( key.equals(checkedKey) )
+					{
+						return segment.makeLive(key, hash, slot);
+					}
+					else if ( checkedKey != null )
+					{
+						return fOverflow.acquireOrAdd(key, newEntry);	// the slot is a different key's with the same hash
+					}
+					else
+					{
+						slot = -1;	// the slot's record is gone - replace it
+					}
+				}
+
+				if ( slot < 0 )
+				{
+					segment.insert(hash, newEntry.address, newEntry.TTLDelta);
+					segment.fLive.put(hash, new LiveEntry(key, newEntry));
+					return null;
+				}
+			}
+
+			checkedKey = readSlotKey(checkedAddress);
+		}
+	}
+
+	@Override
+	public void retain(String key, CCDB2IndexEntry entry)
+	{
+		long 		hash = hashKey(key);
+		Segment 	segment = getSegment(hash);
+		synchronized(segment)
+		{
+			LiveEntry 	live = segment.fLive.get(hash);
+			if ( (live != null) && (live.entry == entry) )
+			{
+				++live.useCount;
+			}
+		}
+	}
+
+	@Override
+	public void release(String key, CCDB2IndexEntry entry)
+	{
+		long 		hash = hashKey(key);
+		Segment 	segment = getSegment(hash);
+		synchronized(segment)
+		{
+			LiveEntry 	live = segment.fLive.get(hash);
+			if ( (live == null) || (live.entry != entry) )
+			{
+				return;	// detached
+			}
+
+			if ( --live.useCount == 0 )
+			{
+				// every change to the entry was made by a user before its release (under this lock) so it's visible here
+				segment.fLive.remove(hash);
+				int 	slot = segment.find(hash);
+				if ( slot >= 0 )
+				{
+					segment.fAddresses[slot] = entry.address;
+					segment.fTTLDeltas[slot] = entry.TTLDelta;
+				}
+			}
+		}
+	}
+
+	@Override
+	public boolean remove(String key)
+	{
+		long 		hash = hashKey(key);
+		Segment 	segment = getSegment(hash);
+		synchronized(segment)
+		{
+			if ( fOverflow.remove(key) )
+			{
+				return true;
+			}
+
+			LiveEntry 	live = segment.fLive.get(hash);
+			if ( live != null )
+			{
+				if ( !live.key.equals(key) )
+				{
+					return false;
+				}
+				segment.fLive.remove(hash);
+			}
+
+			int 		slot = segment.find(hash);
+			if ( slot < 0 )
+			{
+				return false;
+			}
+			segment.delete(slot);
+			return true;
+		}
+	}
+
+	@Override
+	public void load(String key, long address, int TTLDelta)
+	{
+		long 		hash = hashKey(key);
+		Segment 	segment = getSegment(hash);
+		synchronized(segment)
+		{
+			segment.insert(hash, address, TTLDelta);
+		}
+	}
+
+	@Override
+	public void scheduleLoadedExpirations()
+	{
+		for ( Segment segment : fSegments )
+		{
+			synchronized(segment)
+			{
+				for ( int i = 0; i < segment.fHashes.length; ++i )
+				{
+					if ( (segment.fHashes[i] != EMPTY_HASH) && (segment.fTTLDeltas[i] > 0) )
+					{
+						scheduleHash(segment.fHashes[i], CCDB2ExpirationSchedule.getTick(segment.fTTLDeltas[i]));
+					}
+				}
+			}
+		}
+	}
+
+	@Override
+	public void scheduleExpiration(String key, int TTLDelta)
+	{
+		if ( TTLDelta > 0 )
+		{
+			long 		hash = hashKey(key);
+			Segment 	segment = getSegment(hash);
+			synchronized(segment)
+			{
+				if ( fOverflow.acquire(key) != null )
+				{
+					fOverflow.scheduleExpiration(key, TTLDelta);
+					return;
+				}
+			}
+			scheduleHash(hash, CCDB2ExpirationSchedule.getTick(TTLDelta));
+		}
+	}
+
+	@Override
+	public int removeExpired(long creationDate, long now, int maxQty, ExpiredKeyHandler handler)
+	{
+		int 		qty = 0;
+		int 		examinedQty = 0;
+		while ( examinedQty < maxQty )
+		{
+			Map.Entry<Integer, ExpirationBucket> 	due = fExpirations.getFirstDue(creationDate, now);
+			if ( due == null )
+			{
+				break;
+			}
+
+			ExpirationBucket 	bucket = due.getValue();
+			long 				hash;
+			while ( (examinedQty < maxQty) && ((hash = bucket.poll()) != EMPTY_HASH) )
+			{
+				++examinedQty;
+				if ( removeIfExpired(hash, creationDate, now, handler) )
+				{
+					++qty;
+				}
+			}
+
+			if ( bucket.isEmpty() && fExpirations.remove(due.getKey(), bucket) )
+			{
+				// hashes added while the bucket was being removed
+				while ( (hash = bucket.poll()) != EMPTY_HASH )
+				{
+					if ( removeIfExpired(hash, creationDate, now, handler) )
+					{
+						++qty;
+					}
+				}
+			}
+		}
+
+		if ( examinedQty < maxQty )
+		{
+			qty += fOverflow.removeExpired(creationDate, now, maxQty - examinedQty, handler);
+		}
+		return qty;
+	}
+
+	@Override
+	public int getExpirationBucketQty()
+	{
+		return fExpirations.getBucketQty() + fOverflow.getExpirationBucketQty();
+	}
+
+	@Override
+	public void visitEntries(EntryVisitor visitor)
+	{
+		for ( Segment segment : fSegments )
+		{
+			visitSegment(segment, visitor);
+		}
+		fOverflow.visitEntries(visitor);
+	}
+
+	@Override
+	public void visitEntriesInParallel(ForkJoinPool pool, final EntryVisitor visitor)
+	{
+		// the segments are the shards - keys are read from the DB concurrently
+		List<ForkJoinTask<?>> 	tasks = new ArrayList<ForkJoinTask<?>>();
+		for ( final Segment segment : fSegments )
+		{
+			tasks.add
+			(
+				pool.submit
+				(
+					new Runnable()
+					{
+						@Override
+						public void run()
+						{
+							visitSegment(segment, visitor);
+						}
+					}
+				)
+			);
+		}
+		fOverflow.visitEntriesInParallel(pool, visitor);
+
+		for ( ForkJoinTask<?> task : tasks )
+		{
+			task.join();
+		}
+	}
+
+	@Override
+	public int removeInvalidEntries(ForkJoinPool pool, final KeyReader reader)
+	{
+		final AtomicInteger 	qty = new AtomicInteger(0);
+		List<ForkJoinTask<?>> 	tasks = new ArrayList<ForkJoinTask<?>>();
+		for ( final Segment segment : fSegments )
+		{
+			tasks.add
+			(
+				pool.submit
+				(
+					new Runnable()
+					{
+						@Override
+						public void run()
+						{
+							qty.addAndGet(removeInvalidSegmentEntries(segment, reader));
+						}
+					}
+				)
+			);
+		}
+
+		qty.addAndGet(fOverflow.removeInvalidEntries(pool, reader));
+
+		for ( ForkJoinTask<?> task : tasks )
+		{
+			task.join();
+		}
+		return qty.get();
+	}
+
+	@Override
+	public int size()
+	{
+		int 		size = fOverflow.size();
+		for ( Segment segment : fSegments )
+		{
+			size += segment.fSize;
+		}
+		return size;
+	}
+
+	@Override
+	public long getIndexSize()
+	{
+		long 		size = 0;
+		for ( Segment segment : fSegments )
+		{
+			synchronized(segment)
+			{
+				size += (long)segment.fHashes.length * SLOT_SIZE;
+				size += (long)segment.fLive.size() * LIVE_ENTRY_SIZE;
+			}
+		}
+		return size + fOverflow.getIndexSize();
+	}
+
+	private String 	readSlotKey(long address)
+	{
+		try
+		{
+			return fKeyReader.readKey(address);
+		}
+		catch ( IOException e )
+		{
+			return null;	// treated as a record that's gone - the key replaces the slot
+		}
+	}
+
+	private void 	visitSegment(Segment segment, EntryVisitor visitor)
+	{
+		List<LiveEntry> 	liveEntries;
+		long[] 				hashes;
+		long[] 				addresses;
+		int[] 				TTLDeltas;
+		int 				qty = 0;
+		synchronized(segment)
+		{
+			liveEntries = new ArrayList<LiveEntry>(segment.fLive.values());
+			hashes = new long[segment.fSize];
+			addresses = new long[segment.fSize];
+			TTLDeltas = new int[segment.fSize];
+			for ( int i = 0; i < segment.fHashes.length; ++i )
+			{
+				long 	hash = segment.fHashes[i];
+				if ( (hash != EMPTY_HASH) && (segment.fAddresses[i] >= CCDB2IndexEntry.MINIMUM_ACTIVE_ADDRESS) && !segment.fLive.containsKey(hash) )
+				{
+					hashes[qty] = hash;
+					addresses[qty] = segment.fAddresses[i];
+					TTLDeltas[qty] = segment.fTTLDeltas[i];
+					++qty;
+				}
+			}
+		}
+
+		for ( LiveEntry live : liveEntries )
+		{
+			visitor.visit(live.key, live.entry.address, live.entry.TTLDelta);
+		}
+
+		// keys are read outside of the lock
+		for ( int i = 0; i < qty; ++i )
+		{
+			String 		key;
+			try
+			{
+				key = fKeyReader.readKey(addresses[i]);
+			}
+			catch ( IOException e )
+			{
+				key = null;
+			}
+
+			// a key in the overflow may have left a stale slot behind - the overflow's entry is current
+			if ( (key != null) && (hashKey(key) == hashes[i]) && (fOverflow.acquire(key) == null) )
+			{
+				visitor.visit(key, addresses[i], TTLDeltas[i]);
+			}
+		}
+	}
+
+	private int 	removeInvalidSegmentEntries(Segment segment, KeyReader reader)
+	{
+		long[] 				hashes;
+		long[] 				addresses;
+		int 				qty = 0;
+		synchronized(segment)
+		{
+			hashes = new long[segment.fSize];
+			addresses = new long[segment.fSize];
+			for ( int i = 0; i < segment.fHashes.length; ++i )
+			{
+				long 	hash = segment.fHashes[i];
+				if ( (hash != EMPTY_HASH) && (segment.fAddresses[i] >= CCDB2IndexEntry.MINIMUM_ACTIVE_ADDRESS) && !segment.fLive.containsKey(hash) )
+				{
+					hashes[qty] = hash;
+					addresses[qty] = segment.fAddresses[i];
+					++qty;
+				}
+			}
+		}
+
+		// records are read outside of the lock
+		int 				removedQty = 0;
+		for ( int i = 0; i < qty; ++i )
+		{
+			String 		key;
+			try
+			{
+				key = reader.readKey(addresses[i]);
+			}
+			catch ( IOException e )
+			{
+				key = null;
+			}
+
+			if ( (key == null) || (hashKey(key) != hashes[i]) )
+			{
+				synchronized(segment)
+				{
+					int 	slot = segment.find(hashes[i]);
+					if ( (slot >= 0) && (segment.fAddresses[slot] == addresses[i]) && !segment.fLive.containsKey(hashes[i]) )
+					{
+						segment.delete(slot);
+						++removedQty;
+					}
+				}
+			}
+		}
+		return removedQty;
+	}
+
+	private boolean removeIfExpired(long hash, long creationDate, long now, ExpiredKeyHandler handler)
+	{
+		boolean 	isRemoved = false;
+		long 		address = CCDB2IndexEntry.NOT_EXISTS_ADDRESS;
+		Segment 	segment = getSegment(hash);
+		synchronized(segment)
+		{
+			// hashes whose TTL has changed since they were scheduled are skipped - they've been scheduled again
+			int 		slot = segment.find(hash);
+			if ( (slot < 0) || (segment.fTTLDeltas[slot] <= 0) || (now < (creationDate + segment.fTTLDeltas[slot])) )
+			{
+				return false;
+			}
+
+			if ( !segment.fLive.containsKey(hash) )
+			{
+				address = segment.fAddresses[slot];
+				segment.delete(slot);
+				isRemoved = true;
+			}
+		}
+
+		if ( !isRemoved )
+		{
+			// the entry is in use and can't be removed - try again on the next tick
+			scheduleHash(hash, CCDB2ExpirationSchedule.getTick(now - creationDate) + 1);
+			return false;
+		}
+
+		// expiring doesn't change the record so its key can still be read - a deleted key has nothing to report
+		String 		key = (address >= CCDB2IndexEntry.MINIMUM_ACTIVE_ADDRESS) ? readSlotKey(address) : null;
+		if ( (key != null) && (hashKey(key) == hash) )
+		{
+			handler.keyExpired(key);
+		}
+		return true;
+	}
+
+	private void 	scheduleHash(long hash, int tick)
+	{
+		for(;;)
+		{
+			ExpirationBucket 	bucket = fExpirations.getBucket(tick);
+			bucket.add(hash);
+			if ( fExpirations.isScheduled(tick, bucket) )
+			{
+				break;
+			}
+		}
+	}
+
+	private Segment getSegment(long hash)
+	{
+		return fSegments[(int)(hash >>> (64 - SEGMENT_SHIFT))];	// high bits pick the segment, low bits pick the slot
+	}
+
+	private static class LiveEntry
+	{
+		final String 				key;
+		final CCDB2IndexEntry 		entry;
+		int 						useCount;
+
+		private LiveEntry(String key, CCDB2IndexEntry entry)
+		{
+			this.key = key;
+			this.entry = entry;
+			useCount = 1;
+		}
+	}
+
+	/**
+	 * A bucket of hashes scheduled to expire in the same tick
+	 */
+	private static class ExpirationBucket
+	{
+		synchronized void 		add(long hash)
+		{
+			if ( fQty == fHashes.length )
+			{
+				fHashes = Arrays.copyOf(fHashes, fHashes.length * 2);
+			}
+			fHashes[fQty++] = hash;
+		}
+
+		/**
+		 * @return the next hash or {@link CCDB2PrimitiveIndex#EMPTY_HASH} if the bucket is empty
+		 */
+		synchronized long 		poll()
+		{
+			return (fQty > 0) ? fHashes[--fQty] : EMPTY_HASH;
+		}
+
+		synchronized boolean 	isEmpty()
+		{
+			return fQty == 0;
+		}
+
+		private long[] 		fHashes = new long[INITIAL_EXPIRATION_BUCKET_CAPACITY];
+		private int 		fQty = 0;
+	}
+
+	/**
+	 * An open-addressed table. All methods must be called while synchronized on the segment.
+	 */
+	private static class Segment
+	{
+		Segment()
+		{
+			allocate(INITIAL_SEGMENT_CAPACITY);
+			fSize = 0;
+			fLive = new HashMap<Long, LiveEntry>();
+		}
+
+		int 		find(long hash)
+		{
+			int 		mask = fHashes.length - 1;
+			int 		slot = (int)hash & mask;
+			while ( fHashes[slot] != EMPTY_HASH )
+			{
+				if ( fHashes[slot] == hash )
+				{
+					return slot;
+				}
+				slot = (slot + 1) & mask;
+			}
+			return -1;
+		}
+
+		CCDB2IndexEntry 	makeLive(String key, long hash, int slot)
+		{
+			CCDB2IndexEntry 	entry = new CCDB2IndexEntry();
+			entry.address = fAddresses[slot];
+			entry.TTLDelta = fTTLDeltas[slot];
+			fLive.put(hash, new LiveEntry(key, entry));
+			return entry;
+		}
+
+		void 		insert(long hash, long address, int TTLDelta)
+		{
+			if ( ((fSize + 1) * 4L) > (fHashes.length * 3L) )	// max load factor .75
+			{
+				grow();
+			}
+
+			int 		mask = fHashes.length - 1;
+			int 		slot = (int)hash & mask;
+			while ( (fHashes[slot] != EMPTY_HASH) && (fHashes[slot] != hash) )
+			{
+				slot = (slot + 1) & mask;
+			}
+
+			if ( fHashes[slot] == EMPTY_HASH )
+			{
+				fHashes[slot] = hash;
+				++fSize;
+			}
+			fAddresses[slot] = address;
+			fTTLDeltas[slot] = TTLDelta;
+		}
+
+		/**
+		 * Backward shift deletion - no tombstones are needed
+		 *
+		 * @param slot slot to delete
+		 */
+		void 		delete(int slot)
+		{
+			int 		mask = fHashes.length - 1;
+			int 		hole = slot;
+			int 		current = slot;
+			for(;;)
+			{
+				current = (current + 1) & mask;
+				long 	hash = fHashes[current];
+				if ( hash == EMPTY_HASH )
+				{
+					break;
+				}
+
+				int 	home = (int)hash & mask;
+				boolean homeIsBetween = (hole <= current) ? ((hole < home) && (home <= current)) : ((hole < home) || (home <= current));
+				if ( !homeIsBetween )
+				{
+					fHashes[hole] = hash;
+					fAddresses[hole] = fAddresses[current];
+					fTTLDeltas[hole] = fTTLDeltas[current];
+					hole = current;
+				}
+			}
+
+			fHashes[hole] = EMPTY_HASH;
+			fAddresses[hole] = 0;
+			fTTLDeltas[hole] = 0;
+			--fSize;
+		}
+
+		private void 	grow()
+		{
+			long[] 		oldHashes = fHashes;
+			long[] 		oldAddresses = fAddresses;
+			int[] 		oldTTLDeltas = fTTLDeltas;
+
+			allocate(oldHashes.length * 2);
+			int 		mask = fHashes.length - 1;
+			for ( int i = 0; i < oldHashes.length; ++i )
+			{
+				long 	hash = oldHashes[i];
+				if ( hash != EMPTY_HASH )
+				{
+					int 	slot = (int)hash & mask;
+					while ( fHashes[slot] != EMPTY_HASH )
+					{
+						slot = (slot + 1) & mask;
+					}
+					fHashes[slot] = hash;
+					fAddresses[slot] = oldAddresses[i];
+					fTTLDeltas[slot] = oldTTLDeltas[i];
+				}
+			}
+		}
+
+		private void 	allocate(int capacity)
+		{
+			fHashes = new long[capacity];
+			fAddresses = new long[capacity];
+			fTTLDeltas = new int[capacity];
+		}
+
+		private long[] 								fHashes;
+		private long[] 								fAddresses;
+		private int[] 								fTTLDeltas;
+		private volatile int 						fSize;
+		private final HashMap<Long, LiveEntry> 		fLive;
+	}
+
+	private static final long 		EMPTY_HASH = 0;
+
+	private static final long 		FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long 		FNV_PRIME = 0x100000001b3L;
+
+	private static final int 		SEGMENT_SHIFT = 6;
+	private static final int 		SEGMENT_QTY = 1 << SEGMENT_SHIFT;
+	private static final int 		INITIAL_SEGMENT_CAPACITY = 256;		// must be a power of 2
+	private static final int 		INITIAL_EXPIRATION_BUCKET_CAPACITY = 16;
+
+	private static final int 		SLOT_SIZE = 8 + 8 + 4;
+	private static final int 		LIVE_ENTRY_SIZE = 64;	// approx: LiveEntry + CCDB2IndexEntry + HashMap node
+
+	private final KeyReader 		fKeyReader;
+	private final Segment[] 		fSegments;
+	private final CCDB2MapIndex 	fOverflow;
+	private final CCDB2ExpirationSchedule<ExpirationBucket> 	fExpirations;
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2008-2009 SHOP.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shop.util.ccdb2;
+
+import java.io.IOException;
+
+/**
+ * Read-only I/O - the reads needed to load a record<br>
+ *
+ * @author Jordan Zimmerman
+ */
+public interface CCDB2Reader extends CCDB2ReadFully
+{
+	/**
+	 * Seek to the given offset
+	 *
+	 * @param i offset
+	 * @throws IOException errors
+	 */
+	public void seek(long i) throws IOException;
+
+	/**
+	 * Read a byte from the current offset
+	 *
+	 * @return the byte
+	 * @throws IOException errors
+	 */
+	public byte readByte() throws IOException;
+
+	/**
+	 * Read a long from the current offset
+	 *
+	 * @return the long
+	 * @throws IOException errors
+	 */
+	public long readLong() throws IOException;
+
+	/**
+	 * Read up to length bytes from the current offset
+	 *
+	 * @param bytes buffer to read into
+	 * @param offset offset within the buffer
+	 * @param length maximum number of bytes to read
+	 * @return number of bytes read or -1 at EOF
+	 * @throws IOException errors
+	 */
+	public int read(byte[] bytes, int offset, int length) throws IOException;
+
+	@Override
+	public void readFully(byte[] buffer) throws IOException;
+}
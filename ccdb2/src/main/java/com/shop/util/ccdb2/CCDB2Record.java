@@ -18,12 +18,12 @@ package com.shop.util.ccdb2;
 import com.shop.util.chunked.ChunkedByteArray;
 import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.RandomAccessFile;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
 
 /**
  * Manages individual DB records<br>
@@ -42,64 +42,112 @@ class CCDB2Record
 	 */
 	static final byte		OPCODE_DELETED_RECORD = (byte)0xEB;
 
+	/**
+	 * Denotes a normal record whose object is compressed (see {@link CCDB2Codec})
+	 */
+	static final byte		OPCODE_COMPRESSED_RECORD = (byte)0xAC;
+
 	/**
 	 * Wrap an existing record
 	 *
 	 * @param file the file
-	 * @param useCRCs true if CRCs are used
+	 * @param checksum the kind of checksum used by the file
 	 * @param address object's address
 	 * @return record
 	 */
-	static CCDB2Record existingRecord(CCDB2File file, boolean useCRCs, long address)
+	static CCDB2Record existingRecord(CCDB2File file, CCDB2Checksum checksum, long address)
 	{
-		 return new CCDB2Record(file, useCRCs, address);
+		 return new CCDB2Record(file, checksum, address);
 	}
 
 	/**
-	 * Wrap a new record - space in the file will be allocated for the record, though the object is not yet written
+	 * Wrap a new record without allocating space for it. Use {@link #writeNewRecords(CCDB2File, List)} to
+	 * allocate and write a batch of these records at once or {@link #useFreeSpace(CCDB2FreeSpaceMap.FreeRecord)}
+	 * and {@link #write()} to write it into the space of a deleted record.
 	 *
 	 * @param file the file
-	 * @param useCRCs true if CRCs are used
+	 * @param checksum the kind of checksum used by the file
 	 * @param key object key
 	 * @param bytes the object bytes
 	 * @param groupSpecs groups it belongs to or null
+	 * @param compressionThreshold objects of at least this size are compressed - 0 means never
 	 * @return the record
 	 * @throws IOException errors
 	 */
-	static CCDB2Record newRecord(CCDB2File file, boolean useCRCs, String key, ChunkedByteArray bytes, long[] groupSpecs) throws IOException
-	{
-		CCDB2Record 		record = new CCDB2Record(file, useCRCs, NULL_ADDRESS);
-		record.fKey = key;
-		record.fKeySize = key.length();
-		record.fObject = bytes;
-		record.fGroupSpecs = groupSpecs;
-		record.fGroupSpecQty = (groupSpecs != null) ? groupSpecs.length : 0;
-		record.fObjectSize = bytes.size();
-		record.allocateRecord();
+	static CCDB2Record unallocatedRecord(CCDB2File file, CCDB2Checksum checksum, String key, ChunkedByteArray bytes, long[] groupSpecs, int compressionThreshold) throws IOException
+	{
+		CCDB2Record 		record = new CCDB2Record(file, checksum, NULL_ADDRESS);
+		record.setFields(key, bytes, groupSpecs, compressionThreshold);
+		record.calcRecordSize();
 		return record;
 	}
 
 	/**
-	 * Mark a record as deleted. This causes {@link #OPCODE_DELETED_RECORD} to be written at the object's address
+	 * Allocate one contiguous region for the given records (as returned by {@link #unallocatedRecord(CCDB2File, CCDB2Checksum, String, ChunkedByteArray, long[], int)})
+	 * and write them all with a single write. Each record's address is updated.
 	 *
+	 * @param file the file
+	 * @param records the records to write
 	 * @throws IOException errors
 	 */
-	void markDeleted() throws IOException
+	static void writeNewRecords(CCDB2File file, List<CCDB2Record> records) throws IOException
 	{
-		CCDB2io 		io = getFile();
-		try
+		int 		totalSize = 0;
+		for ( CCDB2Record record : records )
 		{
-			io.writeByte(OPCODE_DELETED_RECORD);
-			fIsDeletedRecord = true;
+			totalSize += record.fRecordSize;
 		}
-		finally
+
+		long 		address = file.allocate(totalSize);
+		ByteBuffer 	buffer = ByteBuffer.allocate(totalSize);
+		for ( CCDB2Record record : records )
 		{
-			releaseIO(io);
+			record.fAddress = address + buffer.position();
+			record.putRecord(buffer);
 		}
+		buffer.flip();
+		file.writeFully(buffer, address);
+	}
+
+	/**
+	 * Place an unallocated record into the space of a deleted record. The record keeps the deleted record's
+	 * size so that the file's record chain is maintained.
+	 *
+	 * @param freeRecord the free space - must be at least {@link #getRecordSize()} bytes
+	 */
+	void useFreeSpace(CCDB2FreeSpaceMap.FreeRecord freeRecord)
+	{
+		assert (fAddress == NULL_ADDRESS) && (freeRecord.size >= fRecordSize);
+
+		fAddress = freeRecord.address;
+		fRecordSize = freeRecord.size;
+	}
+
+	/**
+	 * Returns the total size of the record in the file
+	 *
+	 * @return size
+	 */
+	int getRecordSize()
+	{
+		return fRecordSize;
 	}
 
 	/**
-	 * Returns true if the saved CRC matches a new CRC generated on the object. If CRCs are turned off, though, true is always returned
+	 * Mark a record as deleted. This causes {@link #OPCODE_DELETED_RECORD} to be written at the object's address
+	 *
+	 * @throws IOException errors
+	 */
+	void markDeleted() throws IOException
+	{
+		CCDB2io 		io = getFile();
+		io.writeByte(OPCODE_DELETED_RECORD);
+		fIsDeletedRecord = true;
+	}
+
+	/**
+	 * Returns true if the saved CRC matches a new CRC generated on the object (as stored - i.e. before it's decompressed).
+	 * If CRCs are turned off, though, true is always returned
 	 *
 	 * @return true/false
 	 */
@@ -108,11 +156,21 @@ class CCDB2Record
 		boolean		result = true;
 		if ( fUseCRCs )
 		{
-			result = (hash(fObject) == fCRC);
+			result = (fChecksum.compute(fStoredObject) == fCRC);
 		}
 		return result;
 	}
 
+	/**
+	 * Returns true if the record's object is compressed
+	 *
+	 * @return true/false
+	 */
+	boolean isCompressed()
+	{
+		return fIsCompressed;
+	}
+
 	/**
 	 * Returns true if this is a deleted record
 	 *
@@ -134,7 +192,7 @@ class CCDB2Record
 	}
 
 	/**
-	 * Return the data/object length
+	 * Return the data/object length as stored - i.e. the compressed length for compressed records
 	 *
 	 * @return length
 	 */
@@ -143,6 +201,16 @@ class CCDB2Record
 		return fObjectSize;
 	}
 
+	/**
+	 * Return the file address of the object data
+	 *
+	 * @return address
+	 */
+	long getObjectAddress()
+	{
+		return fAddress + getSizesSize() + fKeySize + (fGroupSpecQty * 8L);
+	}
+
 	/**
 	 * Returns the number of associated groups or 0
 	 *
@@ -174,12 +242,17 @@ class CCDB2Record
 	}
 
 	/**
-	 * Return the object data
+	 * Return the object data. Compressed objects are decompressed on the first call.
 	 *
 	 * @return data
+	 * @throws IOException errors or corrupted compressed data
 	 */
-	ChunkedByteArray getObject()
+	ChunkedByteArray getObject() throws IOException
 	{
+		if ( (fObject == null) && (fStoredObject != null) )
+		{
+			fObject = CCDB2Codec.decompressObject(fStoredObject, fDoChunking);
+		}
 		return fObject;
 	}
 
@@ -230,61 +303,26 @@ class CCDB2Record
 	 * @param key the key
 	 * @param object the data
 	 * @param groupSpecs associated groups or null
+	 * @param compressionThreshold objects of at least this size are compressed - 0 means never
 	 * @throws IOException erros.
 	 */
-	void writeRecord(String key, ChunkedByteArray object, long[] groupSpecs) throws IOException
+	void writeRecord(String key, ChunkedByteArray object, long[] groupSpecs, int compressionThreshold) throws IOException
 	{
-		CCDB2io 		io = getFile();
-		try
-		{
-			fKeySize = key.length();
-			fObjectSize = object.size();
-			fCRC = fUseCRCs ? hash(object) : 0;
-			fKey = key;
-			fIsDeletedRecord = false;
-			fObject = object;
-			fGroupSpecs = groupSpecs;
-			fGroupSpecQty = (groupSpecs != null) ? groupSpecs.length : 0;
-
-			writeSizes(io);
-			io.write(getKeyBytes(fKey));
-			if ( fGroupSpecs != null )
-			{
-				for ( long spec : fGroupSpecs )
-				{
-					io.writeLong(spec);
-				}
-			}
-
-			final RandomAccessFile file = io.getUnderlyingFile();
-			fObject.writeTo
-			(
-				new OutputStream()
-				{
-					@Override
-					public void write(int b) throws IOException
-					{
-						file.write(b);
-					}
-
-					@Override
-					public void write(byte b[]) throws IOException
-					{
-						file.write(b);
-					}
+		setFields(key, object, groupSpecs, compressionThreshold);
+		write();
+	}
 
-					@Override
-					public void write(byte b[], int off, int len) throws IOException
-					{
-						file.write(b, off, len);
-					}
-				}
-			);
-		}
-		finally
-		{
-			releaseIO(io);
-		}
+	/**
+	 * Writes the record's current fields to its address
+	 *
+	 * @throws IOException errors
+	 */
+	void write() throws IOException
+	{
+		ByteBuffer 		buffer = ByteBuffer.allocate(getSizesSize() + fKeySize + (fGroupSpecQty * 8) + fObjectSize);
+		putRecord(buffer);
+		buffer.flip();
+		fFile.writeFully(buffer, fAddress);
 	}
 
 	/**
@@ -316,7 +354,9 @@ class CCDB2Record
 	 */
 	void			load(CCDB2Driver driver, LoadMode mode) throws IOException
 	{
-		CCDB2io 		io = getFile();
+		fDoChunking = driver.doChunking();
+
+		CCDB2Reader 	io = getReadFile();
 		try
 		{
 			loadSizes(io);
@@ -345,10 +385,6 @@ class CCDB2Record
 			fIsDeletedRecord = true;
 			fIsAtDeadByte = true;
 		}
-		finally
-		{
-			releaseIO(io);
-		}
 	}
 
 	static byte[] getKeyBytes(String key)
@@ -361,19 +397,25 @@ class CCDB2Record
 		return b;
 	}
 
+	static String getKeyFromBytes(byte[] bytes)
+	{
+		return new String(bytes);
+	}
+
 	static String readKey(CCDB2ReadFully file, int keySize) throws IOException
 	{
 		byte[]		buffer = new byte[keySize];
 		file.readFully(buffer);
-		return new String(buffer);
+		return getKeyFromBytes(buffer);
 	}
 
 	private static final long			NULL_ADDRESS = -1;
 
-	private CCDB2Record(CCDB2File file, boolean useCRCs, long address)
+	private CCDB2Record(CCDB2File file, CCDB2Checksum checksum, long address)
 	{
 		fFile = file;
-		fUseCRCs = useCRCs;
+		fChecksum = checksum;
+		fUseCRCs = (checksum != CCDB2Checksum.NONE);
 		fAddress = address;
 		fSizesBuffer = new byte[getSizesSize()];
 	}
@@ -389,48 +431,74 @@ class CCDB2Record
 			(fUseCRCs ? 4 : 0);	// crc
 	}
 
-	private void allocateRecord() throws IOException
+	private void calcRecordSize()
 	{
-		assert (fKey.length() > 0) && (fObject.size() > 0);
+		assert (fKey.length() > 0) && (fStoredObject.size() > 0);
 
 		fRecordSize =
 			getSizesSize() +
 			fKey.length() + 		// key size int
-			fObject.size() +		// object size int
+			fStoredObject.size() +	// object size int
 			(fGroupSpecQty * 8);		// group specs
-		fAddress = fFile.allocate(fRecordSize);
 	}
 
-	private void writeSizes(CCDB2io file) throws IOException
+	private void setFields(String key, ChunkedByteArray object, long[] groupSpecs, int compressionThreshold) throws IOException
+	{
+		ChunkedByteArray 	compressed = ((compressionThreshold > 0) && (object.size() >= compressionThreshold)) ? CCDB2Codec.DEFLATE.compressObject(object) : null;
+		fIsCompressed = (compressed != null);
+		fStoredObject = fIsCompressed ? compressed : object;
+
+		fKeySize = key.length();
+		fObjectSize = fStoredObject.size();
+		fCRC = fChecksum.compute(fStoredObject);
+		fKey = key;
+		fIsDeletedRecord = false;
+		fObject = object;
+		fGroupSpecs = groupSpecs;
+		fGroupSpecQty = (groupSpecs != null) ? groupSpecs.length : 0;
+	}
+
+	private void putRecord(final ByteBuffer buffer) throws IOException
 	{
-		DataOutputStream	out = new DataOutputStream
+		buffer.put(fIsDeletedRecord ? OPCODE_DELETED_RECORD : (fIsCompressed ? OPCODE_COMPRESSED_RECORD : OPCODE_NORMAL_RECORD));
+		buffer.putInt(fRecordSize);
+		buffer.putInt(fKeySize);
+		buffer.putInt(fObjectSize);
+		buffer.putInt(fGroupSpecQty);
+		if ( fUseCRCs )
+		{
+			buffer.putInt(fCRC);
+		}
+
+		buffer.put(getKeyBytes(fKey));
+		if ( fGroupSpecs != null )
+		{
+			for ( long spec : fGroupSpecs )
+			{
+				buffer.putLong(spec);
+			}
+		}
+
+		fStoredObject.writeTo
 		(
 			new OutputStream()
 			{
 				@Override
 				public void write(int b) throws IOException
 				{
-					fSizesBuffer[fIndex++] = (byte)(b & 0xff);
+					buffer.put((byte)(b & 0xff));
 				}
 
-				private int fIndex = 0;
+				@Override
+				public void write(byte b[], int off, int len) throws IOException
+				{
+					buffer.put(b, off, len);
+				}
 			}
 		);
-
-		out.writeByte(fIsDeletedRecord ? OPCODE_DELETED_RECORD : OPCODE_NORMAL_RECORD);
-		out.writeInt(fRecordSize);
-		out.writeInt(fKeySize);
-		out.writeInt(fObjectSize);
-		out.writeInt(fGroupSpecQty);
-		if ( fUseCRCs )
-		{
-			out.writeInt(fCRC);
-		}
-
-		file.write(fSizesBuffer);
 	}
 
-	private void loadSizes(CCDB2io file) throws IOException
+	private void loadSizes(CCDB2Reader file) throws IOException
 	{
 		try
 		{
@@ -451,12 +519,13 @@ class CCDB2Record
 			return;
 		}
 
-		if ( (opcode != OPCODE_NORMAL_RECORD) && (opcode != OPCODE_DELETED_RECORD) )
+		if ( (opcode != OPCODE_NORMAL_RECORD) && (opcode != OPCODE_DELETED_RECORD) && (opcode != OPCODE_COMPRESSED_RECORD) )
 		{
 			throw new IOException("File is corrupted at address: " + fAddress);
 		}
 
 		fIsDeletedRecord = (opcode == OPCODE_DELETED_RECORD);
+		fIsCompressed = (opcode == OPCODE_COMPRESSED_RECORD);
 		fRecordSize = in.readInt();
 		if ( !fIsDeletedRecord )
 		{
@@ -464,6 +533,12 @@ class CCDB2Record
 			fObjectSize = in.readInt();
 			fGroupSpecQty = in.readInt();
 			fCRC = fUseCRCs ? in.readInt() : 0;
+
+			// records are read without holding the entry's lock so a concurrent rewrite can produce a torn header - don't trust the sizes blindly
+			if ( (fKeySize < 0) || (fObjectSize < 0) || (fGroupSpecQty < 0) || ((getSizesSize() + (long)fKeySize + fObjectSize + (fGroupSpecQty * 8L)) > fRecordSize) )
+			{
+				throw new IOException("File is corrupted at address: " + fAddress);
+			}
 		}
 		else
 		{
@@ -474,12 +549,12 @@ class CCDB2Record
 		}
 	}
 
-	private void loadKey(CCDB2io file) throws IOException
+	private void loadKey(CCDB2Reader file) throws IOException
 	{
 		fKey = readKey(file, fKeySize);
 	}
 
-	private void loadGroupSpecs(CCDB2io file) throws IOException
+	private void loadGroupSpecs(CCDB2Reader file) throws IOException
 	{
 		if ( fGroupSpecQty > 0 )
 		{
@@ -495,33 +570,31 @@ class CCDB2Record
 		}
 	}
 
-	private void loadObject(CCDB2Driver driver, CCDB2io io) throws IOException
+	private void loadObject(CCDB2Driver driver, final CCDB2Reader io) throws IOException
 	{
-		final RandomAccessFile 	file = io.getUnderlyingFile();
-
 		if ( driver.doChunking() && (fObjectSize >= ChunkedByteArray.DEFAULT_CHUNK_SIZE) )
 		{
-			fObject = new ChunkedByteArray();
-			fObject.append
+			fStoredObject = new ChunkedByteArray();
+			fStoredObject.append
 			(
 				new InputStream()
 				{
 					@Override
 					public int read(byte b[]) throws IOException
 					{
-						return file.read(b);
+						return io.read(b, 0, b.length);
 					}
 
 					@Override
 					public int read(byte b[], int off, int len) throws IOException
 					{
-						return file.read(b, off, len);
+						return io.read(b, off, len);
 					}
 
 					@Override
 					public int read() throws IOException
 					{
-						return file.read();
+						return io.readByte() & 0xff;
 					}
 				},
 				fObjectSize
@@ -531,44 +604,31 @@ class CCDB2Record
 		{
 			byte[]			buffer = new byte[fObjectSize];
 			io.readFully(buffer);
-			fObject = ChunkedByteArray.wrap(buffer);
+			fStoredObject = ChunkedByteArray.wrap(buffer);
 		}
+		fObject = fIsCompressed ? null : fStoredObject;	// decompressed by getObject()
 	}
 
-	private static int			hash(ChunkedByteArray bytes)
+	private CCDB2io getFile() throws IOException
 	{
-		int			h = 0;
-		for ( int i = 0; i < bytes.size(); ++i )
-		{
-			h = 31 * h + bytes.get(i);
-		}
+		return seekTo(fFile.getFile());
+	}
 
-		return h;
+	private CCDB2Reader getReadFile() throws IOException
+	{
+		return seekTo(fFile.getReadFile());
 	}
 
-	private CCDB2io getFile() throws IOException
+	private <T extends CCDB2Reader> T seekTo(T io) throws IOException
 	{
 		assert (fAddress > 0);
 
-		CCDB2io		io = fFile.getFile();
-		try
-		{
-			io.seek(fAddress);
-		}
-		catch ( IOException e )
-		{
-			releaseIO(io);
-			throw e;
-		}
+		io.seek(fAddress);
 		return io;
 	}
 
-	private void releaseIO(CCDB2io io)
-	{
-		fFile.releaseFile(io);
-	}
-
 	private	CCDB2File				fFile;
+	private	CCDB2Checksum			fChecksum;
 	private	boolean					fUseCRCs;
 	private	long					fAddress;
 	private	int						fKeySize;
@@ -579,6 +639,9 @@ class CCDB2Record
 	private	String					fKey;
 	private	boolean					fIsDeletedRecord;
 	private	ChunkedByteArray 		fObject;
+	private	ChunkedByteArray 		fStoredObject;
+	private	boolean					fIsCompressed;
+	private	boolean					fDoChunking;
 	private	long[]					fGroupSpecs;
 	private	byte[]					fSizesBuffer;
 	private	boolean					fIsAtDeadByte;
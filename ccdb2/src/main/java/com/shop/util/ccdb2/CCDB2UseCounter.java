@@ -0,0 +1,85 @@
+/*
+ * Copyright 2008-2009 SHOP.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shop.util.ccdb2;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free count of the threads currently using an instance. The count is striped by thread so that
+ * concurrent readers don't contend on a single counter. A use can end on a different thread than the one that
+ * began it (e.g. a region released by the thread that sent it or an asynchronous I/O thread), so a single stripe's
+ * count can be negative - only the sum is meaningful. Once the instance is marked closed, the uses that began before
+ * then can only end, so the sum never undercounts them.<br>
+ *
+ * @author Jordan Zimmerman
+ */
+class CCDB2UseCounter
+{
+	CCDB2UseCounter()
+	{
+		int 		stripeQty = 1;
+		while ( (stripeQty < (Runtime.getRuntime().availableProcessors() * 2)) && (stripeQty < MAX_STRIPE_QTY) )
+		{
+			stripeQty <<= 1;
+		}
+
+		fStripeMask = stripeQty - 1;
+		fCounts = new AtomicLongArray(stripeQty * STRIPE_SPACING);
+	}
+
+	/**
+	 * Record that the current thread has started using the instance
+	 */
+	void 		increment()
+	{
+		fCounts.incrementAndGet(getStripeIndex());
+	}
+
+	/**
+	 * Record that a use of the instance has finished - not necessarily on the thread that began it
+	 */
+	void 		decrement()
+	{
+		fCounts.decrementAndGet(getStripeIndex());
+	}
+
+	/**
+	 * Returns the number of current uses
+	 *
+	 * @return qty
+	 */
+	long 		get()
+	{
+		long 		count = 0;
+		for ( int i = 0; i < fCounts.length(); i += STRIPE_SPACING )
+		{
+			count += fCounts.get(i);
+		}
+		return count;
+	}
+
+	private int 	getStripeIndex()
+	{
+		long 		id = Thread.currentThread().getId();
+		return (int)((id ^ (id >>> 16)) & fStripeMask) * STRIPE_SPACING;
+	}
+
+	private static final int 		MAX_STRIPE_QTY = 64;	// must be a power of 2
+	private static final int 		STRIPE_SPACING = 8;		// longs - keeps each stripe on its own cache line
+
+	private final int 				fStripeMask;
+	private final AtomicLongArray 	fCounts;
+}
@@ -16,23 +16,14 @@
 package com.shop.util.ccdb2;
 
 import java.io.IOException;
-import java.io.RandomAccessFile;
 
 /**
  * Abstraction for I/O APIs<br>
  *
  * @author Jordan Zimmerman
  */
-public interface CCDB2io extends CCDB2ReadFully
+public interface CCDB2io extends CCDB2Reader
 {
-	/**
-	 * Seek to the given offset
-	 *
-	 * @param i offset
-	 * @throws IOException errors
-	 */
-	public void seek(long i) throws IOException;
-
 	/**
 	 * Write a byte at the current offset
 	 *
@@ -65,14 +56,6 @@ public interface CCDB2io extends CCDB2ReadFully
 	 */
 	public void writeLong(long l) throws IOException;
 
-	/**
-	 * Read a byte from the current offset
-	 *
-	 * @return the byte
-	 * @throws IOException errors
-	 */
-	public byte readByte() throws IOException;
-
 	/**
 	 * Read a int from the current offset
 	 *
@@ -89,14 +72,6 @@ public interface CCDB2io extends CCDB2ReadFully
 	 */
 	public boolean readBoolean() throws IOException;
 
-	/**
-	 * Read a long from the current offset
-	 *
-	 * @return the long
-	 * @throws IOException errors
-	 */
-	public long readLong() throws IOException;
-
 	/**
 	 * Write out bytes at the current offset
 	 *
@@ -114,13 +89,13 @@ public interface CCDB2io extends CCDB2ReadFully
 	 */
 	public void write(byte[] bytes, int length) throws IOException;
 
-	@Override
-	public void readFully(byte[] buffer) throws IOException;
-
 	/**
-	 * Returns the Java file object
+	 * Write out bytes at the current offset
 	 *
-	 * @return file
+	 * @param bytes the bytes
+	 * @param offset offset within the bytes
+	 * @param length number of bytes to write
+	 * @throws IOException errors
 	 */
-	public RandomAccessFile getUnderlyingFile();
+	public void write(byte[] bytes, int offset, int length) throws IOException;
 }
\ No newline at end of file
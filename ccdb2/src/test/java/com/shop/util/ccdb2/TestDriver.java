@@ -0,0 +1,125 @@
+/*
+ * Copyright 2008-2009 SHOP.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shop.util.ccdb2;
+
+/**
+ * Driver for tests - exceptions are rethrown so that they fail the test<br>
+ *
+ * @author Jordan Zimmerman
+ */
+class TestDriver implements CCDB2Driver
+{
+	/**
+	 * @param usePrimitiveIndex true to use the primitive index
+	 * @param objectCacheSize object cache size in bytes
+	 */
+	TestDriver(boolean usePrimitiveIndex, long objectCacheSize)
+	{
+		fUsePrimitiveIndex = usePrimitiveIndex;
+		fObjectCacheSize = objectCacheSize;
+	}
+
+	@Override
+	public void handleException(Exception e)
+	{
+		throw new RuntimeException(e);
+	}
+
+	@Override
+	public void log(String s, Throwable e, boolean newline)
+	{
+	}
+
+	@Override
+	public String getDBExtension()
+	{
+		return ".db";
+	}
+
+	@Override
+	public String getIndexExtension()
+	{
+		return ".idx";
+	}
+
+	@Override
+	public boolean doChunking()
+	{
+		return false;
+	}
+
+	@Override
+	public void callRemoveObject(String key)
+	{
+	}
+
+	@Override
+	public long getAllocationChunkSize()
+	{
+		return 0;
+	}
+
+	@Override
+	public boolean useMappedReads()
+	{
+		return false;
+	}
+
+	@Override
+	public boolean usePrimitiveIndex()
+	{
+		return fUsePrimitiveIndex;
+	}
+
+	@Override
+	public long getObjectCacheSize()
+	{
+		return fObjectCacheSize;
+	}
+
+	@Override
+	public boolean useChecksums()
+	{
+		return false;
+	}
+
+	@Override
+	public boolean useSortedKeyIndex()
+	{
+		return true;
+	}
+
+	@Override
+	public int getKeyFilterCapacity()
+	{
+		return 0;
+	}
+
+	@Override
+	public int getCompressionThreshold()
+	{
+		return 0;
+	}
+
+	@Override
+	public int getHotKeyQty()
+	{
+		return 0;
+	}
+
+	private final boolean 		fUsePrimitiveIndex;
+	private final long 			fObjectCacheSize;
+}
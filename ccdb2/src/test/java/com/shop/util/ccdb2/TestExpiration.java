@@ -0,0 +1,123 @@
+/*
+ * Copyright 2008-2009 SHOP.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shop.util.ccdb2;
+
+import com.shop.util.chunked.ChunkedByteArray;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Expired keys must be removed from the group index by the scheduled expiration - not just from the index<br>
+ *
+ * @author Jordan Zimmerman
+ */
+public class TestExpiration
+{
+	@Before
+	public void 	setUp() throws IOException
+	{
+		fDirectory = File.createTempFile("ccdb2", "test");
+		fDirectory.delete();
+		fDirectory.mkdirs();
+	}
+
+	@After
+	public void 	tearDown()
+	{
+		File[] 		files = fDirectory.listFiles();
+		if ( files != null )
+		{
+			for ( File f : files )
+			{
+				f.delete();
+			}
+		}
+		fDirectory.delete();
+	}
+
+	@Test
+	public void 	testExpireMapIndex() throws Exception
+	{
+		expire(false);
+	}
+
+	@Test
+	public void 	testExpirePrimitiveIndex() throws Exception
+	{
+		expire(true);
+	}
+
+	private void 	expire(boolean usePrimitiveIndex) throws Exception
+	{
+		CCDB2Instance 		instance = new CCDB2Instance(new TestDriver(usePrimitiveIndex, OBJECT_CACHE_SIZE), fDirectory, "test");
+		try
+		{
+			instance.loadFile(new AtomicInteger());
+
+			long 		ttl = System.currentTimeMillis() + SHORT_TTL;
+			for ( int i = 0; i < KEY_QTY; ++i )
+			{
+				instance.put("short" + i, newSpec("short" + i, ttl), new long[]{i % GROUP_QTY});
+				instance.put("long" + i, newSpec("long" + i, ttl + LONG_TTL), new long[]{i % GROUP_QTY});
+			}
+			Assert.assertEquals(KEY_QTY * 2, countGroupKeys(instance));
+
+			Thread.sleep(SHORT_TTL + EXPIRATION_TICK);
+			Assert.assertEquals(KEY_QTY, instance.expireOldKeys(Integer.MAX_VALUE));
+			Assert.assertEquals(KEY_QTY, countGroupKeys(instance));
+			for ( int i = 0; i < KEY_QTY; ++i )
+			{
+				Assert.assertNull(instance.get("short" + i, null));
+				Assert.assertNotNull(instance.get("long" + i, null));
+			}
+		}
+		finally
+		{
+			instance.close(new AtomicInteger());
+		}
+	}
+
+	private static int 		countGroupKeys(CCDB2Instance instance) throws IOException
+	{
+		int 		qty = 0;
+		for ( int i = 0; i < GROUP_QTY; ++i )
+		{
+			qty += instance.listGroup(i).size();
+		}
+		return qty;
+	}
+
+	private static CCDB2DataSpec 	newSpec(String value, long ttl)
+	{
+		ChunkedByteArray 	data = new ChunkedByteArray();
+		data.append(value.getBytes());
+		return new CCDB2DataSpec(data, ttl);
+	}
+
+	private static final int 		KEY_QTY = 1000;
+	private static final int 		GROUP_QTY = 10;
+	private static final long 		OBJECT_CACHE_SIZE = 0x100000;
+	private static final long 		SHORT_TTL = 2000;
+	private static final long 		LONG_TTL = 60 * 60 * 1000;
+	private static final long 		EXPIRATION_TICK = 1000;
+
+	private File 					fDirectory;
+}
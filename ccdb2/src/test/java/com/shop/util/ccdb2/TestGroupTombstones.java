@@ -0,0 +1,129 @@
+/*
+ * Copyright 2008-2009 SHOP.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shop.util.ccdb2;
+
+import com.shop.util.chunked.ChunkedByteArray;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Group tombstones must still kill their keys after the instance is reopened<br>
+ *
+ * @author Jordan Zimmerman
+ */
+public class TestGroupTombstones
+{
+	@Before
+	public void 	setUp() throws IOException
+	{
+		fDirectory = File.createTempFile("ccdb2", "test");
+		fDirectory.delete();
+		fDirectory.mkdirs();
+	}
+
+	@After
+	public void 	tearDown()
+	{
+		File[] 		files = fDirectory.listFiles();
+		if ( files != null )
+		{
+			for ( File f : files )
+			{
+				f.delete();
+			}
+		}
+		fDirectory.delete();
+	}
+
+	@Test
+	public void 	testPutRemoveGroupReopen() throws Exception
+	{
+		putRemoveGroupReopen(PENDING_PUT_QUEUE_LENGTH);
+	}
+
+	@Test
+	public void 	testPutRemoveGroupReopenWithoutQueue() throws Exception
+	{
+		putRemoveGroupReopen(0);
+	}
+
+	private void 	putRemoveGroupReopen(int pendingPutQueueLength) throws Exception
+	{
+		CCDB2Instance 		instance = openInstance(pendingPutQueueLength);
+		for ( int i = 0; i < KEY_QTY; ++i )
+		{
+			instance.put("key" + i, newSpec("value" + i), new long[]{i});
+			instance.removeGroup(i);
+		}
+		for ( int i = 0; i < KEY_QTY; ++i )
+		{
+			instance.put("live" + i, newSpec("live" + i), new long[]{i});	// put again after the tombstone
+		}
+		Thread.sleep(1000);	// let the background writer finish
+		Assert.assertEquals(0, countLiveKeys(instance, "key"));
+		Assert.assertEquals(KEY_QTY, countLiveKeys(instance, "live"));
+		instance.close(new AtomicInteger());
+
+		instance = openInstance(pendingPutQueueLength);
+		try
+		{
+			Assert.assertEquals(0, countLiveKeys(instance, "key"));
+			Assert.assertEquals(KEY_QTY, countLiveKeys(instance, "live"));
+		}
+		finally
+		{
+			instance.close(new AtomicInteger());
+		}
+	}
+
+	private CCDB2Instance 	openInstance(int pendingPutQueueLength) throws IOException
+	{
+		CCDB2Instance 		instance = new CCDB2Instance(new TestDriver(false, 0), fDirectory, "test", pendingPutQueueLength);
+		instance.loadFile(new AtomicInteger());
+		return instance;
+	}
+
+	private static int 		countLiveKeys(CCDB2Instance instance, String prefix) throws IOException
+	{
+		int 		qty = 0;
+		for ( int i = 0; i < KEY_QTY; ++i )
+		{
+			if ( instance.get(prefix + i, null) != null )
+			{
+				++qty;
+			}
+		}
+		return qty;
+	}
+
+	private static CCDB2DataSpec 	newSpec(String value)
+	{
+		ChunkedByteArray 	data = new ChunkedByteArray();
+		data.append(value.getBytes());
+		return new CCDB2DataSpec(data, System.currentTimeMillis() + TTL);
+	}
+
+	private static final int 		KEY_QTY = 2000;
+	private static final int 		PENDING_PUT_QUEUE_LENGTH = 1000;
+	private static final long 		TTL = 60 * 60 * 1000;
+
+	private File 					fDirectory;
+}
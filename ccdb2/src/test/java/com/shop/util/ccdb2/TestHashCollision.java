@@ -0,0 +1,99 @@
+/*
+ * Copyright 2008-2009 SHOP.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shop.util.ccdb2;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * A key whose hash matches another key's slot in the primitive index must still be stored - the key reader reports the
+ * slot's record as belonging to a different key to simulate the collision<br>
+ *
+ * @author Jordan Zimmerman
+ */
+public class TestHashCollision
+{
+	@Test
+	public void 	testCollidingKeyGoesToOverflow()
+	{
+		CCDB2PrimitiveIndex 	index = new CCDB2PrimitiveIndex(newKeyReader("other"));
+		index.load("key", SLOT_ADDRESS, 0);
+
+		CCDB2IndexEntry 		newEntry = newEntry();
+		Assert.assertNull(index.acquireOrAdd("key", newEntry));
+		newEntry.address = NEW_ADDRESS;
+		index.release("key", newEntry);
+		Assert.assertEquals(2, index.size());
+
+		CCDB2IndexEntry 		entry = index.acquire("key");
+		Assert.assertNotNull(entry);
+		Assert.assertEquals(NEW_ADDRESS, entry.address);
+		index.release("key", entry);
+
+		Assert.assertTrue(index.remove("key"));
+		Assert.assertEquals(1, index.size());
+		Assert.assertNull(index.acquireOrAdd("key", newEntry()));	// the other key's slot is still left alone
+		Assert.assertEquals(2, index.size());
+	}
+
+	@Test
+	public void 	testSameKeyUsesSlot()
+	{
+		CCDB2PrimitiveIndex 	index = new CCDB2PrimitiveIndex(newKeyReader("key"));
+		index.load("key", SLOT_ADDRESS, 0);
+
+		CCDB2IndexEntry 		entry = index.acquireOrAdd("key", newEntry());
+		Assert.assertNotNull(entry);
+		Assert.assertEquals(SLOT_ADDRESS, entry.address);
+		index.release("key", entry);
+		Assert.assertEquals(1, index.size());
+	}
+
+	@Test
+	public void 	testStaleSlotIsReplaced()
+	{
+		CCDB2PrimitiveIndex 	index = new CCDB2PrimitiveIndex(newKeyReader(null));
+		index.load("key", SLOT_ADDRESS, 0);
+
+		CCDB2IndexEntry 		newEntry = newEntry();
+		Assert.assertNull(index.acquireOrAdd("key", newEntry));
+		newEntry.address = NEW_ADDRESS;
+		index.release("key", newEntry);
+		Assert.assertEquals(1, index.size());
+	}
+
+	private static CCDB2Index.KeyReader 	newKeyReader(final String slotKey)
+	{
+		return new CCDB2Index.KeyReader()
+		{
+			@Override
+			public String readKey(long address)
+			{
+				return (address == SLOT_ADDRESS) ? slotKey : null;
+			}
+		};
+	}
+
+	private static CCDB2IndexEntry 	newEntry()
+	{
+		CCDB2IndexEntry 		entry = new CCDB2IndexEntry();
+		entry.address = CCDB2IndexEntry.NOT_EXISTS_ADDRESS;
+		return entry;
+	}
+
+	private static final long 		SLOT_ADDRESS = CCDB2IndexEntry.MINIMUM_ACTIVE_ADDRESS + 100;
+	private static final long 		NEW_ADDRESS = CCDB2IndexEntry.MINIMUM_ACTIVE_ADDRESS + 200;
+}
@@ -24,6 +24,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.Checksum;
 
 /**
  * Abstracts an unbounded array that is internally broken into chunks. This avoids allocating large contiguous byte arrays
@@ -361,7 +362,7 @@ public class ChunkedByteArray
 		if ( in instanceof ChunkedByteArrayInputStream )
 		{
 			ChunkedByteArrayInputStream 		bytesIn = (ChunkedByteArrayInputStream)in;
-			append(bytesIn.getBytes(), bytesIn.getOffset(), (length != null) ? Math.min(length, bytesIn.getSize()) : bytesIn.getSize());
+			append(bytesIn.getBytes(), bytesIn.getOffset(), (length != null) ? Math.min(length, bytesIn.available()) : bytesIn.available());
 		}
 		else
 		{
@@ -418,6 +419,29 @@ public class ChunkedByteArray
 		}
 	}
 
+	/**
+	 * Update the given checksum with the contents of this array - a chunk at a time
+	 *
+	 * @param checksum checksum to update
+	 */
+	public void			update(Checksum checksum)
+	{
+		int			updated = 0;
+		for ( byte[] b : fBytes )
+		{
+			int		thisSize = Math.min(fChunkSize, fLogicalSize - updated);
+			if ( thisSize > 0 )
+			{
+				checksum.update(b, 0, thisSize);
+				updated += thisSize;
+			}
+			else
+			{
+				break;
+			}
+		}
+	}
+
 	/**
 	 * If o is a ChunkedByteArray, compare all the data and return true if equal
 	 *
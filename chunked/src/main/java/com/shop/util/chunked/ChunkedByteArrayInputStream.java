@@ -55,9 +55,9 @@ public class ChunkedByteArrayInputStream extends InputStream
 	public ChunkedByteArrayInputStream(ChunkedByteArray array, int offset, int length)
 	{
 		fBytes = array;
-		fOffset = 0;
+		fOffset = offset;
 		fSize = Math.min(offset + length, array.size());
-		fMark = 0;
+		fMark = offset;
 	}
 
 	public boolean markSupported()
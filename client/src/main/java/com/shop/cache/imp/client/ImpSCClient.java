@@ -213,7 +213,22 @@ class ImpSCClient implements SCClient
 		try
 		{
 			ChunkedByteArray	bytes = null;
-			
+
+			if ( (fContext != null) && fContext.getRawObjects() )
+			{
+				String 				commandName = SCSetOfCommands.getCommandName(ignoreTTL ? SCCommandGetObjectRawIgnoreTTL.class : SCCommandGetObjectRaw.class);
+				fClient.send(commandName);
+				fClient.send(key);
+				fClient.flush();
+
+				bytes = fClient.readRaw();
+				if ( (bytes != null) && !SCCommandGetObjectRaw.OBJECT_IS_VALID.equals(fClient.readLine()) )
+				{
+					bytes = null;	// the object changed while being sent
+				}
+				return bytes;
+			}
+
 			String 				commandName = SCSetOfCommands.getCommandName(ignoreTTL ? SCCommandGetObjectIgnoreTTL.class : SCCommandGetObject.class);
 			fClient.send(commandName);
 			fClient.send(key);
@@ -52,6 +52,20 @@ class ImpSCClientContext implements SCClientContext
 		return fNotifications;
 	}
 
+	@Override
+	public SCClientContext rawObjects(boolean b)
+	{
+		fRawObjects = b;
+		return this;
+	}
+
+	@Override
+	public boolean getRawObjects()
+	{
+		return fRawObjects;
+	}
+
 	private InetSocketAddress			fAddress = null;
 	private SCNotifications				fNotifications = null;
+	private boolean 					fRawObjects = false;
 }
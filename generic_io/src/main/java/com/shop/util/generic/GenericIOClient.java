@@ -19,6 +19,7 @@ package com.shop.util.generic;
 import com.shop.util.chunked.ChunkedByteArray;
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * Client/connection abstraction. Use {@link GenericIOFactory} to allocate a new connection. 
@@ -27,6 +28,20 @@ import java.net.InetSocketAddress;
  */
 public interface GenericIOClient<T>
 {
+	/**
+	 * Writes the bytes of a raw block. See {@link GenericIOClient#sendRaw(int, RawWriter)}
+	 */
+	public interface RawWriter
+	{
+		/**
+		 * Write the block's bytes to the given channel. Exactly the number of bytes passed to sendRaw() must be written.
+		 *
+		 * @param channel the channel
+		 * @throws IOException errors
+		 */
+		public void 		writeTo(WritableByteChannel channel) throws IOException;
+	}
+
 	/**
 	 * Send a line of text. NOTE 1: clients maintain a write buffer. Use {@link #flush()} to flush the buffer.
 	 * NOTE 2: This method may block if the underlying socket's write buffer is full
@@ -56,6 +71,20 @@ public interface GenericIOClient<T>
 	 */
 	public void 				sendBytes(byte[] bytes, int offset, int length) throws IOException;
 
+	/**
+	 * Send a length-prefixed raw block. The length is sent as a line and then the block's bytes are sent without being escaped. Any
+	 * buffered writes are flushed first and the block is written directly to the socket. For connections accepted by a non-SSL
+	 * {@link GenericIOServer} the channel is the socket's channel so, for example,
+	 * {@link java.nio.channels.FileChannel#transferTo(long, long, WritableByteChannel)} can send file data without copying it through the heap.
+	 * Heartbeats are held off while the block is sent. The peer must read the block with {@link #readRaw()}.<br>
+	 * NOTE: This method may block if the underlying socket's write buffer is full
+	 *
+	 * @param length number of bytes in the block
+	 * @param writer writes the bytes
+	 * @throws IOException errors
+	 */
+	public void 				sendRaw(int length, RawWriter writer) throws IOException;
+
 	/**
 	 * Flush any pending writes through. NOTE: This method may block if the underlying socket's write buffer is full
 	 *
@@ -91,6 +120,15 @@ public interface GenericIOClient<T>
 	 */
 	public ChunkedByteArray 	readBytes(int size) throws IOException;
 
+	/**
+	 * Read a block sent via {@link #sendRaw(int, RawWriter)}. NOTE: this will block until the block has been read. null is returned for
+	 * a 0 length block or if the connection closes.
+	 *
+	 * @return the bytes or null
+	 * @throws IOException errors
+	 */
+	public ChunkedByteArray 	readRaw() throws IOException;
+
 	/**
 	 * Return the address this client is connected to
 	 *
@@ -25,9 +25,12 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Internal implementation of the client
@@ -48,6 +51,7 @@ class GenericIOClientImpl<T> implements GenericIOClient<T>, GenericIOInputStream
 		fLastReadTicks = new AtomicLong(System.currentTimeMillis());
 		fLastFlushTicks = new AtomicLong(System.currentTimeMillis());
 		fIsOpen = new AtomicBoolean(true);
+		fRawLock = new ReentrantLock();
 
 		fSocket.setTcpNoDelay(true);
 
@@ -88,6 +92,28 @@ class GenericIOClientImpl<T> implements GenericIOClient<T>, GenericIOInputStream
 		fOut.write(bytes, offset, length);
 	}
 
+	@Override
+	public void sendRaw(int length, RawWriter writer) throws IOException
+	{
+		fRawLock.lock();
+		try
+		{
+			send(Integer.toString(length));
+			flush();
+
+			if ( length > 0 )
+			{
+				WritableByteChannel 	channel = (fSocket.getChannel() != null) ? fSocket.getChannel() : Channels.newChannel(fSocket.getOutputStream());
+				writer.writeTo(channel);
+				fLastFlushTicks.set(System.currentTimeMillis());
+			}
+		}
+		finally
+		{
+			fRawLock.unlock();
+		}
+	}
+
 	@Override
 	public void flush() throws IOException
 	{
@@ -142,6 +168,37 @@ class GenericIOClientImpl<T> implements GenericIOClient<T>, GenericIOInputStream
 		return bytes;
 	}
 
+	@Override
+	public ChunkedByteArray readRaw() throws IOException
+	{
+		String 		line = fIn.readLine();
+		if ( line == null )
+		{
+			return null;
+		}
+
+		int 		size;
+		try
+		{
+			size = Integer.parseInt(line.trim());
+		}
+		catch ( NumberFormatException e )
+		{
+			throw new IOException("Bad raw block length: " + line);
+		}
+		if ( size <= 0 )
+		{
+			return null;
+		}
+
+		// the block isn't escaped so it's read from beneath the heartbeat aware stream
+		ChunkedByteArray		bytes = (size < ChunkedByteArray.DEFAULT_CHUNK_SIZE) ? new ChunkedByteArray(size) : new ChunkedByteArray();
+		bytes.append(fIOInputStream.getRawStream(), size);
+		updateLastReadTicks();
+
+		return bytes;
+	}
+
 	@Override
 	public void disableHeartbeats()
 	{
@@ -222,9 +279,21 @@ class GenericIOClientImpl<T> implements GenericIOClient<T>, GenericIOInputStream
 
 	void	sendHeartbeat() throws IOException
 	{
-		flush();
-		fOut.writeHeartbeat();
-		fLastFlushTicks.set(System.currentTimeMillis());
+		// a heartbeat in the middle of a raw block would be read as data - skip it, the block itself keeps the connection alive
+		if ( !fRawLock.tryLock() )
+		{
+			return;
+		}
+		try
+		{
+			flush();
+			fOut.writeHeartbeat();
+			fLastFlushTicks.set(System.currentTimeMillis());
+		}
+		finally
+		{
+			fRawLock.unlock();
+		}
 	}
 
 	long		getLastReadTicks()
@@ -252,4 +321,5 @@ class GenericIOClientImpl<T> implements GenericIOClient<T>, GenericIOInputStream
 	private final AtomicLong 				fLastReadTicks;
 	private final AtomicLong				fLastFlushTicks;
 	private final AtomicBoolean 			fIsOpen;
+	private final ReentrantLock 			fRawLock;
 }
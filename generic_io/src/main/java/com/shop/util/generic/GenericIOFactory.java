@@ -18,8 +18,10 @@ package com.shop.util.generic;
 
 import com.shop.util.SSLSocketMaker;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.ServerSocket;
+import java.nio.channels.ServerSocketChannel;
 
 /**
  * Factory for creating clients and servers
@@ -38,7 +40,7 @@ public class GenericIOFactory
 	 */
 	public static<T> GenericIOServer<T>	makeServer(GenericIOServerListener<T> listener, GenericIOParameters parameters) throws Exception
 	{
-		ServerSocket		localServerSocket = parameters.getSSL() ? SSLSocketMaker.makeServer(parameters.getPort(), BACKLOG) : new ServerSocket(parameters.getPort(), BACKLOG);
+		ServerSocket		localServerSocket = parameters.getSSL() ? SSLSocketMaker.makeServer(parameters.getPort(), BACKLOG) : makeChannelServerSocket(parameters.getPort());
 		try
 		{
 			return new GenericIOServerImpl<T>(localServerSocket, listener);
@@ -79,5 +81,29 @@ public class GenericIOFactory
 		}
 	}
 
+	/**
+	 * Accepted sockets of a channel server socket have channels which lets {@link GenericIOClient#sendRaw(int, GenericIOClient.RawWriter)}
+	 * write directly to the channel
+	 *
+	 * @param port port
+	 * @return server socket
+	 * @throws IOException errors
+	 */
+	private static ServerSocket	makeChannelServerSocket(int port) throws IOException
+	{
+		ServerSocket 		socket = ServerSocketChannel.open().socket();
+		try
+		{
+			socket.setReuseAddress(true);
+			socket.bind(new InetSocketAddress(port), BACKLOG);
+		}
+		catch ( IOException e )
+		{
+			socket.close();
+			throw e;
+		}
+		return socket;
+	}
+
 	private static final int 	BACKLOG = 256;
 }
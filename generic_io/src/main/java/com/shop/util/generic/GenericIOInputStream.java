@@ -52,6 +52,16 @@ class GenericIOInputStream extends InputStream
 		fEscapesEnabled.set(false);
 	}
 
+	/**
+	 * Returns the underlying stream. Bytes read from it are not checked for escapes/heartbeats.
+	 *
+	 * @return stream
+	 */
+	InputStream 	getRawStream()
+	{
+		return fStream;
+	}
+
 	@Override
 	public int read() throws IOException
 	{
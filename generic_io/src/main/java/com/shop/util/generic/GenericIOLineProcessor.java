@@ -17,10 +17,12 @@
 package com.shop.util.generic;
 
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Utility to read lines from a client in a loop. Instances maintain an internal threaded-loop that reads a line
- * from the client and then calls the given line acceptor for processing
+ * from the client and then calls the given line acceptor for processing. A line acceptor that can't respond yet
+ * can {@link #suspend()} the loop - the loop's thread is released until {@link #resume(Runnable)} is called.
  *
  * @author Jordan Zimmerman
  */
@@ -56,6 +58,8 @@ public class GenericIOLineProcessor<T>
 	{
 		fClient = client;
 		fDriver = driver;
+		fState = new AtomicInteger(STATE_RUNNING);
+		fResumeTask = null;
 	}
 
 	/**
@@ -70,39 +74,99 @@ public class GenericIOLineProcessor<T>
 				@Override
 				public void run()
 				{
-					try
-					{
-						while ( !Thread.currentThread().isInterrupted() && fClient.isOpen() )
-						{
-							String		line = fClient.readLine();
-							if ( line == null )
-							{
-								break;
-							}
-
-							fDriver.line(fClient, line);
-						}
-					}
-					catch ( Exception e )
-					{
-						fDriver.notifyException(e);
-					}
-					finally
-					{
-						try
-						{
-							fClient.close();
-						}
-						catch ( IOException ignore )
-						{
-							// ignore
-						}
-					}
+					runLoop();
 				}
 			}
 		);
 	}
 
+	/**
+	 * Stop reading lines when the current call to {@link AcceptLine#line(GenericIOClient, String)} returns. The loop's
+	 * thread is released. MUST only be called from within {@link AcceptLine#line(GenericIOClient, String)} and MUST
+	 * be followed by a call to {@link #resume(Runnable)} (from any thread).
+	 */
+	public void		suspend()
+	{
+		fState.set(STATE_SUSPENDING);
+	}
+
+	/**
+	 * Continue reading lines after {@link #suspend()}. The given task is run in the loop's thread before the next line
+	 * is read. The task must handle its own exceptions (e.g. by closing the client).
+	 *
+	 * @param task task to run first
+	 */
+	public void		resume(Runnable task)
+	{
+		fResumeTask = task;
+		if ( !fState.compareAndSet(STATE_SUSPENDING, STATE_RUNNING) )
+		{
+			// the loop's thread has already been released - continue in a new one
+			fState.set(STATE_RUNNING);
+			execute();
+		}
+		// otherwise, line() hasn't returned yet and the loop's thread runs the task
+	}
+
+	private void 	runLoop()
+	{
+		boolean 		isSuspended = false;
+		try
+		{
+			runResumeTask();
+			while ( !Thread.currentThread().isInterrupted() && fClient.isOpen() )
+			{
+				String		line = fClient.readLine();
+				if ( line == null )
+				{
+					break;
+				}
+
+				fDriver.line(fClient, line);
+				if ( fState.compareAndSet(STATE_SUSPENDING, STATE_SUSPENDED) )
+				{
+					isSuspended = true;
+					break;
+				}
+				runResumeTask();
+			}
+		}
+		catch ( Exception e )
+		{
+			fDriver.notifyException(e);
+		}
+		finally
+		{
+			if ( !isSuspended )
+			{
+				try
+				{
+					fClient.close();
+				}
+				catch ( IOException ignore )
+				{
+					// ignore
+				}
+			}
+		}
+	}
+
+	private void 	runResumeTask()
+	{
+		Runnable 		task = fResumeTask;
+		if ( task != null )
+		{
+			fResumeTask = null;
+			task.run();
+		}
+	}
+
+	private static final int 			STATE_RUNNING = 0;
+	private static final int 			STATE_SUSPENDING = 1;
+	private static final int 			STATE_SUSPENDED = 2;
+
 	private final GenericIOClient<T> 	fClient;
 	private final AcceptLine<T> 		fDriver;
+	private final AtomicInteger 		fState;
+	private volatile Runnable 			fResumeTask;
 }
@@ -22,13 +22,13 @@ import com.shop.cache.api.common.SCGroupSpec;
 import com.shop.cache.api.common.SCNotifications;
 import com.shop.cache.api.server.SCServer;
 import com.shop.cache.api.server.SCServerContext;
+import com.shop.cache.api.storage.SCObjectRegion;
 import com.shop.cache.api.storage.SCStorage;
 import com.shop.cache.api.storage.SCStorageServerDriver;
 import com.shop.cache.imp.common.ImpSCUtils;
 import com.shop.util.chunked.ChunkedByteArray;
 import com.shop.util.generic.GenericIOClient;
 import com.shop.util.generic.GenericIOClientPoolListener;
-import com.shop.util.generic.GenericIOLineProcessor;
 import com.shop.util.generic.GenericIOFactory;
 import com.shop.util.generic.GenericIOServer;
 import com.shop.util.generic.GenericIOServerListener;
@@ -42,9 +42,11 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiFunction;
 
 /**
  * SHOP.COM's Server implementation
@@ -293,28 +295,75 @@ class ImpSCServer implements SCServer, SCStorageServerDriver
 		timer.start();
 
 		SCDataSpec 	entry = getEntry(key, ignoreTTL);
+		recordGetTime(timer, entry);
 
-		int 		getTime = timer.end("get()");
-		String 		timingMessage;
-		if ( (entry != null) && (entry.data != null) )
+		return (entry != null) ? entry.data : null;
+	}
+
+	@Override
+	public CompletableFuture<ChunkedByteArray> getAsync(final String key, final boolean ignoreTTL)
+	{
+		final TrackerTimer		timer = new TrackerTimer(fGetTimerData);
+		timer.start();
+
+		CompletableFuture<SCDataSpec> 	entryFuture;
+		try
 		{
-			int 		bytesPerSecond = (entry.data.size() / Math.max(1, getTime));
-			timingMessage = getTime + " ms " + entry.data.size() + " bytes " + bytesPerSecond + " bpms";
+			entryFuture = fDatabase.getAsync(key);
 		}
-		else
+		catch ( Throwable e )
 		{
-			timingMessage = getTime + " ms <not found>";
+			ImpSCUtils.handleException(e, null);
+			entryFuture = CompletableFuture.completedFuture(null);
 		}
 
-		int 		index = fLastGetTimesIndex.getAndIncrement();
-		if ( index >= LAST_GET_TIMES_QTY )
+		return entryFuture.handle
+		(
+			new BiFunction<SCDataSpec, Throwable, ChunkedByteArray>()
+			{
+				@Override
+				public ChunkedByteArray apply(SCDataSpec entry, Throwable exception)
+				{
+					try
+					{
+						if ( exception != null )
+						{
+							throw exception;
+						}
+						entry = checkTTL(key, entry, ignoreTTL);
+					}
+					catch ( Throwable e )
+					{
+						ImpSCUtils.handleException(e, null);
+						entry = null;
+					}
+					recordGetTime(timer, entry);
+
+					return (entry != null) ? entry.data : null;
+				}
+			}
+		);
+	}
+
+	@Override
+	public SCObjectRegion getObjectRegion(String key, boolean ignoreTTL)
+	{
+		SCObjectRegion 		region = null;
+		try
 		{
-			fLastGetTimesIndex.compareAndSet(index + 1, 0);
-			index = 0;
+			region = fDatabase.getObjectRegion(key, RAW_TRANSFER_MINIMUM_SIZE);
+			if ( (region != null) && !ignoreTTL && (System.currentTimeMillis() >= region.getTTL()) )
+			{
+				region.release();
+				region = null;
+				fDatabase.remove(key);
+			}
 		}
-		fLastGetTimes.set(index, timingMessage);
-
-		return (entry != null) ? entry.data : null;
+		catch ( Throwable e )
+		{
+			ImpSCUtils.handleException(e, null);
+		}
+		return region;
 	}
 
 	@Override
@@ -502,30 +551,57 @@ class ImpSCServer implements SCServer, SCStorageServerDriver
 		}
 	}
 
+	private void recordGetTime(TrackerTimer timer, SCDataSpec entry)
+	{
+		int 		getTime = timer.end("get()");
+		String 		timingMessage;
+		if ( (entry != null) && (entry.data != null) )
+		{
+			int 		bytesPerSecond = (entry.data.size() / Math.max(1, getTime));
+			timingMessage = getTime + " ms " + entry.data.size() + " bytes " + bytesPerSecond + " bpms";
+		}
+		else
+		{
+			timingMessage = getTime + " ms <not found>";
+		}
+
+		int 		index = fLastGetTimesIndex.getAndIncrement();
+		if ( index >= LAST_GET_TIMES_QTY )
+		{
+			fLastGetTimesIndex.compareAndSet(index + 1, 0);
+			index = 0;
+		}
+		fLastGetTimes.set(index, timingMessage);
+	}
+
 	private SCDataSpec getEntry(String key, boolean ignoreTTL)
 	{
 		SCDataSpec entry = null;
 		try
 		{
-			entry = fDatabase.get(key);
+			entry = checkTTL(key, fDatabase.get(key), ignoreTTL);
+		}
+		catch ( Throwable e )
+		{
+			ImpSCUtils.handleException(e, null);
+		}
+		return entry;
+	}
 
-			if ( entry != null )
+	private SCDataSpec checkTTL(String key, SCDataSpec entry, boolean ignoreTTL) throws IOException
+	{
+		if ( entry != null )
+		{
+			if ( !ignoreTTL )
 			{
-				if ( !ignoreTTL )
+				long			now = System.currentTimeMillis();
+				if ( now >= entry.ttl )
 				{
-					long			now = System.currentTimeMillis();
-					if ( now >= entry.ttl )
-					{
-						entry = null;
-						fDatabase.remove(key);
-					}
+					entry = null;
+					fDatabase.remove(key);
 				}
 			}
 		}
-		catch ( Throwable e )
-		{
-			ImpSCUtils.handleException(e, null);
-		}
 		return entry;
 	}
 
@@ -627,9 +703,7 @@ class ImpSCServer implements SCServer, SCStorageServerDriver
 		{
 			ImpSCServerConnection connection = new ImpSCServerConnection(ImpSCServer.this, client, fIsMonitor);
 			client.setUserValue(connection);
-
-			GenericIOLineProcessor<ImpSCServerConnection> processor = new GenericIOLineProcessor<ImpSCServerConnection>(client, connection);
-			processor.execute();
+			connection.start();
 		}
 
 		private final boolean fIsMonitor;
@@ -639,6 +713,7 @@ class ImpSCServer implements SCServer, SCStorageServerDriver
 	private static final TrackerTimer.data 		fPutTimerData = new TrackerTimer.data("Puts");
 
 	private static final int				LAST_GET_TIMES_QTY = 50;
+	private static final int				RAW_TRANSFER_MINIMUM_SIZE = 64 * 1024;	// smaller objects are cheaper to send from memory
 
 	private static final String 			CHECKIN_VERSION = "1.5";
 
@@ -20,12 +20,18 @@ import com.shop.cache.api.commands.SCCommand;
 import com.shop.cache.api.commands.SCDataBuilder;
 import com.shop.cache.api.commands.SCDataBuilderTypeAndCount;
 import com.shop.cache.api.commands.SCSetOfCommands;
+import com.shop.cache.api.commands.SCCommandGetObjectRaw;
 import com.shop.cache.api.server.SCConnection;
+import com.shop.cache.api.storage.SCObjectRegion;
 import com.shop.util.chunked.ChunkedByteArray;
 import com.shop.util.generic.GenericIOClient;
 import com.shop.util.generic.GenericIOLineProcessor;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
 
 /**
  * @author Jordan Zimmerman
@@ -39,6 +45,16 @@ class ImpSCServerConnection implements SCConnection, GenericIOLineProcessor.Acce
 		fIsMonitorMode = isMonitorMode;
 		fCurrentCommand = null;
 		fTimeCreated = fLastCommandTime = System.currentTimeMillis();
+		fProcessor = new GenericIOLineProcessor<ImpSCServerConnection>(client, this);
+		fIsResponsePending = false;
+	}
+
+	/**
+	 * Start reading commands
+	 */
+	void 		start()
+	{
+		fProcessor.execute();
 	}
 
 	String 		getCurrentCommand()
@@ -118,6 +134,83 @@ class ImpSCServerConnection implements SCConnection, GenericIOLineProcessor.Acce
 		}
 	}
 
+	@Override
+	public void sendRawObject(final ChunkedByteArray obj) throws IOException
+	{
+		int 		size = (obj != null) ? obj.size() : 0;
+
+		fClient.sendRaw
+		(
+			size,
+			new GenericIOClient.RawWriter()
+			{
+				@Override
+				public void writeTo(WritableByteChannel channel) throws IOException
+				{
+					obj.writeTo(Channels.newOutputStream(channel));
+				}
+			}
+		);
+		if ( size > 0 )
+		{
+			fClient.send(SCCommandGetObjectRaw.OBJECT_IS_VALID);
+		}
+	}
+
+	@Override
+	public void sendRawObject(final SCObjectRegion region) throws IOException
+	{
+		fClient.sendRaw
+		(
+			region.getLength(),
+			new GenericIOClient.RawWriter()
+			{
+				@Override
+				public void writeTo(WritableByteChannel channel) throws IOException
+				{
+					region.transferTo(channel);
+				}
+			}
+		);
+		fClient.send(region.isValid() ? SCCommandGetObjectRaw.OBJECT_IS_VALID : SCCommandGetObjectRaw.OBJECT_IS_INVALID);
+	}
+
+	@Override
+	public <T> void sendWhenComplete(CompletableFuture<T> future, final ResponseSender<T> sender) throws IOException
+	{
+		if ( future.isDone() )
+		{
+			sender.send(this, future.join());
+			return;
+		}
+
+		// the next command isn't read until the response is sent by the resumed processor
+		fIsResponsePending = true;
+		fProcessor.suspend();
+		future.whenComplete
+		(
+			new BiConsumer<T, Throwable>()
+			{
+				@Override
+				public void accept(final T value, final Throwable exception)
+				{
+					// the send is done in the processor's thread, not the thread that completed the future
+					fProcessor.resume
+					(
+						new Runnable()
+						{
+							@Override
+							public void run()
+							{
+								sendPendingResponse(sender, value, exception);
+							}
+						}
+					);
+				}
+			}
+		);
+	}
+
 	@Override
 	public void line(GenericIOClient<ImpSCServerConnection> impSCServerConnectionXGenericIOClient, String line) throws Exception
 	{
@@ -186,7 +279,10 @@ class ImpSCServerConnection implements SCConnection, GenericIOLineProcessor.Acce
 			fClient.flush();
 		}
 
-		fCurrentCommand = null;
+		if ( !fIsResponsePending )
+		{
+			fCurrentCommand = null;
+		}
 	}
 
 	@Override
@@ -195,6 +291,36 @@ class ImpSCServerConnection implements SCConnection, GenericIOLineProcessor.Acce
 		fServer.notifyException(e);
 	}
 
+	private <T> void sendPendingResponse(ResponseSender<T> sender, T value, Throwable exception)
+	{
+		try
+		{
+			if ( exception != null )
+			{
+				throw new IOException(exception);
+			}
+			sender.send(this, value);
+			fClient.flush();
+		}
+		catch ( Exception e )
+		{
+			notifyException(e);
+			try
+			{
+				fClient.close();
+			}
+			catch ( IOException ignore )
+			{
+				// ignore
+			}
+		}
+		finally
+		{
+			fIsResponsePending = false;
+			fCurrentCommand = null;
+		}
+	}
+
 	private int sizeFromLine(String line)
 	{
 		int			size = 0;
@@ -213,7 +339,9 @@ class ImpSCServerConnection implements SCConnection, GenericIOLineProcessor.Acce
 	private final ImpSCServer 								fServer;
 	private final GenericIOClient<ImpSCServerConnection> 	fClient;
 	private final boolean 									fIsMonitorMode;
+	private final GenericIOLineProcessor<ImpSCServerConnection> 	fProcessor;
 	private final long										fTimeCreated;
 	private volatile String									fCurrentCommand;
 	private volatile long									fLastCommandTime;
+	private volatile boolean								fIsResponsePending;
 }
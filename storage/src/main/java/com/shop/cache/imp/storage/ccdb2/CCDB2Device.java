@@ -0,0 +1,179 @@
+/*
+ * Copyright 2008-2009 SHOP.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shop.cache.imp.storage.ccdb2;
+
+import com.shop.util.ccdb2.CCDB2Instance;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One of the storage directories - usually a separate disk. Shards are striped across the devices and
+ * each device keeps its own statistics and its own bounded pool of I/O threads for asynchronous gets/puts.<br>
+ *
+ * @author Jordan Zimmerman
+ */
+class CCDB2Device
+{
+	/**
+	 * @param directoryPath the device's directory
+	 * @param ioThreadQty number of I/O threads
+	 * @param ioQueueLength maximum number of queued I/O operations
+	 */
+	CCDB2Device(final File directoryPath, int ioThreadQty, int ioQueueLength)
+	{
+		fDirectoryPath = directoryPath;
+		fShards = new CopyOnWriteArrayList<CCDB2Shard>();
+		fGetQty = new AtomicLong(0);
+		fPutQty = new AtomicLong(0);
+		fRemoveQty = new AtomicLong(0);
+		fRejectedQty = new AtomicLong(0);
+
+		ThreadFactory 		threadFactory = new ThreadFactory()
+		{
+			@Override
+			public Thread newThread(Runnable r)
+			{
+				Thread 		thread = new Thread(r, "CCDB2 I/O " + directoryPath.getPath() + " #" + fThreadNumber.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+
+			private final AtomicInteger 	fThreadNumber = new AtomicInteger(0);
+		};
+		int 				threadQty = Math.max(ioThreadQty, 1);
+		fExecutor = new ThreadPoolExecutor(threadQty, threadQty, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(Math.max(ioQueueLength, 1)), threadFactory);
+	}
+
+	File 		getDirectoryPath()
+	{
+		return fDirectoryPath;
+	}
+
+	void 		addShard(CCDB2Shard shard)
+	{
+		fShards.add(shard);
+	}
+
+	void 		recordGet()
+	{
+		fGetQty.incrementAndGet();
+	}
+
+	void 		recordPut()
+	{
+		fPutQty.incrementAndGet();
+	}
+
+	void 		recordRemove()
+	{
+		fRemoveQty.incrementAndGet();
+	}
+
+	/**
+	 * Run the given disk operation in one of the device's I/O threads. If the device's queue is full (or the device
+	 * has been shut down), the operation is rejected - it isn't run in the calling thread, so the number of disk
+	 * operations in progress stays bounded.
+	 *
+	 * @param operation the operation
+	 * @return true if the operation was queued, false if it was rejected
+	 */
+	boolean 	execute(Runnable operation)
+	{
+		try
+		{
+			fExecutor.execute(operation);
+			return true;
+		}
+		catch ( RejectedExecutionException dummy )
+		{
+			fRejectedQty.incrementAndGet();
+			return false;
+		}
+	}
+
+	/**
+	 * Stop the I/O threads after the queued operations have been run
+	 */
+	void 		shutdown()
+	{
+		fExecutor.shutdown();
+		try
+		{
+			if ( !fExecutor.awaitTermination(SHUTDOWN_WAIT_SECONDS, TimeUnit.SECONDS) )
+			{
+				fExecutor.shutdownNow();
+			}
+		}
+		catch ( InterruptedException dummy )
+		{
+			fExecutor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Dump the device's statistics to the given stream
+	 *
+	 * @param out the stream
+	 */
+	void 		dumpStats(PrintStream out)
+	{
+		int 		instanceQty = 0;
+		long 		databaseSize = 0;
+		long 		diskGetQty = 0;
+		for ( CCDB2Shard shard : fShards )
+		{
+			List<CCDB2Instance> 	instances = shard.getInstances();
+			instanceQty += instances.size();
+			for ( CCDB2Instance instance : instances )
+			{
+				databaseSize += instance.getDatabaseSize();
+				diskGetQty += instance.getDiskGetQty();
+			}
+		}
+
+		out.println("Device " + fDirectoryPath.getPath());
+		out.println("\tShards:         " + fShards.size());
+		out.println("\tInstances:      " + instanceQty);
+		out.println("\tDB Size:        " + databaseSize);
+		out.println("\tFree Space:     " + fDirectoryPath.getUsableSpace());
+		out.println("\tGets:           " + fGetQty.get());
+		out.println("\tDisk Gets:      " + diskGetQty);
+		out.println("\tPuts:           " + fPutQty.get());
+		out.println("\tRemoves:        " + fRemoveQty.get());
+		out.println("\tI/O Queue:      " + fExecutor.getQueue().size() + " (active: " + fExecutor.getActiveCount() + ", rejected: " + fRejectedQty.get() + ")");
+		out.println();
+	}
+
+	private static final int 					SHUTDOWN_WAIT_SECONDS = 60;
+
+	private final File 							fDirectoryPath;
+	private final List<CCDB2Shard> 				fShards;
+	private final AtomicLong 					fGetQty;
+	private final AtomicLong 					fPutQty;
+	private final AtomicLong 					fRemoveQty;
+	private final AtomicLong 					fRejectedQty;
+	private final ThreadPoolExecutor 			fExecutor;
+}
@@ -15,6 +15,8 @@
  */
 package com.shop.cache.imp.storage.ccdb2;
 
+import java.io.File;
+
 /**
  * Parameter builder for the CCDB2 database
  *
@@ -96,6 +98,189 @@ public class CCDB2Parameters implements Cloneable
 		return this;
 	}
 
+	/**
+	 * If true, disk gets are served from memory mapped segments of the DB files rather than via seek/read
+	 * calls. This avoids a system call and buffer copy per read when the OS page cache already holds the data.
+	 * The default is false.
+	 *
+	 * @param b new value
+	 * @return this
+	 */
+	public CCDB2Parameters 		mappedReads(boolean b)
+	{
+		fMappedReads = b;
+		return this;
+	}
+
+	/**
+	 * If true, the in-memory index stores only a 64 bit hash of each key along with the address and TTL in primitive
+	 * arrays - about 27 bytes per key instead of an object per key. Keys are verified against the record on disk.
+	 * The default is false.
+	 *
+	 * @param b new value
+	 * @return this
+	 */
+	public CCDB2Parameters 		primitiveIndex(boolean b)
+	{
+		fPrimitiveIndex = b;
+		return this;
+	}
+
+	/**
+	 * Change the number of bytes of object data the storage caches in memory. The budget is split evenly across the live
+	 * CCDB2 instances of all the shards and re-split whenever an instance is added. When an instance's share is reached, its
+	 * least recently used objects are evicted. 0 disables the cache. The default is 64 MB.
+	 *
+	 * @param bytes new value
+	 * @return this
+	 */
+	public CCDB2Parameters 		objectCacheSize(long bytes)
+	{
+		fObjectCacheSize = bytes;
+		return this;
+	}
+
+	/**
+	 * If true, records in new DB files are written with a CRC32C checksum that is verified when the record is
+	 * read. The default is true.
+	 *
+	 * @param b new value
+	 * @return this
+	 */
+	public CCDB2Parameters 		checksums(boolean b)
+	{
+		fChecksums = b;
+		return this;
+	}
+
+	/**
+	 * If true, each instance keeps a sorted set of its keys. regexFindKeys() calls whose pattern starts with a literal
+	 * prefix (e.g. "product:123:.*") then only examine the keys with that prefix instead of scanning the whole index. This costs
+	 * an extra node per key. With the primitive index, the keys must also be read from the DB when it is opened. The default is false.
+	 *
+	 * @param b new value
+	 * @return this
+	 */
+	public CCDB2Parameters 		sortedKeyIndex(boolean b)
+	{
+		fSortedKeyIndex = b;
+		return this;
+	}
+
+	/**
+	 * The number of shards to partition the storage into. Keys are assigned to a shard by hash and each shard has its
+	 * own chain of DB files and its own lock, so rotating files or cleaning up only stalls the keys in one shard. When
+	 * greater than 1, each shard's files are kept in a sub-directory of the storage directory. Changing this for an existing
+	 * storage directory makes the previously stored objects unreachable. The default is 1.
+	 *
+	 * @param i new value
+	 * @return this
+	 */
+	public CCDB2Parameters 		shardQty(int i)
+	{
+		fShardQty = i;
+		return this;
+	}
+
+	/**
+	 * Change the number of keys the storage sizes its key filters for. Each CCDB2 instance has a filter that lets lookups
+	 * of keys that aren't in the instance skip the instance's index. The capacity is split evenly across the shards and
+	 * the maximum number of instances per shard. A filter uses about 10 bits per key. Past its share, a filter still works
+	 * but skips fewer lookups. 0 disables the filter. The default is 3,000,000.
+	 *
+	 * @param qty new value
+	 * @return this
+	 */
+	public CCDB2Parameters 		keyFilterCapacity(int qty)
+	{
+		fKeyFilterCapacity = qty;
+		return this;
+	}
+
+	/**
+	 * Change the maximum number of keys per second (per shard) that are promoted. Keys read from the instance that will be
+	 * dropped at the next rotation are copied into the newest instance in the background so that hot keys survive
+	 * rotations. 0 disables promotion. The default is 1000.
+	 *
+	 * @param keysPerSecond new value
+	 * @return this
+	 */
+	public CCDB2Parameters 		promotionRate(int keysPerSecond)
+	{
+		fPromotionRate = keysPerSecond;
+		return this;
+	}
+
+	/**
+	 * Objects of at least this many bytes are compressed (with Deflate) when written to the DB. An object is only stored
+	 * compressed if that makes it at least 1/8th smaller, so already compressed objects cost a compression attempt but are
+	 * stored as is. Compressed objects are decompressed when read and can't be sent to clients straight from the DB file. DB
+	 * files with compressed objects can't be read by versions without compression support. 0 disables compression. The default is 0.
+	 *
+	 * @param bytes new value or 0
+	 * @return this
+	 */
+	public CCDB2Parameters 		compressionThreshold(int bytes)
+	{
+		fCompressionThreshold = bytes;
+		return this;
+	}
+
+	/**
+	 * The maximum number of hot keys each DB file saves. The keys of the objects in each DB file's object cache (most used first)
+	 * are saved at shutdown and by the periodic cleanup. After open(), the saved objects are read back into the caches in the background
+	 * (in file order) so that a restarted server doesn't start with empty caches. 0 disables hot key saving and warm up. The default is 100,000.
+	 *
+	 * @param qty new value or 0
+	 * @return this
+	 */
+	public CCDB2Parameters 		hotKeyQty(int qty)
+	{
+		fHotKeyQty = qty;
+		return this;
+	}
+
+	/**
+	 * Additional directories to store DB files in - e.g. one per disk. The shards are striped across the directory passed to
+	 * open() and these directories, so the shard quantity is raised to at least the number of directories. Each directory gets its
+	 * own statistics in dumpStats(). The order of the directories must not change for an existing storage. The default is none.
+	 *
+	 * @param directories the directories
+	 * @return this
+	 */
+	public CCDB2Parameters 		stripeDirectories(File... directories)
+	{
+		fStripeDirectories = directories.clone();
+		return this;
+	}
+
+	/**
+	 * The number of threads per storage directory (see {@link #stripeDirectories(File...)}) that do the disk reads and writes
+	 * of getAsync()/putAsync(). The threads are shared by all the shards on the directory, so a slow disk can't make the
+	 * thread count grow. The default is 4.
+	 *
+	 * @param i new value
+	 * @return this
+	 */
+	public CCDB2Parameters 		ioThreadsPerDevice(int i)
+	{
+		fIOThreadsPerDevice = i;
+		return this;
+	}
+
+	/**
+	 * Length of each storage directory's I/O queue for getAsync()/putAsync(). When the queue is full, getAsync() returns a miss
+	 * and putAsync() fails rather than adding to the disk's load. The default is 1000.
+	 *
+	 * @param i new value
+	 * @return this
+	 */
+	public CCDB2Parameters 		ioQueueLength(int i)
+	{
+		fIOQueueLength = i;
+		return this;
+	}
+
 	@Override
 	public CCDB2Parameters clone()
 	{
@@ -145,10 +330,88 @@ public class CCDB2Parameters implements Cloneable
 		return fBackgroundPutLength;
 	}
 
+	boolean	getMappedReads()
+	{
+		return fMappedReads;
+	}
+
+	boolean	getPrimitiveIndex()
+	{
+		return fPrimitiveIndex;
+	}
+
+	long	getObjectCacheSize()
+	{
+		return fObjectCacheSize;
+	}
+
+	boolean	getChecksums()
+	{
+		return fChecksums;
+	}
+
+	boolean	getSortedKeyIndex()
+	{
+		return fSortedKeyIndex;
+	}
+
+	int		getShardQty()
+	{
+		return fShardQty;
+	}
+
+	int		getKeyFilterCapacity()
+	{
+		return fKeyFilterCapacity;
+	}
+
+	int		getPromotionRate()
+	{
+		return fPromotionRate;
+	}
+
+	int		getCompressionThreshold()
+	{
+		return fCompressionThreshold;
+	}
+
+	int		getHotKeyQty()
+	{
+		return fHotKeyQty;
+	}
+
+	File[]	getStripeDirectories()
+	{
+		return fStripeDirectories;
+	}
+
+	int		getIOThreadsPerDevice()
+	{
+		return fIOThreadsPerDevice;
+	}
+
+	int		getIOQueueLength()
+	{
+		return fIOQueueLength;
+	}
+
 	private int			fMaxAgeMilliseconds = 12 * 60 * 60 * 1000;	// 12 hours
 	private int			fMaxInstances = 3;
 	private int			fBackgroundPutLength = 1000;
 	private String		fFilePrefix = "ccdb2";
 	private String		fDBFileExtension = ".db";
 	private String		fIndexFileExtension = ".idx";
+	private boolean		fMappedReads = false;
+	private boolean		fPrimitiveIndex = false;
+	private long		fObjectCacheSize = 0x4000000;	// 64 MB
+	private boolean		fChecksums = true;
+	private boolean		fSortedKeyIndex = false;
+	private int			fShardQty = 1;
+	private int			fKeyFilterCapacity = 3000000;
+	private int			fPromotionRate = 1000;
+	private int			fCompressionThreshold = 0;
+	private int			fHotKeyQty = 100000;
+	private File[]		fStripeDirectories = new File[0];
+	private int			fIOThreadsPerDevice = 4;
+	private int			fIOQueueLength = 1000;
 }
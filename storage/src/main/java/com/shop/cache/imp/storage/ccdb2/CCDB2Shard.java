@@ -0,0 +1,749 @@
+/*
+ * Copyright 2008-2009 SHOP.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shop.cache.imp.storage.ccdb2;
+
+import com.shop.util.ccdb2.CCDB2DataSpec;
+import com.shop.util.ccdb2.CCDB2Instance;
+import com.shop.util.ccdb2.CCDB2ObjectRegion;
+import com.shop.util.ccdb2.CCDB2SetFileLengthException;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * One partition of the storage. Keys are assigned to a shard by hash and each shard has its own
+ * chain of instances, its own files and its own lock. Thus, rotating a shard's instances only
+ * stalls the keys in that shard.<br>
+ *
+ * @author Jordan Zimmerman
+ */
+class CCDB2Shard
+{
+	/**
+	 * @param storage the owning storage
+	 * @param parameters storage parameters
+	 * @param device the device the shard's files are on
+	 * @param directoryPath the shard's directory
+	 */
+	CCDB2Shard(CCDB2Storage storage, CCDB2Parameters parameters, CCDB2Device device, File directoryPath)
+	{
+		fStorage = storage;
+		fParameters = parameters;
+		fDevice = device;
+		fDirectoryPath = directoryPath;
+		fLock = new ReentrantReadWriteLock();
+		fInstances = new ArrayList<CCDB2Instance>();
+		fPromotions = (parameters.getPromotionRate() > 0) ? new ArrayBlockingQueue<Promotion>(parameters.getPromotionRate()) : null;
+		fPromotedQty = new AtomicLong(0);
+	}
+
+	/**
+	 * Find the shard's existing DB files, deleting any that are too old. The instances are not loaded.
+	 *
+	 * @return the shard's instances from oldest to newest. They must be loaded and then passed to {@link #setInstances(List)}
+	 * @throws IOException errors
+	 */
+	List<CCDB2Instance> 	openInstances() throws IOException
+	{
+		fDirectoryPath.mkdirs();
+
+		List<CCDB2Instance> 	localList = new ArrayList<CCDB2Instance>();
+		File[]					files = fDirectoryPath.listFiles
+		(
+			new FilenameFilter()
+			{
+				@Override
+				public boolean accept(File dir, String name)
+				{
+					return name.toLowerCase().endsWith(fParameters.getDBFileExtension());
+				}
+			}
+		);
+
+		for ( File f : files )
+		{
+			try
+			{
+				int				dotIndex = f.getName().indexOf('.');
+				String 			unextendedName = (dotIndex > 0) ? f.getName().substring(0, dotIndex) : f.getName();
+				CCDB2Instance 	instance = new CCDB2Instance(fStorage, f.getParentFile(), unextendedName, fParameters.getBackgroundPutLength());
+				if ( (System.currentTimeMillis() - instance.getCreationTime()) < (fParameters.getMaxAgeMilliseconds() * 2) )
+				{
+					localList.add(instance);
+				}
+				else
+				{
+					instance.delete();
+				}
+			}
+			catch ( CCDB2Instance.OldFileException e )
+			{
+				System.out.println(e.getMessage());
+			}
+			catch ( IOException e )
+			{
+				fStorage.log("", e, true);
+			}
+		}
+
+		Collections.sort
+		(
+			localList,
+			new Comparator<CCDB2Instance>()
+			{
+				@Override
+				public int compare(CCDB2Instance o1, CCDB2Instance o2)
+				{
+					long diff = o1.getCreationTime() - o2.getCreationTime();
+					return (diff < 0) ? -1 : ((diff > 0) ? 1 : 0);
+				}
+			}
+		);
+
+		if ( localList.size() == 0 )
+		{
+			CCDB2Instance 		newInstance = makeNewInstance();
+			localList.add(newInstance);
+		}
+
+		while ( localList.size() > fParameters.getMaxInstances() )
+		{
+			CCDB2Instance		instance = localList.remove(0);
+			instance.delete();
+		}
+
+		return localList;
+	}
+
+	/**
+	 * Make the given (loaded) instances the shard's instances
+	 *
+	 * @param instances instances from oldest to newest
+	 */
+	void 		setInstances(List<CCDB2Instance> instances)
+	{
+		fLock.writeLock().lock();
+		try
+		{
+			fInstances.clear();
+			fInstances.addAll(instances);
+		}
+		finally
+		{
+			fLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns a copy of the shard's current instances
+	 *
+	 * @return instances from oldest to newest
+	 */
+	List<CCDB2Instance> 	getInstances()
+	{
+		fLock.readLock().lock();
+		try
+		{
+			return new ArrayList<CCDB2Instance>(fInstances);
+		}
+		finally
+		{
+			fLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Remove the shard's instances so that they can be closed
+	 *
+	 * @return the instances
+	 */
+	List<CCDB2Instance> 	clearInstances()
+	{
+		fLock.writeLock().lock();
+		try
+		{
+			List<CCDB2Instance> 	instances = new ArrayList<CCDB2Instance>(fInstances);
+			fInstances.clear();
+			return instances;
+		}
+		finally
+		{
+			fLock.writeLock().unlock();
+		}
+	}
+
+	CCDB2DataSpec 		get(String key) throws IOException
+	{
+		CCDB2DataSpec 	ccdb2Spec;
+
+		fDevice.recordGet();
+		fLock.readLock().lock();
+		try
+		{
+			AtomicReference<Boolean> 		wasDeleted = new AtomicReference<Boolean>(false);
+			ListIterator<CCDB2Instance> iterator = reverseIterator();
+			ccdb2Spec = null;
+			while ( (ccdb2Spec == null) && iterator.hasPrevious() )
+			{
+				CCDB2Instance instance = iterator.previous();
+				if ( wasDeleted.get() )
+				{
+					instance.removeFromIndex(key);
+				}
+				else
+				{
+					ccdb2Spec = instance.get(key, wasDeleted);
+					if ( (ccdb2Spec != null) && isNextToBeDropped(instance) )
+					{
+						// if the queue is full the key is simply not promoted
+						fPromotions.offer(new Promotion(key, instance));
+					}
+				}
+			}
+		}
+		finally
+		{
+			fLock.readLock().unlock();
+		}
+
+		return ccdb2Spec;
+	}
+
+	/**
+	 * Returns the key's object if that doesn't require reading a DB file - see {@link CCDB2Instance#getFromMemory(String, AtomicReference)}.
+	 * If needsRead is set to true, {@link #get(String)} must be used.
+	 *
+	 * @param key key
+	 * @param needsRead set to true if the object must be read via get()
+	 * @return the object/ttl or null
+	 */
+	CCDB2DataSpec 		getFromMemory(String key, AtomicReference<Boolean> needsRead)
+	{
+		fLock.readLock().lock();
+		try
+		{
+			ListIterator<CCDB2Instance> 	iterator = reverseIterator();
+			while ( iterator.hasPrevious() )
+			{
+				CCDB2Instance 		instance = iterator.previous();
+				CCDB2DataSpec 		ccdb2Spec = instance.getFromMemory(key, needsRead);
+				if ( ccdb2Spec != null )
+				{
+					fDevice.recordGet();
+					if ( isNextToBeDropped(instance) )
+					{
+						fPromotions.offer(new Promotion(key, instance));
+					}
+					return ccdb2Spec;
+				}
+				if ( needsRead.get() )
+				{
+					return null;
+				}
+			}
+		}
+		finally
+		{
+			fLock.readLock().unlock();
+		}
+
+		fDevice.recordGet();
+		return null;
+	}
+
+	/**
+	 * Returns the device the shard's files are on
+	 *
+	 * @return device
+	 */
+	CCDB2Device 		getDevice()
+	{
+		return fDevice;
+	}
+
+	/**
+	 * Returns the file region of the key's object - see {@link CCDB2Instance#getObjectRegion(String, int)}
+	 *
+	 * @param key key
+	 * @param minimumSize minimum object size
+	 * @return region or null
+	 * @throws IOException errors
+	 */
+	CCDB2ObjectRegion 	getObjectRegion(String key, int minimumSize) throws IOException
+	{
+		fLock.readLock().lock();
+		try
+		{
+			ListIterator<CCDB2Instance> 	iterator = reverseIterator();
+			while ( iterator.hasPrevious() )
+			{
+				CCDB2Instance 		instance = iterator.previous();
+				if ( instance.containsKey(key) )
+				{
+					// only the newest instance with an entry for the key can have the current object
+					CCDB2ObjectRegion 	region = instance.getObjectRegion(key, minimumSize);
+					if ( region != null )
+					{
+						fDevice.recordGet();
+						if ( isNextToBeDropped(instance) )
+						{
+							fPromotions.offer(new Promotion(key, instance));
+						}
+					}
+					return region;
+				}
+			}
+		}
+		finally
+		{
+			fLock.readLock().unlock();
+		}
+
+		return null;
+	}
+
+	void 		put(String key, CCDB2DataSpec ccdb2Spec, long[] ccdb2Groups)
+	{
+		fDevice.recordPut();
+		fLock.readLock().lock();
+		try
+		{
+			putInInstances(key, ccdb2Spec, ccdb2Groups);
+		}
+		finally
+		{
+			fLock.readLock().unlock();
+		}
+	}
+
+	void 		remove(String key) throws IOException
+	{
+		fDevice.recordRemove();
+		fLock.readLock().lock();
+		try
+		{
+			boolean 						isFirst = true;
+			ListIterator<CCDB2Instance> 	iterator = reverseIterator();
+			while ( iterator.hasPrevious() )
+			{
+				CCDB2Instance 	instance = iterator.previous();
+				if ( isFirst )
+				{
+					isFirst = false;
+					instance.remove(key);
+				}
+				else
+				{
+					instance.removeFromIndex(key);
+				}
+			}
+		}
+		finally
+		{
+			fLock.readLock().unlock();
+		}
+	}
+
+	void 		regexFindKeys(Pattern p, Set<String> keys)
+	{
+		fLock.readLock().lock();
+		try
+		{
+			for ( CCDB2Instance instance : fInstances )
+			{
+				instance.regexFindKeys(p, keys);
+			}
+		}
+		finally
+		{
+			fLock.readLock().unlock();
+		}
+	}
+
+	void 		listGroup(long groupSpec, List<String> keys) throws IOException
+	{
+		fLock.readLock().lock();
+		try
+		{
+			for ( CCDB2Instance instance : fInstances )
+			{
+				keys.addAll(instance.listGroup(groupSpec));
+			}
+		}
+		finally
+		{
+			fLock.readLock().unlock();
+		}
+	}
+
+	void 		removeGroup(long groupSpec, List<String> keys) throws IOException
+	{
+		fLock.readLock().lock();
+		try
+		{
+			for ( CCDB2Instance instance : fInstances )
+			{
+				keys.addAll(instance.removeGroup(groupSpec));
+			}
+		}
+		finally
+		{
+			fLock.readLock().unlock();
+		}
+	}
+
+	void 		dumpStats(PrintStream out)
+	{
+		fLock.readLock().lock();
+		try
+		{
+			for ( CCDB2Instance instance : fInstances )
+			{
+				instance.dumpStats(out);
+			}
+		}
+		finally
+		{
+			fLock.readLock().unlock();
+		}
+	}
+
+	void 		writeKeyData(PrintStream out)
+	{
+		fLock.readLock().lock();
+		try
+		{
+			for ( CCDB2Instance instance : fInstances )
+			{
+				instance.writeKeyData(out);
+			}
+		}
+		finally
+		{
+			fLock.readLock().unlock();
+		}
+	}
+
+	void 		saveHotKeys()
+	{
+		fLock.readLock().lock();
+		try
+		{
+			for ( CCDB2Instance instance : fInstances )
+			{
+				try
+				{
+					instance.saveHotKeys();
+				}
+				catch ( IOException e )
+				{
+					fStorage.handleException(e);
+				}
+			}
+		}
+		finally
+		{
+			fLock.readLock().unlock();
+		}
+	}
+
+	void 		compactIndexFiles()
+	{
+		fLock.readLock().lock();
+		try
+		{
+			for ( CCDB2Instance instance : fInstances )
+			{
+				try
+				{
+					instance.compactIndexFile();
+				}
+				catch ( IOException e )
+				{
+					fStorage.handleException(e);
+				}
+			}
+		}
+		finally
+		{
+			fLock.readLock().unlock();
+		}
+	}
+
+	void 		expireOldObjects(int maxQty)
+	{
+		fLock.readLock().lock();
+		try
+		{
+			for ( CCDB2Instance instance : fInstances )
+			{
+				instance.expireOldKeys(maxQty);
+			}
+		}
+		finally
+		{
+			fLock.readLock().unlock();
+		}
+	}
+
+	void 		cleanupOldObjects()
+	{
+		fLock.readLock().lock();
+		try
+		{
+			// important - do this from oldest to newest so that old objects don't suddenly become active
+			for ( CCDB2Instance instance : fInstances )
+			{
+				instance.removeOldKeysFromIndex();
+			}
+		}
+		finally
+		{
+			fLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Copy keys that were read from the instance that will be dropped at the next rotation into the newest instance
+	 * so that they survive the rotation. At most {@link CCDB2Parameters#promotionRate(int)} keys are queued between calls.
+	 *
+	 * @return number of keys promoted
+	 */
+	int 		promoteKeys()
+	{
+		if ( fPromotions == null )
+		{
+			return 0;
+		}
+
+		List<Promotion> 	promotions = new ArrayList<Promotion>();
+		fPromotions.drainTo(promotions);
+		if ( promotions.size() == 0 )
+		{
+			return 0;
+		}
+
+		// read the objects without the lock - objects in older instances never change, they can only be removed
+		long 					now = System.currentTimeMillis();
+		List<Promotion> 		readyPromotions = new ArrayList<Promotion>();
+		for ( Promotion promotion : promotions )
+		{
+			try
+			{
+				promotion.spec = promotion.instance.get(promotion.key, null);
+				if ( (promotion.spec != null) && (promotion.spec.ttl > now) )
+				{
+					promotion.groupSpecs = promotion.instance.getGroupSpecs(promotion.key);
+					readyPromotions.add(promotion);
+				}
+			}
+			catch ( IOException e )
+			{
+				fStorage.handleException(e);
+			}
+		}
+
+		int 		promotedQty = 0;
+		fLock.writeLock().lock();
+		try
+		{
+			/*
+				the write lock keeps out puts/removes. So, if the object is still in its instance and the newest
+				instance has no entry for it (not even a removal), the object is still current
+			 */
+			for ( Promotion promotion : readyPromotions )
+			{
+				CCDB2Instance 		newestInstance = fInstances.get(fInstances.size() - 1);
+				if ( (promotion.instance != newestInstance) && fInstances.contains(promotion.instance) && promotion.instance.hasKey(promotion.key) && !newestInstance.containsKey(promotion.key) )
+				{
+					putInInstances(promotion.key, promotion.spec, promotion.groupSpecs);
+					++promotedQty;
+				}
+			}
+		}
+		finally
+		{
+			fLock.writeLock().unlock();
+		}
+
+		fPromotedQty.addAndGet(promotedQty);
+		return promotedQty;
+	}
+
+	/**
+	 * Returns the total number of keys promoted
+	 *
+	 * @return qty
+	 */
+	long 		getPromotedQty()
+	{
+		return fPromotedQty.get();
+	}
+
+	void 		cleanupInstances()
+	{
+		/**
+		 * allocate a new instance just in case it's needed - that way it
+		 * won't be done while synchronized
+		 */
+		CCDB2Instance 	newInstance;
+		try
+		{
+			newInstance = makeNewInstance();
+		}
+		catch ( IOException e )
+		{
+			fStorage.handleException(e);
+			return;
+		}
+
+		CCDB2Instance 		deleteInstance = null;
+
+		fLock.writeLock().lock();
+		try
+		{
+			if ( fInstances.size() > 0 )
+			{
+				CCDB2Instance 		mainInstance = fInstances.get(fInstances.size() - 1);
+				if ( (System.currentTimeMillis() - mainInstance.getCreationTime()) >= fParameters.getShuffleMilliseconds() )
+				{
+					if ( fInstances.size() >= fParameters.getMaxInstances() )
+					{
+						deleteInstance = fInstances.remove(0);
+					}
+
+					fInstances.add(newInstance);
+					newInstance = null;	// so it won't be deleted
+				}
+			}
+		}
+		finally
+		{
+			fLock.writeLock().unlock();
+		}
+
+		if ( newInstance == null )
+		{
+			fStorage.updateObjectCacheShares();
+		}
+
+		if ( newInstance != null )
+		{
+			try
+			{
+				newInstance.delete();
+			}
+			catch ( IOException e )
+			{
+				fStorage.handleException(e);
+			}
+		}
+
+		if ( deleteInstance != null )
+		{
+			try
+			{
+				deleteInstance.delete();
+			}
+			catch ( IOException e )
+			{
+				fStorage.handleException(e);
+			}
+		}
+	}
+
+	private void putInInstances(String key, CCDB2DataSpec ccdb2Spec, long[] ccdb2Groups)
+	{
+		boolean 						isFirst = true;
+		ListIterator<CCDB2Instance> 	iterator = reverseIterator();
+		while ( iterator.hasPrevious() )
+		{
+			CCDB2Instance		instance = iterator.previous();
+			try
+			{
+				if ( isFirst )
+				{
+					isFirst = false;
+					instance.put(key, ccdb2Spec, ccdb2Groups);
+				}
+				else
+				{
+					instance.removeFromIndex(key);
+				}
+			}
+			catch ( CCDB2SetFileLengthException e )
+			{
+				fStorage.setErrorState("Out of Disk Space");
+			}
+			catch ( IOException e )
+			{
+				fStorage.handleException(e);
+			}
+		}
+	}
+
+	private boolean isNextToBeDropped(CCDB2Instance instance)
+	{
+		return (fPromotions != null) && (fInstances.size() > 1) && (fInstances.size() >= fParameters.getMaxInstances()) && (fInstances.get(0) == instance);
+	}
+
+	private ListIterator<CCDB2Instance> reverseIterator()
+	{
+		return fInstances.listIterator(fInstances.size());
+	}
+
+	private CCDB2Instance makeNewInstance() throws IOException
+	{
+		String			filename = fParameters.getFilePrefix() + System.nanoTime();
+		return new CCDB2Instance(fStorage, fDirectoryPath, filename, fParameters.getBackgroundPutLength());
+	}
+
+	private static class Promotion
+	{
+		final String 			key;
+		final CCDB2Instance 	instance;
+		CCDB2DataSpec 			spec;
+		long[] 					groupSpecs;
+
+		Promotion(String key, CCDB2Instance instance)
+		{
+			this.key = key;
+			this.instance = instance;
+		}
+	}
+
+	private final CCDB2Storage 					fStorage;
+	private final CCDB2Parameters 				fParameters;
+	private final CCDB2Device 					fDevice;
+	private final File 							fDirectoryPath;
+	private final List<CCDB2Instance> 			fInstances;
+	private final ReentrantReadWriteLock 		fLock;
+	private final BlockingQueue<Promotion> 		fPromotions;
+	private final AtomicLong 					fPromotedQty;
+}
@@ -15,6 +15,7 @@
  */
 package com.shop.cache.imp.storage.ccdb2;
 
+import com.shop.cache.api.storage.SCObjectRegion;
 import com.shop.cache.api.storage.SCStorage;
 import com.shop.cache.api.storage.SCStorageServerDriver;
 import com.shop.cache.api.common.SCDataSpec;
@@ -23,19 +24,20 @@ import com.shop.cache.api.common.SCGroupSpec;
 import com.shop.util.ccdb2.CCDB2DataSpec;
 import com.shop.util.ccdb2.CCDB2Driver;
 import com.shop.util.ccdb2.CCDB2Instance;
-import com.shop.util.ccdb2.CCDB2SetFileLengthException;
+import com.shop.util.ccdb2.CCDB2ObjectRegion;
 import java.io.*;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashSet;
+import java.util.HashMap;
 import java.util.List;
-import java.util.ListIterator;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
@@ -52,8 +54,8 @@ class CCDB2Storage implements SCStorage, CCDB2Driver
 		fGetQty = new AtomicLong(0);
 		fSuccessfulGetQty = new AtomicLong(0);
 		fPutQty = new AtomicLong(0);
-		fLock = new ReentrantReadWriteLock();
-		fInstances = new ArrayList<CCDB2Instance>();
+		fShards = new CCDB2Shard[Math.max(fParameters.getShardQty(), fParameters.getStripeDirectories().length + 1)];
+		fDevices = new ArrayList<CCDB2Device>();
 
 		fDriver = new SCStorageServerDriver()
 		{
@@ -89,20 +91,25 @@ class CCDB2Storage implements SCStorage, CCDB2Driver
 				@Override
 				public void run()
 				{
-					boolean 		firstTime = true;
+					long 			nextCleanupTime = System.currentTimeMillis() + FIRST_TIME_SLEEP_TICKS;
 					while ( !Thread.currentThread().isInterrupted() )
 					{
 						try
 						{
-							Thread.sleep(firstTime ? FIRST_TIME_SLEEP_TICKS : SLEEP_TICKS);
-							firstTime = false;
+							Thread.sleep(EXPIRATION_SLEEP_TICKS);
 						}
 						catch ( InterruptedException dummy )
 						{
 							break;
 						}
 
-						doCleanupTasks();
+						expireOldObjects();
+						promoteKeys();
+						if ( System.currentTimeMillis() >= nextCleanupTime )
+						{
+							doCleanupTasks();
+							nextCleanupTime = System.currentTimeMillis() + SLEEP_TICKS;
+						}
 					}
 				}
 			}
@@ -128,6 +135,16 @@ class CCDB2Storage implements SCStorage, CCDB2Driver
 		fDriver.log(s, e, newline);
 	}
 
+	/**
+	 * Report a fatal problem to the server
+	 *
+	 * @param errorState the problem
+	 */
+	void setErrorState(String errorState)
+	{
+		fDriver.setErrorState(errorState);
+	}
+
 	@Override
 	public String getDBExtension()
 	{
@@ -159,80 +176,98 @@ class CCDB2Storage implements SCStorage, CCDB2Driver
 	}
 
 	@Override
-	public void open(File path) throws IOException
+	public boolean useMappedReads()
 	{
-		fDirectoryPath = path;
-		fDirectoryPath.mkdirs();
+		return fParameters.getMappedReads();
+	}
 
-		List<CCDB2Instance> 	localList = new ArrayList<CCDB2Instance>();
-		File[]					files = fDirectoryPath.listFiles
-		(
-			new FilenameFilter()
-			{
-				@Override
-				public boolean accept(File dir, String name)
-				{
-					return name.toLowerCase().endsWith(fParameters.getDBFileExtension());
-				}
-			}
-		);
+	@Override
+	public boolean usePrimitiveIndex()
+	{
+		return fParameters.getPrimitiveIndex();
+	}
+
+	@Override
+	public long getObjectCacheSize()
+	{
+		return fObjectCacheShare;
+	}
+
+	@Override
+	public boolean useChecksums()
+	{
+		return fParameters.getChecksums();
+	}
 
-		for ( File f : files )
+	@Override
+	public boolean useSortedKeyIndex()
+	{
+		return fParameters.getSortedKeyIndex();
+	}
+
+	@Override
+	public int getKeyFilterCapacity()
+	{
+		int 		capacity = fParameters.getKeyFilterCapacity();
+		if ( capacity <= 0 )
 		{
-			try
-			{
-				int				dotIndex = f.getName().indexOf('.');
-				String 			unextendedName = (dotIndex > 0) ? f.getName().substring(0, dotIndex) : f.getName();
-				CCDB2Instance 	instance = new CCDB2Instance(this, f.getParentFile(), unextendedName, fParameters.getBackgroundPutLength());
-				if ( (System.currentTimeMillis() - instance.getCreationTime()) < (fParameters.getMaxAgeMilliseconds() * 2) )
-				{
-					localList.add(instance);
-				}
-				else
-				{
-					instance.delete();
-				}
-			}
-			catch ( CCDB2Instance.OldFileException e )
-			{
-				System.out.println(e.getMessage());
-			}
-			catch ( IOException e )
-			{
-				log("", e, true);
-			}
+			return 0;
 		}
+		// a filter can't be resized once it's built so it's sized for the most instances there can be
+		return Math.max(capacity / (fShards.length * Math.max(fParameters.getMaxInstances(), 1)), 1);
+	}
 
-		Collections.sort
-		(
-			localList,
-			new Comparator<CCDB2Instance>()
-			{
-				@Override
-				public int compare(CCDB2Instance o1, CCDB2Instance o2)
-				{
-					long diff = o1.getCreationTime() - o2.getCreationTime();
-					return (diff < 0) ? -1 : ((diff > 0) ? 1 : 0);
-				}
-			}
-		);
+	@Override
+	public int getCompressionThreshold()
+	{
+		return fParameters.getCompressionThreshold();
+	}
 
-		if ( localList.size() == 0 )
+	@Override
+	public int getHotKeyQty()
+	{
+		return fParameters.getHotKeyQty();
+	}
+
+	@Override
+	public void open(File path) throws IOException
+	{
+		fDirectoryPath = path;
+		fDirectoryPath.mkdirs();
+
+		fDevices.clear();
+		fDevices.add(new CCDB2Device(fDirectoryPath, fParameters.getIOThreadsPerDevice(), fParameters.getIOQueueLength()));
+		for ( File directory : fParameters.getStripeDirectories() )
 		{
-			CCDB2Instance 		newInstance = makeNewInstance();
-			localList.add(newInstance);
+			fDevices.add(new CCDB2Device(directory, fParameters.getIOThreadsPerDevice(), fParameters.getIOQueueLength()));
 		}
 
-		while ( localList.size() > fParameters.getMaxInstances() )
+		List<CCDB2Instance> 		allInstances = new ArrayList<CCDB2Instance>();
+		List<List<CCDB2Instance>> 	shardInstances = new ArrayList<List<CCDB2Instance>>();
+		Map<CCDB2Instance, CCDB2Device> 	instanceDevices = new HashMap<CCDB2Instance, CCDB2Device>();
+		for ( int i = 0; i < fShards.length; ++i )
 		{
-			CCDB2Instance		instance = localList.remove(0);
-			instance.delete();
+			// shards are striped across the devices. A single shard uses the directory itself so that existing databases can still be read
+			CCDB2Device 	device = fDevices.get(i % fDevices.size());
+			File 			shardPath = (fShards.length > 1) ? new File(device.getDirectoryPath(), SHARD_DIRECTORY_PREFIX + i) : device.getDirectoryPath();
+			fShards[i] = new CCDB2Shard(this, fParameters, device, shardPath);
+			device.addShard(fShards[i]);
+
+			List<CCDB2Instance> 	instances = fShards[i].openInstances();
+			shardInstances.add(instances);
+			allInstances.addAll(instances);
+			for ( CCDB2Instance instance : instances )
+			{
+				instanceDevices.put(instance, device);
+			}
 		}
 
+		fObjectCacheShare = fParameters.getObjectCacheSize() / Math.max(allInstances.size(), 1);
+
 		CCDB2InstanceLoader loader = new CCDB2InstanceLoader
 		(
 			this, 
-			localList,
+			allInstances,
 			new CCDB2InstanceLoader.ProcessDriver()
 			{
 				@Override
@@ -245,10 +280,17 @@ class CCDB2Storage implements SCStorage, CCDB2Driver
 		log("Loading...", null, true);
 		loader.load();
 
-		fInstances.clear();
-		fInstances.addAll(localList);
+		for ( int i = 0; i < fShards.length; ++i )
+		{
+			fShards[i].setInstances(shardInstances.get(i));
+		}
+		updateObjectCacheShares();
 
 		fCleanupThread.start();
+		if ( fParameters.getHotKeyQty() > 0 )
+		{
+			startWarmUp(allInstances, instanceDevices);
+		}
 	}
 
 	@Override
@@ -256,39 +298,91 @@ class CCDB2Storage implements SCStorage, CCDB2Driver
 	{
 		fGetQty.incrementAndGet();
 
-		CCDB2DataSpec 	ccdb2Spec;
+		return makeDataSpec(getShard(key).get(key));
+	}
 
-		fLock.readLock().lock();
-		try
+	@Override
+	public CompletableFuture<SCDataSpec> getAsync(final String key)
+	{
+		fGetQty.incrementAndGet();
+
+		final CCDB2Shard 			shard = getShard(key);
+		AtomicReference<Boolean> 	needsRead = new AtomicReference<Boolean>(false);
+		CCDB2DataSpec 				ccdb2Spec = shard.getFromMemory(key, needsRead);
+		if ( !needsRead.get() )
 		{
-			AtomicReference<Boolean> 		wasDeleted = new AtomicReference<Boolean>(false);
-			ListIterator<CCDB2Instance> iterator = reverseIterator();
-			ccdb2Spec = null;
-			while ( (ccdb2Spec == null) && iterator.hasPrevious() )
+			return CompletableFuture.completedFuture(makeDataSpec(ccdb2Spec));
+		}
+
+		final CompletableFuture<SCDataSpec> 	future = new CompletableFuture<SCDataSpec>();
+		boolean 								isQueued = shard.getDevice().execute
+		(
+			new Runnable()
 			{
-				CCDB2Instance instance = iterator.previous();
-				if ( wasDeleted.get() )
-				{
-					instance.removeFromIndex(key);
-				}
-				else
+				@Override
+				public void run()
 				{
-					ccdb2Spec = instance.get(key, wasDeleted);
+					try
+					{
+						future.complete(makeDataSpec(shard.get(key)));
+					}
+					catch ( Throwable e )
+					{
+						future.completeExceptionally(e);
+					}
 				}
 			}
-		}
-		finally
+		);
+		if ( !isQueued )
 		{
-			fLock.readLock().unlock();
+			future.complete(null);	// the device is overloaded - treat it as a miss rather than wait
 		}
+		return future;
+	}
 
-		if ( ccdb2Spec != null )
+	@Override
+	public SCObjectRegion getObjectRegion(String key, int minimumSize) throws IOException
+	{
+		final CCDB2ObjectRegion 	region = getShard(key).getObjectRegion(key, minimumSize);
+		if ( region == null )
 		{
-			fSuccessfulGetQty.incrementAndGet();
-			return new SCDataSpec(ccdb2Spec.data, ccdb2Spec.ttl);
+			return null;
 		}
 
-		return null;
+		fGetQty.incrementAndGet();
+		fSuccessfulGetQty.incrementAndGet();
+		return new SCObjectRegion()
+		{
+			@Override
+			public int getLength()
+			{
+				return region.getLength();
+			}
+
+			@Override
+			public long getTTL()
+			{
+				return region.getTTL();
+			}
+
+			@Override
+			public void transferTo(WritableByteChannel channel) throws IOException
+			{
+				region.transferTo(channel);
+			}
+
+			@Override
+			public boolean isValid()
+			{
+				return region.isValid();
+			}
+
+			@Override
+			public void release()
+			{
+				region.release();
+			}
+		};
 	}
 
 	@Override
@@ -311,40 +405,38 @@ class CCDB2Storage implements SCStorage, CCDB2Driver
 
 		fPutQty.incrementAndGet();
 
-		fLock.readLock().lock();
-		try
-		{
-			boolean 						isFirst = true;
-			ListIterator<CCDB2Instance> 	iterator = reverseIterator();
-			while ( iterator.hasPrevious() )
+		getShard(key).put(key, ccdb2Spec, ccdb2Groups);
+	}
+
+	@Override
+	public CompletableFuture<Void> putAsync(final String key, final SCDataSpec spec, final SCGroupSpec groups)
+	{
+		final CompletableFuture<Void> 	future = new CompletableFuture<Void>();
+		final CCDB2Device 				device = getShard(key).getDevice();
+		boolean 						isQueued = device.execute
+		(
+			new Runnable()
 			{
-				CCDB2Instance		instance = iterator.previous();
-				try
+				@Override
+				public void run()
 				{
-					if ( isFirst )
+					try
 					{
-						isFirst = false;
-						instance.put(key, ccdb2Spec, ccdb2Groups);
+						put(key, spec, groups);
+						future.complete(null);
 					}
-					else
+					catch ( Throwable e )
 					{
-						instance.removeFromIndex(key);
+						future.completeExceptionally(e);
 					}
 				}
-				catch ( CCDB2SetFileLengthException e )
-				{
-					fDriver.setErrorState("Out of Disk Space");
-				}
-				catch ( IOException e )
-				{
-					handleException(e);
-				}
 			}
-		}
-		finally
+		);
+		if ( !isQueued )
 		{
-			fLock.readLock().unlock();
+			future.completeExceptionally(new IOException("I/O queue is full: " + device.getDirectoryPath().getPath()));
 		}
+		return future;
 	}
 
 	@Override
@@ -361,51 +453,60 @@ class CCDB2Storage implements SCStorage, CCDB2Driver
 		{
 		}
 
-		fLock.writeLock().lock();
-		try
+		Thread 		warmUpThread = fWarmUpThread;
+		if ( warmUpThread != null )
 		{
-			CCDB2InstanceLoader		loader = new CCDB2InstanceLoader
-			(
-				this,
-				fInstances,
-				new CCDB2InstanceLoader.ProcessDriver()
-				{
-					@Override
-					public void process(CCDB2Instance instance, AtomicInteger percentDone) throws IOException
-					{
-						instance.close(percentDone);
-					}
-				}
-			);
-			loader.load();
+			warmUpThread.interrupt();	// instances stop warming up when they're closed
+			try
+			{
+				warmUpThread.join();
+			}
+			catch ( InterruptedException ignore )
+			{
+			}
+		}
 
-			fInstances.clear();
+		// let queued async gets/puts finish before the instances are closed
+		for ( CCDB2Device device : fDevices )
+		{
+			device.shutdown();
 		}
-		finally
+
+		List<CCDB2Instance> 	allInstances = new ArrayList<CCDB2Instance>();
+		for ( CCDB2Shard shard : fShards )
 		{
-			fLock.writeLock().unlock();
+			if ( shard != null )
+			{
+				allInstances.addAll(shard.clearInstances());
+			}
 		}
+
+		CCDB2InstanceLoader		loader = new CCDB2InstanceLoader
+		(
+			this,
+			allInstances,
+			new CCDB2InstanceLoader.ProcessDriver()
+			{
+				@Override
+				public void process(CCDB2Instance instance, AtomicInteger percentDone) throws IOException
+				{
+					instance.close(percentDone);
+				}
+			}
+		);
+		loader.load();
 	}
 
 	@Override
 	public Set<String> regexFindKeys(String regex)
 	{
-		Set<String>						keys = new HashSet<String>();
+		Set<String>						keys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());	// instances add to it in parallel
 		try
 		{
 			Pattern p = Pattern.compile(regex);
-
-			fLock.readLock().lock();
-			try
-			{
-				for ( CCDB2Instance instance : fInstances )
-				{
-					instance.regexFindKeys(p, keys);
-				}
-			}
-			finally
+			for ( CCDB2Shard shard : fShards )
 			{
-				fLock.readLock().unlock();
+				shard.regexFindKeys(p, keys);
 			}
 		}
 		catch ( PatternSyntaxException e )
@@ -418,49 +519,17 @@ class CCDB2Storage implements SCStorage, CCDB2Driver
 	@Override
 	public void remove(String key) throws IOException
 	{
-		fLock.readLock().lock();
-		try
-		{
-			boolean 						isFirst = true;
-			ListIterator<CCDB2Instance> 	iterator = reverseIterator();
-			while ( iterator.hasPrevious() )
-			{
-				CCDB2Instance 	instance = iterator.previous();
-				if ( isFirst )
-				{
-					isFirst = false;
-					instance.remove(key);
-				}
-				else
-				{
-					instance.removeFromIndex(key);
-				}
-			}
-		}
-		finally
-		{
-			fLock.readLock().unlock();
-		}
+		getShard(key).remove(key);
 	}
 
 	@Override
 	public List<String> listGroup(SCGroup group) throws IOException
 	{
 		List<String>		keys = new ArrayList<String>();
-		fLock.readLock().lock();
-		try
-		{
-			for ( CCDB2Instance instance : fInstances )
-			{
-				List<String> 		instanceKeys =	instance.listGroup(group.value);
-				keys.addAll(instanceKeys);
-			}
-		}
-		finally
+		for ( CCDB2Shard shard : fShards )
 		{
-			fLock.readLock().unlock();
+			shard.listGroup(group.value, keys);
 		}
-
 		return keys;
 	}
 
@@ -468,20 +537,10 @@ class CCDB2Storage implements SCStorage, CCDB2Driver
 	public List<String> removeGroup(SCGroup group) throws IOException
 	{
 		List<String>		keys = new ArrayList<String>();
-		fLock.readLock().lock();
-		try
+		for ( CCDB2Shard shard : fShards )
 		{
-			for ( CCDB2Instance instance : fInstances )
-			{
-				List<String> 		instanceKeys =	instance.removeGroup(group.value);
-				keys.addAll(instanceKeys);
-			}
+			shard.removeGroup(group.value, keys);
 		}
-		finally
-		{
-			fLock.readLock().unlock();
-		}
-
 		return keys;
 	}
 
@@ -496,17 +555,13 @@ class CCDB2Storage implements SCStorage, CCDB2Driver
 		ByteArrayOutputStream	work = new ByteArrayOutputStream();
 		PrintStream				out = new PrintStream(work);
 
-		fLock.readLock().lock();
-		try
+		for ( CCDB2Shard shard : fShards )
 		{
-			for ( CCDB2Instance instance : fInstances )
-			{
-				instance.dumpStats(out);
-			}
+			shard.dumpStats(out);
 		}
-		finally
+		for ( CCDB2Device device : fDevices )
 		{
-			fLock.readLock().unlock();
+			device.dumpStats(out);
 		}
 
 		out.close();
@@ -526,6 +581,12 @@ class CCDB2Storage implements SCStorage, CCDB2Driver
 		tab.add("Total Gets:  " + fGetQty.get());
 		tab.add("Gets:        " + successful_get_qty);
 		tab.add("Puts:        " + put_qty);
+		long 			promotedQty = 0;
+		for ( CCDB2Shard shard : fShards )
+		{
+			promotedQty += shard.getPromotedQty();
+		}
+		tab.add("Promoted:    " + promotedQty);
 		if ( total_qty > 0 )
 		{
 			tab.add("Gets v Puts: " + ((successful_get_qty * 100) / total_qty) + "%");
@@ -544,17 +605,9 @@ class CCDB2Storage implements SCStorage, CCDB2Driver
 
 		try
 		{
-			fLock.readLock().lock();
-			try
-			{
-				for ( CCDB2Instance instance : fInstances )
-				{
-					instance.writeKeyData(out);
-				}
-			}
-			finally
+			for ( CCDB2Shard shard : fShards )
 			{
-				fLock.readLock().unlock();
+				shard.writeKeyData(out);
 			}
 		}
 		finally
@@ -563,117 +616,136 @@ class CCDB2Storage implements SCStorage, CCDB2Driver
 		}
 	}
 	
-	private void doCleanupTasks()
+	/**
+	 * Split the object cache budget evenly across the live instances of all the shards. Called whenever an instance
+	 * is added or removed.
+	 */
+	void updateObjectCacheShares()
 	{
-		cleanupInstances();
-		cleanupOldObjects();
-	}
-
-	private void cleanupOldObjects()
-	{
-		fLock.readLock().lock();
-		try
+		List<CCDB2Instance> 	instances = new ArrayList<CCDB2Instance>();
+		for ( CCDB2Shard shard : fShards )
 		{
-			// important - do this from oldest to newest so that old objects don't suddenly become active
-			for ( CCDB2Instance instance : fInstances )
-			{
-				instance.removeOldKeysFromIndex();
-			}
+			instances.addAll(shard.getInstances());
 		}
-		finally
+
+		long 		share = fParameters.getObjectCacheSize() / Math.max(instances.size(), 1);
+		fObjectCacheShare = share;
+		for ( CCDB2Instance instance : instances )
 		{
-			fLock.readLock().unlock();
+			instance.setObjectCacheSize(share);
 		}
 	}
 
-	private void cleanupInstances()
+	private void doCleanupTasks()
 	{
-		/**
-		 * allocate a new instance just in case it's needed - that way it
-		 * won't be done while synchronized
-		 */
-		CCDB2Instance 	newInstance;
-		try
+		// one shard at a time - rotating a shard only stalls the keys in that shard
+		for ( CCDB2Shard shard : fShards )
 		{
-			newInstance = makeNewInstance();
+			shard.cleanupInstances();
+			shard.cleanupOldObjects();
+			shard.compactIndexFiles();
+			shard.saveHotKeys();
 		}
-		catch ( IOException e )
-		{
-			handleException(e);
-			return;
-		}
-
-		CCDB2Instance 		deleteInstance = null;
+	}
 
-		fLock.writeLock().lock();
-		try
-		{
-			if ( fInstances.size() > 0 )
+	private void startWarmUp(List<CCDB2Instance> instances, final Map<CCDB2Instance, CCDB2Device> instanceDevices)
+	{
+		final CCDB2InstanceLoader 	loader = new CCDB2InstanceLoader
+		(
+			this,
+			instances,
+			new CCDB2InstanceLoader.ProcessDriver()
 			{
-				CCDB2Instance 		mainInstance = fInstances.get(fInstances.size() - 1);
-				if ( (System.currentTimeMillis() - mainInstance.getCreationTime()) >= fParameters.getShuffleMilliseconds() )
+				@Override
+				public void process(CCDB2Instance instance, AtomicInteger percentDone) throws IOException
 				{
-					if ( fInstances.size() >= fParameters.getMaxInstances() )
+					// one instance at a time per device so that the device's reads stay sequential
+					synchronized(instanceDevices.get(instance))
 					{
-						deleteInstance = fInstances.remove(0);
+						instance.warmUp(percentDone);
 					}
-
-					fInstances.add(newInstance);
-					newInstance = null;	// so it won't be deleted
 				}
 			}
-		}
-		finally
-		{
-			fLock.writeLock().unlock();
-		}
+		);
 
-		if ( newInstance != null )
-		{
-			try
-			{
-				newInstance.delete();
-			}
-			catch ( IOException e )
+		fWarmUpThread = new Thread
+		(
+			new Runnable()
 			{
-				handleException(e);
+				@Override
+				public void run()
+				{
+					log("Warming up...", null, true);
+					try
+					{
+						loader.load();
+					}
+					catch ( IOException e )
+					{
+						handleException(e);
+					}
+				}
 			}
+		);
+		fWarmUpThread.setDaemon(true);
+		fWarmUpThread.start();
+	}
+
+	private void expireOldObjects()
+	{
+		for ( CCDB2Shard shard : fShards )
+		{
+			shard.expireOldObjects(EXPIRATION_BATCH_QTY);
 		}
+	}
 
-		if ( deleteInstance != null )
+	private void promoteKeys()
+	{
+		for ( CCDB2Shard shard : fShards )
 		{
-			try
-			{
-				deleteInstance.delete();
-			}
-			catch ( IOException e )
-			{
-				handleException(e);
-			}
+			shard.promoteKeys();
 		}
 	}
 
-	private ListIterator<CCDB2Instance> reverseIterator()
+	private SCDataSpec makeDataSpec(CCDB2DataSpec ccdb2Spec)
 	{
-		return fInstances.listIterator(fInstances.size());
+		if ( ccdb2Spec != null )
+		{
+			fSuccessfulGetQty.incrementAndGet();
+			return new SCDataSpec(ccdb2Spec.data, ccdb2Spec.ttl);
+		}
+
+		return null;
 	}
 
-	private CCDB2Instance makeNewInstance() throws IOException
+	private CCDB2Shard getShard(String key)
 	{
-		String			filename = fParameters.getFilePrefix() + System.nanoTime();
-		return new CCDB2Instance(this, fDirectoryPath, filename, fParameters.getBackgroundPutLength());
+		if ( fShards.length == 1 )
+		{
+			return fShards[0];
+		}
+
+		int 		hash = key.hashCode();
+		hash ^= (hash >>> 16);
+		return fShards[(hash & Integer.MAX_VALUE) % fShards.length];
 	}
 
 	private static final int			SLEEP_TICKS = 15 * 60 * 1000;	// 15 minutes
 	private static final int			FIRST_TIME_SLEEP_TICKS = 2 * 60 * 1000;	// 2 minutes
+	private static final int			EXPIRATION_SLEEP_TICKS = 1000;	// 1 second
+	private static final int			EXPIRATION_BATCH_QTY = 10000;	// per instance per EXPIRATION_SLEEP_TICKS
+
+	private static final String 		SHARD_DIRECTORY_PREFIX = "shard";
 
 	private	File 								fDirectoryPath;
 	private final AtomicLong 					fGetQty;
 	private final AtomicLong 					fSuccessfulGetQty;
 	private final AtomicLong 					fPutQty;
-	private final List<CCDB2Instance> 			fInstances;
-	private final ReentrantReadWriteLock 		fLock;
+	private final CCDB2Shard[] 					fShards;
+	private final List<CCDB2Device> 			fDevices;
 	private final Thread 						fCleanupThread;
+	private volatile Thread 					fWarmUpThread;
+	private volatile long 						fObjectCacheShare;
 	private final CCDB2Parameters 				fParameters;
 	private SCStorageServerDriver fDriver;
 }